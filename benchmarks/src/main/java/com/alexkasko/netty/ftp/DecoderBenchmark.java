@@ -0,0 +1,71 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import static org.jboss.netty.buffer.ChannelBuffers.dynamicBuffer;
+
+/**
+ * {@link CrlfStringDecoder} benchmark, single operation decodes batch of commands either
+ * received in one read or fragmented into small reads
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecoderBenchmark {
+    private static final String[] COMMANDS = {"USER anonymous", "CWD /foo/bar", "TYPE I", "PASV", "STOR baz.csv", "NOOP"};
+    // number of commands, annotation values must be constant
+    private static final int BATCH_SIZE = 6;
+
+    @Param({"3", "8"})
+    private int fragmentSize;
+
+    private byte[] batch;
+    private CrlfStringDecoder decoder;
+    private ChannelBuffer cb;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder();
+        for (String co : COMMANDS) sb.append(co).append("\r\n");
+        batch = sb.toString().getBytes(Charset.forName("ASCII"));
+        decoder = new CrlfStringDecoder();
+        cb = dynamicBuffer(512);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void coalesced(Blackhole bh) throws Exception {
+        cb.writeBytes(batch);
+        for (;;) {
+            Object line = decoder.decode(null, null, cb);
+            if (null == line) break;
+            bh.consume(line);
+        }
+        cb.discardReadBytes();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void fragmented(Blackhole bh) throws Exception {
+        for (int i = 0; i < batch.length; i += fragmentSize) {
+            cb.writeBytes(batch, i, Math.min(fragmentSize, batch.length - i));
+            for (;;) {
+                Object line = decoder.decode(null, null, cb);
+                if (null == line) break;
+                bh.consume(line);
+            }
+        }
+        cb.discardReadBytes();
+    }
+}
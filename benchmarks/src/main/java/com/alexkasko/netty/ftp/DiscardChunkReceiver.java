@@ -0,0 +1,40 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * Receiver that drops uploaded data, so benchmarks measure server overhead only
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+class DiscardChunkReceiver implements DataChunkReceiver {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onStart(DataTransfer transfer) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onChunk(DataTransfer transfer, ChannelBuffer chunk) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onComplete(DataTransfer transfer) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onError(DataTransfer transfer, Throwable cause) {
+    }
+}
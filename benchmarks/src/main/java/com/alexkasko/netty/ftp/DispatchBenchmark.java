@@ -0,0 +1,66 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FtpServerHandler#messageReceived} benchmark, single operation parses command line,
+ * dispatches it through command table and writes reply to embedded channel
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchBenchmark {
+
+    @Param({"NOOP", "USER anonymous", "CWD /foo/bar", "PWD", "TYPE I", "ALLO 1024", "SYST", "XYZW unknown"})
+    private String line;
+
+    private DecoderEmbedder<Object> embedder;
+
+    @Setup
+    public void setup() {
+        embedder = new DecoderEmbedder<Object>(new FtpServerHandler(new DiscardReceiver()));
+        // drop 220 greeting
+        drain(null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        embedder.finish();
+    }
+
+    @Benchmark
+    public void dispatch(Blackhole bh) {
+        embedder.offer(line);
+        drain(bh);
+    }
+
+    private void drain(Blackhole bh) {
+        for (;;) {
+            Object reply = embedder.poll();
+            if (null == reply) break;
+            if (null != bh) bh.consume(reply);
+        }
+    }
+
+    private static class DiscardReceiver implements DataReceiver {
+        @Override
+        public void receive(String directory, String name, InputStream data) throws IOException {
+            byte[] buf = new byte[8192];
+            while (-1 != data.read(buf)) {
+                // discard
+            }
+        }
+    }
+}
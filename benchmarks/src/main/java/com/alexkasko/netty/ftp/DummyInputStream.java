@@ -0,0 +1,44 @@
+package com.alexkasko.netty.ftp;
+
+import java.io.InputStream;
+
+/**
+ * Input stream of specified length for benchmark uploads, content is not generated
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class DummyInputStream extends InputStream {
+    private long remaining;
+
+    /**
+     * Constructor
+     *
+     * @param size number of bytes to return
+     */
+    public DummyInputStream(long size) {
+        this.remaining = size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() {
+        if (0 == remaining) return -1;
+        remaining -= 1;
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (0 == remaining) return -1;
+        // uploaded content is irrelevant, buffer is left as is
+        int res = (int) Math.min(len, remaining);
+        remaining -= res;
+        return res;
+    }
+}
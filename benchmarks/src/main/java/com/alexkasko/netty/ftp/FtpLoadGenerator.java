@@ -0,0 +1,292 @@
+package com.alexkasko.netty.ftp;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.apache.commons.net.ftp.FTPReply.isPositiveCompletion;
+
+/**
+ * Load generator, runs embedded server and drives concurrent clients each doing CWD/STOR
+ * in a loop in active or passive mode. Reports uploads/sec, MB/s, STOR-to-226 latency percentiles
+ * and error counts, server side passive ports usage is reported to show ports contention.
+ * Client that fails to connect retries with exponential backoff and stops after {@code connectRetries}
+ * consecutive failures, so an overloaded server is not hammered with reconnects.
+ * Run with {@code java -cp benchmarks.jar [-Dname=value ...] com.alexkasko.netty.ftp.FtpLoadGenerator},
+ * supported properties:
+ * <ul>
+ *     <li>{@code clients} number of concurrent clients, default {@code 100}</li>
+ *     <li>{@code seconds} test duration, default {@code 30}</li>
+ *     <li>{@code sizes} weighted file sizes, e.g. {@code 1k*80,64k*15,4m*5}, default {@code 1k*80,64k*15,1m*5}</li>
+ *     <li>{@code passive} share of clients using passive mode, default {@code 0.5}</li>
+ *     <li>{@code transport} data connections transport, {@code blocking} or {@code nio}, default {@code blocking}</li>
+ *     <li>{@code threads} server command executor threads, default {@code 16}</li>
+ *     <li>{@code ports} passive ports range, default {@code 6000-6999}</li>
+ *     <li>{@code connectRetries} max consecutive connect failures of single client, default {@code 10}</li>
+ * </ul>
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class FtpLoadGenerator {
+    private static final int CONTROL_PORT = 2321;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MIN_BACKOFF_MILLIS = 10;
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+
+    private final int clients = Integer.getInteger("clients", 100);
+    private final int seconds = Integer.getInteger("seconds", 30);
+    private final SizeDistribution sizes = new SizeDistribution(System.getProperty("sizes", "1k*80,64k*15,1m*5"));
+    private final double passiveShare = Double.parseDouble(System.getProperty("passive", "0.5"));
+    private final boolean nio = "nio".equals(System.getProperty("transport", "blocking"));
+    private final int threads = Integer.getInteger("threads", 16);
+    private final String ports = System.getProperty("ports", "6000-6999");
+    private final int connectRetries = Integer.getInteger("connectRetries", 10);
+
+    private final ConcurrentHistogram latencies = new ConcurrentHistogram();
+    private final AtomicLong bytes = new AtomicLong(0);
+    private final AtomicLong storErrors = new AtomicLong(0);
+    private final AtomicLong connectErrors = new AtomicLong(0);
+    private final AtomicLong abandonedClients = new AtomicLong(0);
+
+    /**
+     * Runs load test with settings from system properties
+     *
+     * @param args ignored
+     * @throws Exception on server startup error
+     */
+    public static void main(String[] args) throws Exception {
+        new FtpLoadGenerator().run();
+    }
+
+    private void run() throws Exception {
+        int lowestPort = Integer.parseInt(ports.split("-")[0]);
+        int highestPort = Integer.parseInt(ports.split("-")[1]);
+        ExecutorService boss = newCachedThreadPool();
+        ExecutorService worker = newCachedThreadPool();
+        ExecutorService receiverExecutor = newCachedThreadPool();
+        OrderedMemoryAwareThreadPoolExecutor commandExecutor = new OrderedMemoryAwareThreadPoolExecutor(threads, 0, 0);
+        NioServerSocketChannelFactory factory = new NioServerSocketChannelFactory(boss, worker);
+        NioDataTransport transport = nio ? new NioDataTransport(factory, boss, worker, receiverExecutor) : null;
+        FtpMetrics metrics = new FtpMetrics();
+        ServerBootstrap bootstrap = new ServerBootstrap(factory);
+        bootstrap.setPipelineFactory(new PipelineFactory(commandExecutor, transport, metrics, lowestPort, highestPort));
+        bootstrap.setOption("child.tcpNoDelay", true);
+        Channel server = bootstrap.bind(new InetSocketAddress("127.0.0.1", CONTROL_PORT));
+        System.out.println("clients: [" + clients + "], seconds: [" + seconds + "], sizes: [" + sizes + "], " +
+                "passive: [" + passiveShare + "], transport: [" + (nio ? "nio" : "blocking") + "], " +
+                "threads: [" + threads + "], ports: [" + ports + "], connectRetries: [" + connectRetries + "]");
+        long deadline = System.currentTimeMillis() + seconds * 1000L;
+        CountDownLatch latch = new CountDownLatch(clients);
+        for (int i = 0; i < clients; i++) {
+            boolean passive = i < Math.round(clients * passiveShare);
+            new Thread(new Client(i, passive, deadline, latch), "load-client-" + i).start();
+        }
+        latch.await();
+        long uploads = latencies.getCount();
+        System.out.println(String.format("uploads: %d, uploads/sec: %.1f, MB/s: %.2f",
+                uploads, ((double) uploads) / seconds, bytes.get() / 1048576d / seconds));
+        System.out.println(String.format("STOR-to-226 latency, ms: p50: %.2f, p99: %.2f, p999: %.2f, max: %.2f",
+                latencies.getValueAtPercentile(50) / 1000d, latencies.getValueAtPercentile(99) / 1000d,
+                latencies.getValueAtPercentile(99.9) / 1000d, latencies.getMax() / 1000d));
+        System.out.println("errors: STOR: [" + storErrors.get() + "], connect: [" + connectErrors.get() + "], " +
+                "abandoned clients: [" + abandonedClients.get() + "], " +
+                "server 4xx: [" + metrics.getTransientErrorReplies() + "], " +
+                "server 5xx: [" + metrics.getPermanentErrorReplies() + "]");
+        PassivePortAllocator allocator = PassivePortAllocator.shared(lowestPort, highestPort);
+        System.out.println("passive ports: allocations: [" + allocator.getAllocationsCount() + "], " +
+                "exhaustions: [" + allocator.getExhaustionsCount() + "], " +
+                "bind failures: [" + metrics.getPassiveBindFailures() + "]");
+        server.close().awaitUninterruptibly();
+        factory.releaseExternalResources();
+        if (null != transport) transport.releaseExternalResources();
+        commandExecutor.shutdownNow();
+        receiverExecutor.shutdownNow();
+    }
+
+    private class Client implements Runnable {
+        private final int id;
+        private final boolean passive;
+        private final long deadline;
+        private final CountDownLatch latch;
+        private final Random random;
+
+        private Client(int id, boolean passive, long deadline, CountDownLatch latch) {
+            this.id = id;
+            this.passive = passive;
+            this.deadline = deadline;
+            this.latch = latch;
+            this.random = new Random(id);
+        }
+
+        @Override
+        public void run() {
+            try {
+                int failures = 0;
+                while (System.currentTimeMillis() < deadline) {
+                    FTPClient client = connect();
+                    if (null == client) {
+                        failures += 1;
+                        if (failures >= connectRetries) {
+                            abandonedClients.incrementAndGet();
+                            return;
+                        }
+                        backoff(failures);
+                        continue;
+                    }
+                    failures = 0;
+                    try {
+                        upload(client);
+                    } finally {
+                        disconnect(client);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                latch.countDown();
+            }
+        }
+
+        private void backoff(int failures) throws InterruptedException {
+            long delay = Math.min(MIN_BACKOFF_MILLIS << Math.min(failures - 1, 20), MAX_BACKOFF_MILLIS);
+            Thread.sleep(Math.min(delay, Math.max(deadline - System.currentTimeMillis(), 0)));
+        }
+
+        private FTPClient connect() {
+            FTPClient client = new FTPClient();
+            client.setBufferSize(BUFFER_SIZE);
+            try {
+                client.connect("127.0.0.1", CONTROL_PORT);
+                client.setTcpNoDelay(true);
+                if (!isPositiveCompletion(client.getReplyCode()) || !client.setFileType(FTP.BINARY_FILE_TYPE)) {
+                    throw new IOException(client.getReplyString());
+                }
+                if (passive) client.enterLocalPassiveMode();
+                else client.enterLocalActiveMode();
+                return client;
+            } catch (IOException e) {
+                connectErrors.incrementAndGet();
+                disconnect(client);
+                return null;
+            }
+        }
+
+        private void upload(FTPClient client) {
+            int counter = 0;
+            while (System.currentTimeMillis() < deadline) {
+                long size = sizes.next(random);
+                try {
+                    if (!client.changeWorkingDirectory("/client" + id)) throw new IOException(client.getReplyString());
+                    long start = System.nanoTime();
+                    boolean success = client.storeFile("file" + counter++, new DummyInputStream(size));
+                    if (success) {
+                        latencies.record((System.nanoTime() - start) / 1000);
+                        bytes.addAndGet(size);
+                    } else storErrors.incrementAndGet();
+                } catch (IOException e) {
+                    storErrors.incrementAndGet();
+                    return;
+                }
+            }
+        }
+
+        private void disconnect(FTPClient client) {
+            try {
+                if (client.isConnected()) client.disconnect();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static class SizeDistribution {
+        private final String spec;
+        private final long[] sizes;
+        private final int[] cumulativeWeights;
+
+        private SizeDistribution(String spec) {
+            this.spec = spec;
+            String[] parts = spec.split(",");
+            this.sizes = new long[parts.length];
+            this.cumulativeWeights = new int[parts.length];
+            int total = 0;
+            for (int i = 0; i < parts.length; i++) {
+                String[] pa = parts[i].trim().split("\\*");
+                sizes[i] = parseSize(pa[0]);
+                total += pa.length > 1 ? Integer.parseInt(pa[1]) : 1;
+                cumulativeWeights[i] = total;
+            }
+        }
+
+        long next(Random random) {
+            int val = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+            for (int i = 0; i < cumulativeWeights.length; i++) {
+                if (val < cumulativeWeights[i]) return sizes[i];
+            }
+            throw new IllegalStateException(spec);
+        }
+
+        @Override
+        public String toString() {
+            return spec;
+        }
+
+        private static long parseSize(String str) {
+            String lower = str.trim().toLowerCase();
+            char unit = lower.charAt(lower.length() - 1);
+            long mult = 'k' == unit ? 1L << 10 : 'm' == unit ? 1L << 20 : 'g' == unit ? 1L << 30 : 1;
+            String num = 1 == mult ? lower : lower.substring(0, lower.length() - 1);
+            return Long.parseLong(num) * mult;
+        }
+    }
+
+    private static class PipelineFactory implements ChannelPipelineFactory {
+        private final ExecutionHandler executionHandler;
+        private final NioDataTransport transport;
+        private final FtpMetrics metrics;
+        private final int lowestPort;
+        private final int highestPort;
+
+        private PipelineFactory(OrderedMemoryAwareThreadPoolExecutor executor, NioDataTransport transport,
+                                FtpMetrics metrics, int lowestPort, int highestPort) {
+            this.executionHandler = new ExecutionHandler(executor);
+            this.transport = transport;
+            this.metrics = metrics;
+            this.lowestPort = lowestPort;
+            this.highestPort = highestPort;
+        }
+
+        @Override
+        public ChannelPipeline getPipeline() throws Exception {
+            InetAddress localhost = InetAddress.getByName("127.0.0.1");
+            ChannelPipeline pipe = Channels.pipeline();
+            pipe.addLast("decoder", new CrlfStringDecoder());
+            pipe.addLast("commandDecoder", new FtpCommandDecoder());
+            pipe.addLast("executor", executionHandler);
+            FtpServerHandler handler = null != transport ?
+                    new FtpServerHandler(new DiscardChunkReceiver(), transport, localhost, localhost,
+                            lowestPort, highestPort, 10) :
+                    new FtpServerHandler(new DiscardChunkReceiver(), localhost, localhost,
+                            lowestPort, highestPort, 10, 0);
+            pipe.addLast("handler", handler.setMetrics(metrics));
+            return pipe;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import static org.jboss.netty.buffer.ChannelBuffers.wrappedBuffer;
+
+/**
+ * Reply encoding benchmark, compares pre-encoded and directly encoded replies
+ * with encoding through intermediate strings
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplyBenchmark {
+    private static final Charset ASCII = Charset.forName("ASCII");
+
+    private String name = "baz.csv";
+    private byte[] address = {127, 0, 0, 1};
+    private int port = 4242;
+
+    @Benchmark
+    public ChannelBuffer constant() {
+        return FtpReply.OK.encoded();
+    }
+
+    @Benchmark
+    public ChannelBuffer constantString() {
+        return wrappedBuffer((FtpReply.OK.getText() + "\r\n").getBytes(ASCII));
+    }
+
+    @Benchmark
+    public ChannelBuffer dynamic() {
+        return FtpReply.encode("150 Opening binary mode data connection for ", name);
+    }
+
+    @Benchmark
+    public ChannelBuffer dynamicString() {
+        return wrappedBuffer(("150 Opening binary mode data connection for " + name + "\r\n").getBytes(ASCII));
+    }
+
+    @Benchmark
+    public ChannelBuffer passive() {
+        return FtpReply.encodePassive(address, port);
+    }
+
+    @Benchmark
+    public ChannelBuffer passiveFormat() {
+        String line = String.format("227 Entering Passive Mode (%d,%d,%d,%d,%d,%d)\r\n",
+                address[0] & 0xff, address[1] & 0xff, address[2] & 0xff, address[3] & 0xff,
+                port >> 8 & 0xff, port & 0xff);
+        return wrappedBuffer(line.getBytes(ASCII));
+    }
+}
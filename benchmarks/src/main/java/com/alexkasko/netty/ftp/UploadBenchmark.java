@@ -0,0 +1,139 @@
+package com.alexkasko.netty.ftp;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.apache.commons.net.ftp.FTPReply.isPositiveCompletion;
+
+/**
+ * End-to-end loopback STOR benchmark, single operation uploads one file using commons-net client
+ * to the server bound with {@link ServerBootstrap}. Uploaded bytes per second are reported
+ * as {@code bytes} secondary result.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class UploadBenchmark {
+    private static final int CONTROL_PORT = 2221;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Param({"1024", "1073741824"})
+    private long size;
+
+    @Param({"active", "passive"})
+    private String mode;
+
+    @Param({"blocking", "nio"})
+    private String transport;
+
+    private ExecutorService boss;
+    private ExecutorService worker;
+    private ExecutorService receiverExecutor;
+    private OrderedMemoryAwareThreadPoolExecutor commandExecutor;
+    private NioServerSocketChannelFactory factory;
+    private NioDataTransport dataTransport;
+    private Channel server;
+    private FTPClient client;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        boss = newCachedThreadPool();
+        worker = newCachedThreadPool();
+        factory = new NioServerSocketChannelFactory(boss, worker);
+        receiverExecutor = newCachedThreadPool();
+        if ("nio".equals(transport)) dataTransport = new NioDataTransport(factory, boss, worker, receiverExecutor);
+        commandExecutor = new OrderedMemoryAwareThreadPoolExecutor(4, 0, 0);
+        ServerBootstrap bootstrap = new ServerBootstrap(factory);
+        bootstrap.setPipelineFactory(new PipelineFactory(commandExecutor, dataTransport));
+        bootstrap.setOption("child.tcpNoDelay", true);
+        server = bootstrap.bind(new InetSocketAddress("127.0.0.1", CONTROL_PORT));
+        client = new FTPClient();
+        client.setBufferSize(BUFFER_SIZE);
+        client.connect("127.0.0.1", CONTROL_PORT);
+        client.setTcpNoDelay(true);
+        if (!isPositiveCompletion(client.getReplyCode())) throw new IOException(client.getReplyString());
+        if (!client.setFileType(FTP.BINARY_FILE_TYPE)) throw new IOException(client.getReplyString());
+        if ("passive".equals(mode)) client.enterLocalPassiveMode();
+        else client.enterLocalActiveMode();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try {
+            client.logout();
+            client.disconnect();
+        } finally {
+            server.close().awaitUninterruptibly();
+            factory.releaseExternalResources();
+            if (null != dataTransport) dataTransport.releaseExternalResources();
+            commandExecutor.shutdownNow();
+            receiverExecutor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public void stor(Bytes bytes) throws IOException {
+        if (!client.storeFile("bench.bin", new DummyInputStream(size))) throw new IOException(client.getReplyString());
+        bytes.bytes += size;
+    }
+
+    /**
+     * Uploaded bytes counter
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    private static class PipelineFactory implements ChannelPipelineFactory {
+        private final ExecutionHandler executionHandler;
+        private final NioDataTransport transport;
+
+        private PipelineFactory(OrderedMemoryAwareThreadPoolExecutor executor, NioDataTransport transport) {
+            this.executionHandler = new ExecutionHandler(executor);
+            this.transport = transport;
+        }
+
+        @Override
+        public ChannelPipeline getPipeline() throws Exception {
+            InetAddress localhost = InetAddress.getByName("127.0.0.1");
+            ChannelPipeline pipe = Channels.pipeline();
+            pipe.addLast("decoder", new CrlfStringDecoder());
+            pipe.addLast("commandDecoder", new FtpCommandDecoder());
+            pipe.addLast("executor", executionHandler);
+            FtpServerHandler handler = null != transport ?
+                    new FtpServerHandler(new DiscardChunkReceiver(), transport, localhost, localhost, 5000, 5100, 10) :
+                    new FtpServerHandler(new DiscardChunkReceiver(), localhost, localhost, 5000, 5100, 10, 0);
+            pipe.addLast("handler", handler);
+            return pipe;
+        }
+    }
+}
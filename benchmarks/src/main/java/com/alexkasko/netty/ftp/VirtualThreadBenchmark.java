@@ -0,0 +1,182 @@
+package com.alexkasko.netty.ftp;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.apache.commons.net.ftp.FTPReply.isPositiveCompletion;
+
+/**
+ * Concurrent loopback STOR benchmark of blocking {@link DataReceiver}, that simulates slow downstream
+ * storage with the sleep after reading each file. Compares fixed size thread pools of {@link ExecutionHandler}
+ * and {@link NioDataTransport} with {@link VirtualThreadExecutor}. Each benchmark thread is a separate
+ * client session, run with {@code -t} option to change the number of sessions.
+ * Virtual mode requires JDK 21 or later.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@Threads(256)
+public class VirtualThreadBenchmark {
+    private static final int CONTROL_PORT = 2222;
+    private static final byte[] CONTENT = new byte[4096];
+
+    @Param({"pooled", "virtual"})
+    private String executor;
+
+    @Param({"blocking", "nio"})
+    private String transport;
+
+    @Param({"16"})
+    private int poolSize;
+
+    @Param({"10"})
+    private long latencyMillis;
+
+    private ExecutorService boss;
+    private ExecutorService worker;
+    private ExecutorService pool;
+    private OrderedMemoryAwareThreadPoolExecutor commandExecutor;
+    private NioServerSocketChannelFactory factory;
+    private NioDataTransport dataTransport;
+    private Channel server;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        boss = newCachedThreadPool();
+        worker = newCachedThreadPool();
+        factory = new NioServerSocketChannelFactory(boss, worker);
+        Executor commands;
+        Executor receivers;
+        if ("virtual".equals(executor)) {
+            VirtualThreadExecutor virtual = new VirtualThreadExecutor();
+            commands = virtual;
+            receivers = virtual;
+        } else {
+            commandExecutor = new OrderedMemoryAwareThreadPoolExecutor(poolSize, 0, 0);
+            pool = newFixedThreadPool(poolSize);
+            commands = commandExecutor;
+            receivers = pool;
+        }
+        if ("nio".equals(transport)) dataTransport = new NioDataTransport(factory, boss, worker, receivers);
+        ServerBootstrap bootstrap = new ServerBootstrap(factory);
+        bootstrap.setPipelineFactory(new PipelineFactory(new ExecutionHandler(commands), dataTransport,
+                new SlowReceiver(latencyMillis)));
+        bootstrap.setOption("child.tcpNoDelay", true);
+        bootstrap.setOption("backlog", 1024);
+        server = bootstrap.bind(new InetSocketAddress("127.0.0.1", CONTROL_PORT));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close().awaitUninterruptibly();
+        factory.releaseExternalResources();
+        if (null != dataTransport) dataTransport.releaseExternalResources();
+        if (null != commandExecutor) commandExecutor.shutdownNow();
+        if (null != pool) pool.shutdownNow();
+    }
+
+    @Benchmark
+    public void stor(Session session) throws IOException {
+        if (!session.client.storeFile("bench.bin", new ByteArrayInputStream(CONTENT))) {
+            throw new IOException(session.client.getReplyString());
+        }
+    }
+
+    /**
+     * Client session of benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Session {
+        private FTPClient client;
+
+        @Setup(Level.Trial)
+        public void connect() throws IOException {
+            client = new FTPClient();
+            client.connect("127.0.0.1", CONTROL_PORT);
+            client.setTcpNoDelay(true);
+            if (!isPositiveCompletion(client.getReplyCode())) throw new IOException(client.getReplyString());
+            if (!client.setFileType(FTP.BINARY_FILE_TYPE)) throw new IOException(client.getReplyString());
+            client.enterLocalPassiveMode();
+        }
+
+        @TearDown(Level.Trial)
+        public void disconnect() throws IOException {
+            client.logout();
+            client.disconnect();
+        }
+    }
+
+    private static class PipelineFactory implements ChannelPipelineFactory {
+        private final ExecutionHandler executionHandler;
+        private final NioDataTransport transport;
+        private final DataReceiver receiver;
+
+        private PipelineFactory(ExecutionHandler executionHandler, NioDataTransport transport, DataReceiver receiver) {
+            this.executionHandler = executionHandler;
+            this.transport = transport;
+            this.receiver = receiver;
+        }
+
+        @Override
+        public ChannelPipeline getPipeline() throws Exception {
+            InetAddress localhost = InetAddress.getByName("127.0.0.1");
+            ChannelPipeline pipe = Channels.pipeline();
+            pipe.addLast("decoder", new CrlfStringDecoder());
+            pipe.addLast("commandDecoder", new FtpCommandDecoder());
+            pipe.addLast("executor", executionHandler);
+            FtpServerHandler handler = null != transport ?
+                    new FtpServerHandler(receiver, transport, localhost, localhost, 6000, 6999, 10) :
+                    new FtpServerHandler(receiver, localhost, localhost, 6000, 6999, 10, 0);
+            pipe.addLast("handler", handler);
+            return pipe;
+        }
+    }
+
+    private static class SlowReceiver implements DataReceiver {
+        private final long latencyMillis;
+
+        private SlowReceiver(long latencyMillis) {
+            this.latencyMillis = latencyMillis;
+        }
+
+        @Override
+        public void receive(String directory, String name, InputStream data) throws IOException {
+            byte[] buf = new byte[4096];
+            while (-1 != data.read(buf)) {
+                // discard
+            }
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted");
+            }
+        }
+    }
+}
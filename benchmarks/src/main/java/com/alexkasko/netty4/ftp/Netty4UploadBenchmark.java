@@ -0,0 +1,120 @@
+package com.alexkasko.netty4.ftp;
+
+import com.alexkasko.netty.ftp.DataTransfer;
+import com.alexkasko.netty.ftp.DummyInputStream;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.socket.SocketChannel;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.commons.net.ftp.FTPReply.isPositiveCompletion;
+
+/**
+ * Netty 4 counterpart of {@code com.alexkasko.netty.ftp.UploadBenchmark}, single operation uploads
+ * one file using commons-net client to the server bound with {@link FtpTransport}. Uploaded bytes per second
+ * are reported as {@code bytes} secondary result.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class Netty4UploadBenchmark {
+    private static final int CONTROL_PORT = 2231;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Param({"1024", "1073741824"})
+    private long size;
+
+    @Param({"active", "passive"})
+    private String mode;
+
+    @Param({"nio", "epoll"})
+    private String transport;
+
+    private FtpTransport ftpTransport;
+    private Channel server;
+    private FTPClient client;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        ftpTransport = "epoll".equals(transport) ? FtpTransport.epoll(0) : FtpTransport.nio(0);
+        final InetAddress localhost = InetAddress.getByName("127.0.0.1");
+        server = ftpTransport.controlBootstrap(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel ch) {
+                ch.pipeline().addLast("decoder", new CrlfStringDecoder());
+                ch.pipeline().addLast("handler", new FtpServerHandler(new DiscardChunkReceiver(), ftpTransport,
+                        localhost, localhost, 5200, 5300, 10));
+            }
+        }).bind(localhost, CONTROL_PORT).sync().channel();
+        client = new FTPClient();
+        client.setBufferSize(BUFFER_SIZE);
+        client.connect("127.0.0.1", CONTROL_PORT);
+        client.setTcpNoDelay(true);
+        if (!isPositiveCompletion(client.getReplyCode())) throw new IOException(client.getReplyString());
+        if (!client.setFileType(FTP.BINARY_FILE_TYPE)) throw new IOException(client.getReplyString());
+        if ("passive".equals(mode)) client.enterLocalPassiveMode();
+        else client.enterLocalActiveMode();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try {
+            client.logout();
+            client.disconnect();
+        } finally {
+            server.close().awaitUninterruptibly();
+            ftpTransport.shutdownGracefully().awaitUninterruptibly();
+        }
+    }
+
+    @Benchmark
+    public void stor(Bytes bytes) throws IOException {
+        if (!client.storeFile("bench.bin", new DummyInputStream(size))) throw new IOException(client.getReplyString());
+        bytes.bytes += size;
+    }
+
+    /**
+     * Uploaded bytes counter
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    private static class DiscardChunkReceiver implements DataChunkReceiver {
+        @Override
+        public void onStart(DataTransfer transfer) {
+        }
+
+        @Override
+        public void onChunk(DataTransfer transfer, ByteBuf chunk) {
+        }
+
+        @Override
+        public void onComplete(DataTransfer transfer) {
+        }
+
+        @Override
+        public void onError(DataTransfer transfer, Throwable cause) {
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.alexkasko.netty4.ftp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * {@link ByteToMessageDecoder} implementation, that accumulates input strings until {@code \r\n}
+ * and sends accumulated string upstream. Line end is located by scanning the buffer,
+ * only the line bytes without line terminator are decoded. Lines consisting of ASCII bytes
+ * are decoded directly without charset decoder. No garbage is produced for incomplete lines.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class CrlfStringDecoder extends ByteToMessageDecoder {
+    private static final byte CR = 13;
+    private static final byte LF = 10;
+
+    private final int maxRequestLengthBytes;
+    private final Charset encoding;
+    private final boolean asciiCompatible;
+    // decoder is used by single pipeline, calls are serialized by event loop
+    private final byte[] line;
+    private int scanned = 0;
+
+    /**
+     * Constructor, uses {@code 256} max string length and {@code UTF-8} encoding
+     */
+    public CrlfStringDecoder() {
+        this(1 << 8, "UTF-8");
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxRequestLengthBytes max length of accumulated string in bytes
+     * @param encoding string encoding to use before sending it upstream
+     */
+    public CrlfStringDecoder(int maxRequestLengthBytes, String encoding) {
+        if (maxRequestLengthBytes <= 0) throw new IllegalArgumentException(
+                "Provided maxRequestLengthBytes: [" + maxRequestLengthBytes + "] must be positive");
+        this.maxRequestLengthBytes = maxRequestLengthBytes;
+        this.encoding = Charset.forName(encoding);
+        this.asciiCompatible = isAsciiCompatible(this.encoding);
+        this.line = new byte[maxRequestLengthBytes];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        for (;;) {
+            int start = in.readerIndex();
+            int end = in.writerIndex();
+            int lf = in.indexOf(start + scanned, end, LF);
+            if (-1 == lf) {
+                scanned = end - start;
+                // trailing CR may be already received
+                if (scanned > maxRequestLengthBytes + 1) {
+                    in.skipBytes(scanned);
+                    scanned = 0;
+                    throw new TooLongFrameException("Request size threshold exceeded: [" + maxRequestLengthBytes + "]");
+                }
+                return;
+            }
+            scanned = 0;
+            in.readerIndex(lf + 1);
+            int length = lf - start;
+            if (length > 0 && CR == in.getByte(lf - 1)) length -= 1;
+            if (length > maxRequestLengthBytes) throw new TooLongFrameException(
+                    "Request size threshold exceeded: [" + maxRequestLengthBytes + "]");
+            out.add(decodeLine(in, start, length));
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private String decodeLine(ByteBuf in, int index, int length) {
+        in.getBytes(index, line, 0, length);
+        if (asciiCompatible) {
+            boolean ascii = true;
+            for (int i = 0; i < length && ascii; i++) ascii = line[i] >= 0;
+            // direct byte-to-char copy, no charset decoder
+            if (ascii) return new String(line, 0, 0, length);
+        }
+        return new String(line, 0, length, encoding);
+    }
+
+    private static boolean isAsciiCompatible(Charset charset) {
+        byte[] ascii = new byte[0x80];
+        for (int i = 0; i < ascii.length; i++) ascii[i] = (byte) i;
+        String decoded = new String(ascii, charset);
+        if (decoded.length() != ascii.length) return false;
+        for (int i = 0; i < ascii.length; i++) {
+            if (decoded.charAt(i) != i) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,54 @@
+package com.alexkasko.netty4.ftp;
+
+import com.alexkasko.netty.ftp.DataTransfer;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+
+/**
+ * Receiver of FTP file-uploads. Implementation is notified about upload progress with data chunks
+ * as soon as they are read from data connection. Single instance may be shared between concurrent uploads,
+ * per-upload state should be kept as {@link DataTransfer} attachment. Callbacks are called from data channel
+ * event loop and must not block, implementation should {@link DataTransfer#pause()} the transfer
+ * when it cannot keep up with incoming data and {@link DataTransfer#resume()} it later.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public interface DataChunkReceiver {
+    /**
+     * Called once before any data chunks
+     *
+     * @param transfer upload transfer
+     * @throws IOException on IO error, upload will be aborted
+     */
+    void onStart(DataTransfer transfer) throws IOException;
+
+    /**
+     * Called on each data chunk read from data connection. Chunk is released after this method returns,
+     * implementation must {@link ByteBuf#retain()} it to use it later and release it afterwards
+     *
+     * @param transfer upload transfer
+     * @param chunk data chunk
+     * @throws IOException on IO error, upload will be aborted
+     */
+    void onChunk(DataTransfer transfer, ByteBuf chunk) throws IOException;
+
+    /**
+     * Called once after all data was read, success reply is sent to client after this call
+     * unless completion was deferred with {@link DataTransfer#deferCompletion()}
+     *
+     * @param transfer upload transfer
+     * @throws IOException on IO error, upload will be aborted
+     */
+    void onComplete(DataTransfer transfer) throws IOException;
+
+    /**
+     * Called once on data connection error or on exception thrown from other callbacks,
+     * error reply is sent to client after this call unless completion was deferred
+     *
+     * @param transfer upload transfer
+     * @param cause error cause
+     */
+    void onError(DataTransfer transfer, Throwable cause);
+}
@@ -0,0 +1,223 @@
+package com.alexkasko.netty4.ftp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single FTP data connection opened by PORT or PASV command. Serves as a handler for the data channel,
+ * data channel is opened with auto-read disabled and reading starts only after the upload is started,
+ * so data chunks are never buffered before receiver is notified. Each chunk is released
+ * after it was passed to receiver.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+@ChannelHandler.Sharable
+class DataConnection extends ChannelInboundHandlerAdapter {
+    private static final Logger logger = LoggerFactory.getLogger(DataConnection.class);
+    private static final byte[] CRLF = new byte[]{13, 10};
+
+    private final ChannelHandlerContext ctx;
+    private final DataChunkReceiver receiver;
+    // guarded by this
+    private Channel serverChannel;
+    private Channel dataChannel;
+    private String command;
+    private String directory;
+    private String args;
+    private long allocatedSize;
+    private long offset;
+    private UploadTransfer upload;
+    private boolean closed = false;
+
+    /**
+     * Constructor
+     *
+     * @param ctx control channel context
+     * @param receiver chunk receiver
+     */
+    DataConnection(ChannelHandlerContext ctx, DataChunkReceiver receiver) {
+        this.ctx = ctx;
+        this.receiver = receiver;
+    }
+
+    /**
+     * Sets passive server channel, that will be closed after first accepted connection
+     *
+     * @param channel bound server channel
+     */
+    void setServerChannel(Channel channel) {
+        boolean close;
+        synchronized (this) {
+            serverChannel = channel;
+            close = closed || null != dataChannel;
+        }
+        if(close) channel.close();
+    }
+
+    /**
+     * Starts upload through this connection, transfer begins as soon as data channel is connected
+     *
+     * @param directory current directory
+     * @param name uploaded file name
+     * @param allocatedSize file size announced by client, {@code -1} if not announced
+     * @param offset byte offset the upload continues from
+     */
+    void startUpload(String directory, String name, long allocatedSize, long offset) {
+        start("STOR", directory, name, allocatedSize, offset);
+    }
+
+    /**
+     * Starts listing through this connection, transfer begins as soon as data channel is connected
+     *
+     * @param args command arguments
+     */
+    void startListing(String args) {
+        start("LIST", null, args, -1, 0);
+    }
+
+    /**
+     * Closes this connection releasing all the channels
+     */
+    void close() {
+        Channel sc;
+        Channel dc;
+        synchronized (this) {
+            closed = true;
+            sc = serverChannel;
+            dc = dataChannel;
+        }
+        if(null != sc) sc.close();
+        if(null != dc) dc.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void channelActive(ChannelHandlerContext dctx) {
+        Channel ch = dctx.channel();
+        Channel sc;
+        boolean begin;
+        synchronized (this) {
+            if(closed || null != dataChannel) {
+                ch.close();
+                return;
+            }
+            dataChannel = ch;
+            sc = serverChannel;
+            begin = null != command;
+        }
+        // only one data connection is accepted per PASV
+        if(null != sc) sc.close();
+        if(begin) begin();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void channelRead(ChannelHandlerContext dctx, Object msg) {
+        ByteBuf chunk = (ByteBuf) msg;
+        try {
+            UploadTransfer up;
+            synchronized (this) {
+                up = upload;
+            }
+            // reading is enabled only for started uploads
+            if(null != up) up.chunk(chunk);
+        } finally {
+            chunk.release();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext dctx) {
+        UploadTransfer up;
+        synchronized (this) {
+            up = upload;
+        }
+        if(null != up) up.end();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void exceptionCaught(ChannelHandlerContext dctx, Throwable cause) {
+        UploadTransfer up;
+        synchronized (this) {
+            up = upload;
+        }
+        if(null != up) up.abort(cause);
+        else logger.warn("Exception caught on data channel: [" + dctx.channel() + "]", cause);
+        dctx.close();
+    }
+
+    private void start(String command, String directory, String args, long allocatedSize, long offset) {
+        boolean begin;
+        synchronized (this) {
+            this.command = command;
+            this.directory = directory;
+            this.args = args;
+            this.allocatedSize = allocatedSize;
+            this.offset = offset;
+            begin = null != dataChannel;
+        }
+        if(begin) begin();
+    }
+
+    private void begin() {
+        Channel ch;
+        String cmd;
+        synchronized (this) {
+            ch = dataChannel;
+            cmd = command;
+        }
+        if("LIST".equals(cmd)) list(ch);
+        else upload(ch);
+    }
+
+    private void upload(final Channel ch) {
+        // started on data channel event loop to be ordered with data channel events
+        ch.eventLoop().execute(new Runnable() {
+            @Override
+            public void run() {
+                UploadTransfer up;
+                synchronized (DataConnection.this) {
+                    up = new UploadTransfer(ctx, receiver, directory, args, allocatedSize, offset, ch);
+                    upload = up;
+                }
+                up.start();
+                if(ch.isActive()) up.activate();
+                else up.end();
+            }
+        });
+    }
+
+    private void list(Channel ch) {
+        ctx.writeAndFlush(Replies.LIST_STARTED.duplicate());
+        ch.writeAndFlush(ch.alloc().buffer(CRLF.length).writeBytes(CRLF)).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                future.channel().close();
+                if(future.isSuccess()) ctx.writeAndFlush(Replies.LIST_COMPLETE.duplicate());
+                else {
+                    logger.warn("Exception thrown on writing through data channel: [" + future.channel() + "]",
+                            future.cause());
+                    ctx.writeAndFlush(Replies.FILE_ACTION_ABORTED.duplicate());
+                }
+            }
+        });
+    }
+}
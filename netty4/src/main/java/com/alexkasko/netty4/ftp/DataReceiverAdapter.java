@@ -0,0 +1,125 @@
+package com.alexkasko.netty4.ftp;
+
+import com.alexkasko.netty.ftp.DataReceiver;
+import com.alexkasko.netty.ftp.DataTransfer;
+import com.alexkasko.netty.ftp.ResumableDataReceiver;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Adapter that allows to use blocking {@link DataReceiver} as {@link DataChunkReceiver}.
+ * Data chunks are copied into bounded pipe read by the {@link DataReceiver#receive(String, String, java.io.InputStream)}
+ * call running on provided executor, so pooled buffers are released as soon as {@link #onChunk(DataTransfer, ByteBuf)}
+ * returns. Channel auto-read is disabled when receiver falls behind. Resumed uploads
+ * are passed to {@link ResumableDataReceiver#receive(String, String, long, java.io.InputStream)}.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class DataReceiverAdapter implements DataChunkReceiver {
+    private final DataReceiver receiver;
+    private final Executor executor;
+    private final int highWaterMark;
+    private final int lowWaterMark;
+
+    /**
+     * Constructor, uses {@code 1MB} high water mark and {@code 256KB} low water mark
+     *
+     * @param receiver blocking data receiver
+     * @param executor executor to run blocking receiver calls on
+     */
+    public DataReceiverAdapter(DataReceiver receiver, Executor executor) {
+        this(receiver, executor, 1 << 20, 1 << 18);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param receiver blocking data receiver
+     * @param executor executor to run blocking receiver calls on
+     * @param highWaterMark queued bytes count to pause transfer at
+     * @param lowWaterMark queued bytes count to resume transfer at
+     */
+    public DataReceiverAdapter(DataReceiver receiver, Executor executor, int highWaterMark, int lowWaterMark) {
+        if(null == receiver) throw new IllegalArgumentException("Provided receiver is null");
+        if(null == executor) throw new IllegalArgumentException("Provided executor is null");
+        if(highWaterMark <= 0) throw new IllegalArgumentException(
+                "Provided highWaterMark: [" + highWaterMark + "] must be positive");
+        if(lowWaterMark < 0 || lowWaterMark >= highWaterMark) throw new IllegalArgumentException(
+                "Provided lowWaterMark: [" + lowWaterMark + "] must be non-negative and less than " +
+                        "highWaterMark: [" + highWaterMark + "]");
+        this.receiver = receiver;
+        this.executor = executor;
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = lowWaterMark;
+    }
+
+    /**
+     * @return blocking data receiver
+     */
+    public DataReceiver getReceiver() {
+        return receiver;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onStart(final DataTransfer transfer) {
+        final ReceiverInputStream data = new ReceiverInputStream(transfer, highWaterMark, lowWaterMark);
+        transfer.setAttachment(data);
+        transfer.deferCompletion();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long offset = transfer.getOffset();
+                    if (0 == offset) receiver.receive(transfer.getDirectory(), transfer.getName(), data);
+                    else if (receiver instanceof ResumableDataReceiver) ((ResumableDataReceiver) receiver)
+                            .receive(transfer.getDirectory(), transfer.getName(), offset, data);
+                    else throw new IOException("Resumed uploads are not supported by receiver: [" + receiver + "]");
+                    transfer.complete();
+                } catch (Exception e) {
+                    transfer.fail(e);
+                } finally {
+                    data.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Copies chunk into the pipe, chunk itself is released by data connection after this call
+     *
+     * @param transfer upload transfer
+     * @param chunk data chunk
+     */
+    @Override
+    public void onChunk(DataTransfer transfer, ByteBuf chunk) {
+        byte[] copy = new byte[chunk.readableBytes()];
+        chunk.readBytes(copy);
+        stream(transfer).offer(copy);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onComplete(DataTransfer transfer) {
+        stream(transfer).finish();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onError(DataTransfer transfer, Throwable cause) {
+        stream(transfer).fail(cause);
+    }
+
+    private static ReceiverInputStream stream(DataTransfer transfer) {
+        return (ReceiverInputStream) transfer.getAttachment();
+    }
+}
@@ -0,0 +1,395 @@
+package com.alexkasko.netty4.ftp;
+
+import com.alexkasko.netty.ftp.DataReceiver;
+import com.alexkasko.netty.ftp.FtpCommand;
+import com.alexkasko.netty.ftp.FtpVerb;
+import com.alexkasko.netty.ftp.PassivePortAllocator;
+import com.alexkasko.netty.ftp.ResumableDataReceiver;
+import com.alexkasko.netty.ftp.ResumableReceiver;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Executor;
+
+/**
+ * Netty 4 handler, partial implementation of <a href="http://tools.ietf.org/html/rfc959">RFC 959 "File Transfer Protocol (FTP)"</a>
+ * for receiving FTP files. Both active and passive modes are supported. Accepts command lines
+ * from {@link CrlfStringDecoder}, new handler instance must be created for each control channel.
+ * Commands are handled on control channel event loop, data connections are opened and bound
+ * asynchronously, event loops are never blocked. Replies written while reading command lines
+ * are flushed once on read completion. {@code REST}, {@code APPE} and {@code SIZE} commands are enabled
+ * for receivers implementing {@link ResumableReceiver} (blocking receivers implementing {@link ResumableDataReceiver}).
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class FtpServerHandler extends SimpleChannelInboundHandler<String> {
+    private static final Logger logger = LoggerFactory.getLogger(FtpServerHandler.class);
+
+    private final DataChunkReceiver receiver;
+    private final ResumableReceiver resumable;
+    private final FtpTransport transport;
+    private final InetAddress passiveAddress;
+    private final byte[] passiveAdvertisedAddress;
+    private final int lowestPassivePort;
+    private final int highestPassivePort;
+    private final int passiveOpenAttempts;
+    private final PassivePortAllocator portAllocator;
+
+    // accessed only from control channel event loop
+    private String curDir = "/";
+    private FtpVerb lastCommand = FtpVerb.UNKNOWN;
+    private long allocatedSize = -1;
+    private long restartOffset = 0;
+    private DataConnection dataConnection;
+
+    /**
+     * Constructor for blocking receivers, receiver is wrapped into {@link DataReceiverAdapter}
+     *
+     * @param receiver blocking data receiver implementation
+     * @param executor executor to run blocking receiver calls on, must not run them on event loops
+     * @param transport shared transport, used to open data connections
+     * @param passiveAddress passive IP address that will be used for server channel bind
+     * @param passiveAdvertisedAddress passive IP address that will be advertized to client
+     * @param lowestPassivePort lowest bound of passive ports range
+     * @param highestPassivePort highest bound of passive ports range
+     * @param passiveOpenAttempts number of ports to choose for passive channel bind before reporting error
+     */
+    public FtpServerHandler(DataReceiver receiver, Executor executor, FtpTransport transport,
+                            InetAddress passiveAddress, InetAddress passiveAdvertisedAddress, int lowestPassivePort,
+                            int highestPassivePort, int passiveOpenAttempts) {
+        this(new DataReceiverAdapter(receiver, executor), transport, passiveAddress, passiveAdvertisedAddress,
+                lowestPassivePort, highestPassivePort, passiveOpenAttempts);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param receiver chunk receiver implementation
+     * @param transport shared transport, used to open data connections
+     * @param passiveAddress passive IP address that will be used for server channel bind
+     * @param passiveAdvertisedAddress passive IP address that will be advertized to client
+     * @param lowestPassivePort lowest bound of passive ports range
+     * @param highestPassivePort highest bound of passive ports range
+     * @param passiveOpenAttempts number of ports to choose for passive channel bind before reporting error
+     */
+    public FtpServerHandler(DataChunkReceiver receiver, FtpTransport transport, InetAddress passiveAddress,
+                            InetAddress passiveAdvertisedAddress, int lowestPassivePort, int highestPassivePort,
+                            int passiveOpenAttempts) {
+        if(null == receiver) throw new IllegalArgumentException("Provided receiver is null");
+        if(null == transport) throw new IllegalArgumentException("Provided transport is null");
+        if(null == passiveAddress) throw new IllegalArgumentException("Provided passiveAddress is null");
+        if(null == passiveAdvertisedAddress) throw new IllegalArgumentException("Provided passiveAdvertisedAddress is null");
+        if (lowestPassivePort <= 0 || lowestPassivePort >= 1 << 16) throw new IllegalArgumentException(
+                "Provided lowestPassivePort: [" + lowestPassivePort + "] is out of valid range");
+        if (highestPassivePort <= 0 || highestPassivePort >= 1 << 16) throw new IllegalArgumentException(
+                "Provided highestPassivePort: [" + highestPassivePort + "] is out of valid range");
+        if (lowestPassivePort > highestPassivePort) throw new IllegalArgumentException(
+                "Provided lowestPassivePort: [" + lowestPassivePort + "] must be not greater than " +
+                        "highestPassivePort: [" + highestPassivePort + "]");
+        if(passiveOpenAttempts <= 0) throw new IllegalArgumentException(
+                "Provided passiveOpenAttempts: [" + passiveOpenAttempts + "] must be positive");
+        this.receiver = receiver;
+        this.resumable = resumableReceiver(receiver);
+        this.transport = transport;
+        this.passiveAddress = passiveAddress;
+        this.passiveAdvertisedAddress = passiveAdvertisedAddress.getAddress();
+        this.lowestPassivePort = lowestPassivePort;
+        this.highestPassivePort = highestPassivePort;
+        this.passiveOpenAttempts = passiveOpenAttempts;
+        this.portAllocator = PassivePortAllocator.shared(lowestPassivePort, highestPassivePort);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+        ctx.writeAndFlush(Replies.SERVICE_READY.duplicate());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, String msg) {
+        FtpCommand command = FtpCommand.parse(msg);
+        if (null == command) {
+            ctx.write(Replies.SYNTAX_ERROR.duplicate());
+            return;
+        }
+        if (logger.isDebugEnabled()) logger.debug("-> " + command);
+        String args = command.getArgument();
+        switch (command.getVerb()) {
+            case USER: ctx.write(Replies.USER_LOGGED_IN.duplicate()); break;
+            case CWD:
+                curDir = args;
+                ctx.write(Replies.CWD_SUCCESSFUL.duplicate());
+                break;
+            case PWD: ctx.write(Replies.encode(ctx.alloc(), "257 \"", curDir, "\" is current directory")); break;
+            case MKD: ctx.write(Replies.encode(ctx.alloc(), "521 \"", args, "\" directory exists")); break;
+            case DELE:
+            case RMD: ctx.write(Replies.encode(ctx.alloc(), "550 ", args, ": no such file or directory")); break;
+            case RNFR: ctx.write(Replies.RNFR_SUCCESSFUL.duplicate()); break;
+            case RNTO: ctx.write(Replies.RNTO_SUCCESSFUL.duplicate()); break;
+            case SYST: ctx.write(Replies.SYSTEM_TYPE.duplicate()); break;
+            case NOOP: ctx.write(Replies.OK.duplicate()); break;
+            case QUIT: ctx.write(Replies.QUIT_SUCCESSFUL.duplicate()); break;
+            case TYPE: type(ctx, args); break;
+            case ALLO: allo(ctx, args); break;
+            case PORT: port(ctx, args); break;
+            case PASV: pasv(ctx); break;
+            case LIST: list(ctx, args); break;
+            case STOR: store(ctx, args, restartOffset); break;
+            case APPE: appe(ctx, args); break;
+            case REST: rest(ctx, args); break;
+            case SIZE: size(ctx, args); break;
+            default: ctx.write(Replies.UNRECOGNIZED.duplicate());
+        }
+        // REST applies only to the next command and is transparent for data connection sequencing
+        if (FtpVerb.REST != command.getVerb()) {
+            lastCommand = command.getVerb();
+            restartOffset = 0;
+        }
+    }
+
+    /**
+     * Flushes replies written while reading command lines
+     *
+     * @param ctx control channel context
+     */
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        ctx.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        logger.warn("Exception caught in FtpServerHandler", cause);
+        if(ctx.channel().isActive()) ctx.writeAndFlush(Replies.UNSPECIFIED_ERROR.duplicate());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        closeDataConnection();
+        super.channelInactive(ctx);
+    }
+
+    private void type(ChannelHandlerContext ctx, String args) {
+        if ("I".equals(args)) ctx.write(Replies.TYPE_IMAGE.duplicate());
+        else if ("A".equals(args)) ctx.write(Replies.TYPE_ASCII.duplicate());
+        else ctx.write(Replies.NOT_IMPLEMENTED_FOR_PARAM.duplicate());
+    }
+
+    private void allo(ChannelHandlerContext ctx, String args) {
+        String size = args.split(" ")[0];
+        try {
+            long parsed = Long.parseLong(size);
+            if (parsed < 0) throw new NumberFormatException(size);
+            allocatedSize = parsed;
+            ctx.write(Replies.ALLO_SUCCESSFUL.duplicate());
+        } catch (NumberFormatException e) {
+            ctx.write(Replies.SYNTAX_ERROR_IN_ARGS.duplicate());
+        }
+    }
+
+    private void port(final ChannelHandlerContext ctx, String args) {
+        final InetSocketAddress addr = parsePortArgs(args);
+        if (logger.isTraceEnabled()) logger.trace(String.valueOf(addr));
+        if (null == addr) {
+            ctx.write(Replies.SYNTAX_ERROR_IN_ARGS.duplicate());
+            return;
+        }
+        if (null != dataConnection) {
+            ctx.write(Replies.BAD_SEQUENCE.duplicate());
+            return;
+        }
+        final DataConnection conn = new DataConnection(ctx, receiver);
+        dataConnection = conn;
+        transport.connect(addr, conn).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                if (future.isSuccess()) ctx.writeAndFlush(Replies.PORT_SUCCESSFUL.duplicate());
+                else {
+                    logger.warn("Exception thrown on opening active channel to address: [" + addr + "]", future.cause());
+                    dataConnectionFailed(ctx, conn, Replies.FILE_ACTION_ABORTED);
+                }
+            }
+        });
+    }
+
+    private void pasv(ChannelHandlerContext ctx) {
+        if (null != dataConnection) {
+            ctx.write(Replies.SERVER_ERROR.duplicate());
+            return;
+        }
+        DataConnection conn = new DataConnection(ctx, receiver);
+        dataConnection = conn;
+        bindPassive(ctx, conn, 0);
+    }
+
+    private void bindPassive(final ChannelHandlerContext ctx, final DataConnection conn, final int attempt) {
+        final int port = allocatePassivePort();
+        if (-1 == port) {
+            dataConnectionFailed(ctx, conn, Replies.ACTION_ABORTED);
+            return;
+        }
+        final InetSocketAddress addr = new InetSocketAddress(passiveAddress, port);
+        transport.bind(addr, conn).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                if (future.isSuccess()) {
+                    future.channel().closeFuture().addListener(new ChannelFutureListener() {
+                        @Override
+                        public void operationComplete(ChannelFuture future) {
+                            portAllocator.release(port);
+                        }
+                    });
+                    conn.setServerChannel(future.channel());
+                    ctx.writeAndFlush(Replies.encodePassive(ctx.alloc(), passiveAdvertisedAddress, port));
+                    return;
+                }
+                logger.warn("Exception thrown on binding passive channel to address: [" + addr + "], " +
+                        "attempt: [" + (attempt + 1) + "] of: [" + passiveOpenAttempts + "]", future.cause());
+                portAllocator.release(port);
+                if (attempt + 1 < passiveOpenAttempts) bindPassive(ctx, conn, attempt + 1);
+                else dataConnectionFailed(ctx, conn, Replies.ACTION_ABORTED);
+            }
+        });
+    }
+
+    private void list(ChannelHandlerContext ctx, String args) {
+        DataConnection conn = takeDataConnection();
+        if (null != conn) conn.startListing(args);
+        else ctx.write(Replies.BAD_SEQUENCE.duplicate());
+    }
+
+    private void rest(ChannelHandlerContext ctx, String args) {
+        if (null == resumable) {
+            ctx.write(Replies.NOT_IMPLEMENTED.duplicate());
+            return;
+        }
+        try {
+            long parsed = Long.parseLong(args.trim());
+            if (parsed < 0) throw new NumberFormatException(args);
+            restartOffset = parsed;
+            ctx.write(Replies.encode(ctx.alloc(), "350 Restarting at ", Long.toString(parsed),
+                    ". Send STOR or APPE to initiate transfer"));
+        } catch (NumberFormatException e) {
+            ctx.write(Replies.SYNTAX_ERROR_IN_ARGS.duplicate());
+        }
+    }
+
+    private void size(ChannelHandlerContext ctx, String args) {
+        if (null == resumable) {
+            ctx.write(Replies.NOT_IMPLEMENTED.duplicate());
+            return;
+        }
+        try {
+            long size = resumable.getReceivedSize(curDir, args);
+            if (size >= 0) ctx.write(Replies.encode(ctx.alloc(), "213 ", Long.toString(size)));
+            else ctx.write(Replies.encode(ctx.alloc(), "550 ", args, ": no such file or directory"));
+        } catch (IOException e) {
+            logger.warn("Exception thrown on reading size of file: [" + args + "] in directory: [" + curDir + "]", e);
+            ctx.write(Replies.encode(ctx.alloc(), "550 ", args, ": no such file or directory"));
+        }
+    }
+
+    private void appe(ChannelHandlerContext ctx, String args) {
+        if (null == resumable) {
+            ctx.write(Replies.NOT_IMPLEMENTED.duplicate());
+            return;
+        }
+        long size;
+        try {
+            size = resumable.getReceivedSize(curDir, args);
+        } catch (IOException e) {
+            logger.warn("Exception thrown on reading size of file: [" + args + "] in directory: [" + curDir + "]", e);
+            ctx.write(Replies.FILE_ACTION_ABORTED.duplicate());
+            return;
+        }
+        store(ctx, args, Math.max(size, 0));
+    }
+
+    private void store(ChannelHandlerContext ctx, String args, long offset) {
+        DataConnection conn = takeDataConnection();
+        long allocated = allocatedSize;
+        allocatedSize = -1;
+        if (null != conn) conn.startUpload(curDir, args, allocated, offset);
+        else ctx.write(Replies.BAD_SEQUENCE.duplicate());
+    }
+
+    private DataConnection takeDataConnection() {
+        if (FtpVerb.PORT != lastCommand && FtpVerb.PASV != lastCommand) return null;
+        DataConnection conn = dataConnection;
+        dataConnection = null;
+        return conn;
+    }
+
+    private void dataConnectionFailed(final ChannelHandlerContext ctx, final DataConnection conn, final ByteBuf reply) {
+        // session state is changed only from control channel event loop
+        ctx.executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (conn == dataConnection) dataConnection = null;
+                conn.close();
+                ctx.writeAndFlush(reply.duplicate());
+            }
+        });
+    }
+
+    private void closeDataConnection() {
+        DataConnection dc = dataConnection;
+        if(null == dc) return;
+        dataConnection = null;
+        dc.close();
+    }
+
+    private int allocatePassivePort() {
+        int port = portAllocator.allocate();
+        if (-1 == port) logger.warn("All passive ports are in use, range: [" + lowestPassivePort + ", " +
+                highestPassivePort + "], used: [" + portAllocator.getUsedCount() + "]");
+        return port;
+    }
+
+    private static ResumableReceiver resumableReceiver(DataChunkReceiver receiver) {
+        if (receiver instanceof DataReceiverAdapter) {
+            DataReceiver dr = ((DataReceiverAdapter) receiver).getReceiver();
+            return dr instanceof ResumableDataReceiver ? (ResumableReceiver) dr : null;
+        }
+        return receiver instanceof ResumableReceiver ? (ResumableReceiver) receiver : null;
+    }
+
+    private static InetSocketAddress parsePortArgs(String portArgs) {
+        String[] strParts = portArgs.split(",");
+        if (strParts.length != 6) return null;
+        byte[] address = new byte[4];
+        int[] parts = new int[6];
+        for (int i = 0; i < 6; i++) {
+            try { parts[i] = Integer.parseInt(strParts[i]); }
+            catch (NumberFormatException e) { return null; }
+            if (parts[i] < 0 || parts[i] > 255) return null;
+        }
+        for (int i = 0; i < 4; i++) address[i] = (byte) parts[i];
+        int port = parts[4] << 8 | parts[5];
+        InetAddress inetAddress;
+        try { inetAddress = InetAddress.getByAddress(address); }
+        catch (UnknownHostException e) { return null; }
+        return new InetSocketAddress(inetAddress, port);
+    }
+}
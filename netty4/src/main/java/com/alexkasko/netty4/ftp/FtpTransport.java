@@ -0,0 +1,175 @@
+package com.alexkasko.netty4.ftp;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.Future;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Event loops and channel types shared by control and data connections, should be shared between
+ * all {@link FtpServerHandler} instances. Native epoll transport is used on Linux when available,
+ * NIO transport is used otherwise. All channels use pooled buffers allocator.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class FtpTransport {
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+    private final Class<? extends ServerChannel> serverChannelClass;
+    private final Class<? extends Channel> channelClass;
+    private final boolean epoll;
+    private final ByteBufAllocator allocator = PooledByteBufAllocator.DEFAULT;
+
+    private FtpTransport(boolean epoll, EventLoopGroup bossGroup, EventLoopGroup workerGroup,
+                         Class<? extends ServerChannel> serverChannelClass, Class<? extends Channel> channelClass) {
+        this.epoll = epoll;
+        this.bossGroup = bossGroup;
+        this.workerGroup = workerGroup;
+        this.serverChannelClass = serverChannelClass;
+        this.channelClass = channelClass;
+    }
+
+    /**
+     * Creates transport using native epoll if it is available and NIO otherwise
+     *
+     * @param workerThreads number of worker event loops, {@code 0} for Netty default
+     * @return transport
+     */
+    public static FtpTransport create(int workerThreads) {
+        return isEpollAvailable() ? epoll(workerThreads) : nio(workerThreads);
+    }
+
+    /**
+     * Creates NIO transport
+     *
+     * @param workerThreads number of worker event loops, {@code 0} for Netty default
+     * @return transport
+     */
+    public static FtpTransport nio(int workerThreads) {
+        if (workerThreads < 0) throw new IllegalArgumentException(
+                "Provided workerThreads: [" + workerThreads + "] must be non-negative");
+        return new FtpTransport(false, new NioEventLoopGroup(1), new NioEventLoopGroup(workerThreads),
+                NioServerSocketChannel.class, NioSocketChannel.class);
+    }
+
+    /**
+     * Creates native epoll transport, works only on Linux with
+     * {@code netty-transport-native-epoll} in classpath
+     *
+     * @param workerThreads number of worker event loops, {@code 0} for Netty default
+     * @return transport
+     */
+    public static FtpTransport epoll(int workerThreads) {
+        if (workerThreads < 0) throw new IllegalArgumentException(
+                "Provided workerThreads: [" + workerThreads + "] must be non-negative");
+        Epoll.ensureAvailability();
+        return new FtpTransport(true, new EpollEventLoopGroup(1), new EpollEventLoopGroup(workerThreads),
+                EpollServerSocketChannel.class, EpollSocketChannel.class);
+    }
+
+    /**
+     * @return whether native epoll transport may be used
+     */
+    public static boolean isEpollAvailable() {
+        try {
+            return Epoll.isAvailable();
+        } catch (Throwable e) {
+            // native transport is optional dependency
+            return false;
+        }
+    }
+
+    /**
+     * Creates bootstrap for control channels server
+     *
+     * @param childHandler control channel pipeline initializer
+     * @return bootstrap to bind
+     */
+    public ServerBootstrap controlBootstrap(ChannelHandler childHandler) {
+        return new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(serverChannelClass)
+                .option(ChannelOption.ALLOCATOR, allocator)
+                .childOption(ChannelOption.ALLOCATOR, allocator)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(childHandler);
+    }
+
+    /**
+     * Opens active mode data connection, reading is disabled on opened channel
+     *
+     * @param address client data address
+     * @param handler data channel initializer
+     * @return connect future
+     */
+    ChannelFuture connect(InetSocketAddress address, ChannelHandler handler) {
+        return new Bootstrap()
+                .group(workerGroup)
+                .channel(channelClass)
+                .option(ChannelOption.ALLOCATOR, allocator)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.AUTO_READ, false)
+                .handler(handler)
+                .connect(address);
+    }
+
+    /**
+     * Binds passive mode server channel, reading is disabled on accepted channels
+     *
+     * @param address local address to bind to
+     * @param childHandler accepted data channels initializer
+     * @return bind future
+     */
+    ChannelFuture bind(InetSocketAddress address, ChannelHandler childHandler) {
+        return new ServerBootstrap()
+                .group(workerGroup, workerGroup)
+                .channel(serverChannelClass)
+                .option(ChannelOption.ALLOCATOR, allocator)
+                .childOption(ChannelOption.ALLOCATOR, allocator)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.AUTO_READ, false)
+                .childHandler(childHandler)
+                .bind(address);
+    }
+
+    /**
+     * @return whether native epoll transport is used
+     */
+    public boolean isEpoll() {
+        return epoll;
+    }
+
+    /**
+     * @return buffers allocator used by all channels
+     */
+    public ByteBufAllocator getAllocator() {
+        return allocator;
+    }
+
+    /**
+     * Shuts down event loops
+     *
+     * @return termination future of worker event loops
+     */
+    public Future<?> shutdownGracefully() {
+        bossGroup.shutdownGracefully();
+        return workerGroup.shutdownGracefully();
+    }
+}
@@ -0,0 +1,100 @@
+package com.alexkasko.netty4.ftp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+/**
+ * FTP reply lines. Constant replies are encoded once into unreleasable direct buffers shared
+ * between all sessions, their duplicates are written to channels. Dynamic replies are encoded directly
+ * into buffers from channel allocator.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+final class Replies {
+    static final ByteBuf SERVICE_READY = constant("220 Service ready");
+    static final ByteBuf OK = constant("200 OK");
+    static final ByteBuf USER_LOGGED_IN = constant("230 USER LOGGED IN");
+    static final ByteBuf CWD_SUCCESSFUL = constant("250 CWD command successful");
+    static final ByteBuf RNFR_SUCCESSFUL = constant("350 File exists, ready for destination name");
+    static final ByteBuf RNTO_SUCCESSFUL = constant("250 RNTO command successful");
+    static final ByteBuf SYSTEM_TYPE = constant("215 UNIX Type: Java custom implementation");
+    static final ByteBuf QUIT_SUCCESSFUL = constant("221 QUIT command successful");
+    static final ByteBuf TYPE_IMAGE = constant("200 Type set to IMAGE NONPRINT");
+    static final ByteBuf TYPE_ASCII = constant("200 Type set to ASCII NONPRINT");
+    static final ByteBuf PORT_SUCCESSFUL = constant("200 PORT command successful");
+    static final ByteBuf ALLO_SUCCESSFUL = constant("200 ALLO command successful");
+    static final ByteBuf LIST_STARTED = constant("150 Opening binary mode data connection for LIST");
+    static final ByteBuf LIST_COMPLETE = constant("226 Transfer complete for LIST");
+    static final ByteBuf SERVER_ERROR = constant("425 Server error");
+    static final ByteBuf UNRECOGNIZED = constant("500 Command unrecognized");
+    static final ByteBuf UNSPECIFIED_ERROR = constant("500 Unspecified error");
+    static final ByteBuf SYNTAX_ERROR = constant("501 Syntax error");
+    static final ByteBuf SYNTAX_ERROR_IN_ARGS = constant("501 Syntax error in parameters or arguments");
+    static final ByteBuf BAD_SEQUENCE = constant("503 Bad sequence of commands");
+    static final ByteBuf NOT_IMPLEMENTED = constant("502 Command not implemented");
+    static final ByteBuf NOT_IMPLEMENTED_FOR_PARAM = constant("504 Command not implemented for that parameter");
+    static final ByteBuf ACTION_ABORTED = constant("551 Requested action aborted");
+    static final ByteBuf FILE_ACTION_ABORTED = constant("552 Requested file action aborted");
+
+    private Replies() {
+    }
+
+    /**
+     * Encodes reply line concatenated from provided parts, non-ASCII chars are replaced with {@code ?}
+     *
+     * @param alloc buffer allocator
+     * @param parts reply line parts
+     * @return encoded reply line with line terminator
+     */
+    static ByteBuf encode(ByteBufAllocator alloc, String... parts) {
+        int len = 2;
+        for (String pa : parts) len += pa.length();
+        ByteBuf buf = alloc.buffer(len);
+        for (String pa : parts) ByteBufUtil.writeAscii(buf, pa);
+        buf.writeByte('\r');
+        buf.writeByte('\n');
+        return buf;
+    }
+
+    /**
+     * Encodes {@code 227} reply
+     *
+     * @param alloc buffer allocator
+     * @param address advertised IPv4 address
+     * @param port passive port
+     * @return encoded reply line with line terminator
+     */
+    static ByteBuf encodePassive(ByteBufAllocator alloc, byte[] address, int port) {
+        // "227 Entering Passive Mode (255,255,255,255,255,255)\r\n"
+        ByteBuf buf = alloc.buffer(56);
+        ByteBufUtil.writeAscii(buf, "227 Entering Passive Mode (");
+        for (byte b : address) {
+            writeDecimal(buf, b & 0xff);
+            buf.writeByte(',');
+        }
+        writeDecimal(buf, port >> 8 & 0xff);
+        buf.writeByte(',');
+        writeDecimal(buf, port & 0xff);
+        buf.writeByte(')');
+        buf.writeByte('\r');
+        buf.writeByte('\n');
+        return buf;
+    }
+
+    private static ByteBuf constant(String text) {
+        ByteBuf buf = Unpooled.directBuffer(text.length() + 2);
+        ByteBufUtil.writeAscii(buf, text);
+        buf.writeByte('\r');
+        buf.writeByte('\n');
+        return Unpooled.unreleasableBuffer(buf.asReadOnly());
+    }
+
+    private static void writeDecimal(ByteBuf buf, int value) {
+        if (value >= 100) buf.writeByte('0' + value / 100);
+        if (value >= 10) buf.writeByte('0' + value / 10 % 10);
+        buf.writeByte('0' + value % 10);
+    }
+}
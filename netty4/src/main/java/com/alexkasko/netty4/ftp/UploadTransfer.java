@@ -0,0 +1,223 @@
+package com.alexkasko.netty4.ftp;
+
+import com.alexkasko.netty.ftp.DataTransfer;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link DataTransfer} over Netty 4 data channel, drives {@link DataChunkReceiver} callbacks
+ * and guarantees that exactly one final reply is sent to client. Pausing is implemented
+ * with channel auto-read switching.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+class UploadTransfer implements DataTransfer {
+    private static final Logger logger = LoggerFactory.getLogger(UploadTransfer.class);
+
+    private final ChannelHandlerContext ctx;
+    private final DataChunkReceiver receiver;
+    private final String directory;
+    private final String name;
+    private final long allocatedSize;
+    private final long offset;
+    private final Channel channel;
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+    private volatile Object attachment;
+    private volatile boolean deferred = false;
+    // guarded by this
+    private boolean paused = false;
+
+    /**
+     * Constructor
+     *
+     * @param ctx control channel context
+     * @param receiver chunk receiver
+     * @param directory current directory
+     * @param name uploaded file name
+     * @param allocatedSize file size announced by client, {@code -1} if not announced
+     * @param offset byte offset the upload continues from
+     * @param channel data channel
+     */
+    UploadTransfer(ChannelHandlerContext ctx, DataChunkReceiver receiver, String directory, String name,
+                   long allocatedSize, long offset, Channel channel) {
+        this.ctx = ctx;
+        this.receiver = receiver;
+        this.directory = directory;
+        this.name = name;
+        this.allocatedSize = allocatedSize;
+        this.offset = offset;
+        this.channel = channel;
+    }
+
+    /**
+     * Sends preliminary reply and notifies receiver about transfer start
+     */
+    void start() {
+        ctx.writeAndFlush(Replies.encode(ctx.alloc(), "150 Opening binary mode data connection for ", name));
+        try {
+            receiver.onStart(this);
+        } catch (Exception e) {
+            abort(e);
+        }
+    }
+
+    /**
+     * Enables data channel reading unless transfer was paused by receiver
+     */
+    synchronized void activate() {
+        if(!paused) channel.config().setAutoRead(true);
+    }
+
+    /**
+     * Passes data chunk to receiver, chunk is not released here
+     *
+     * @param chunk data chunk
+     */
+    void chunk(ByteBuf chunk) {
+        if(finished.get()) return;
+        try {
+            receiver.onChunk(this, chunk);
+        } catch (Exception e) {
+            abort(e);
+        }
+    }
+
+    /**
+     * Notifies receiver about the end of data
+     */
+    void end() {
+        if(finished.get()) return;
+        try {
+            receiver.onComplete(this);
+            if(!deferred) complete();
+        } catch (Exception e) {
+            abort(e);
+        }
+    }
+
+    /**
+     * Notifies receiver about transfer error
+     *
+     * @param cause error cause
+     */
+    void abort(Throwable cause) {
+        if(finished.get()) return;
+        try {
+            receiver.onError(this, cause);
+        } catch (Exception e) {
+            logger.warn("Exception thrown by receiver on error notification", e);
+        }
+        if(!deferred) fail(cause);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void complete() {
+        if(!finished.compareAndSet(false, true)) return;
+        channel.close();
+        ctx.writeAndFlush(Replies.encode(ctx.alloc(), "226 Transfer complete for STOR ", name));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void fail(Throwable cause) {
+        if(!finished.compareAndSet(false, true)) return;
+        logger.warn("Exception thrown on receiving file: [" + name + "] to directory: [" + directory + "]", cause);
+        channel.close();
+        ctx.writeAndFlush(Replies.FILE_ACTION_ABORTED.duplicate());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void deferCompletion() {
+        deferred = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void pause() {
+        if(paused) return;
+        paused = true;
+        channel.config().setAutoRead(false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void resume() {
+        if(!paused) return;
+        paused = false;
+        channel.config().setAutoRead(true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getAllocatedSize() {
+        return allocatedSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getAttachment() {
+        return attachment;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setAttachment(Object attachment) {
+        this.attachment = attachment;
+    }
+}
@@ -0,0 +1,51 @@
+package com.alexkasko.netty4.ftp;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.TooLongFrameException;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * User: alexkasko
+ * Date: 10/17/26
+ */
+public class CrlfStringDecoderTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testSplit() {
+        EmbeddedChannel ch = new EmbeddedChannel(new CrlfStringDecoder());
+        assertFalse(ch.writeInbound(Unpooled.copiedBuffer("STOR foo\r", UTF8)));
+        ch.writeInbound(Unpooled.copiedBuffer("\nPASV\nCWD /ф", UTF8));
+        assertEquals("STOR foo", ch.readInbound());
+        assertEquals("PASV", ch.readInbound());
+        assertNull(ch.readInbound());
+        ch.writeInbound(Unpooled.copiedBuffer("\r\n", UTF8));
+        assertEquals("CWD /ф", ch.readInbound());
+        assertFalse(ch.finish());
+    }
+
+    @Test
+    public void testThreshold() {
+        EmbeddedChannel ch = new EmbeddedChannel(new CrlfStringDecoder(4, "UTF-8"));
+        ch.writeInbound(Unpooled.copiedBuffer("NOOP\r", UTF8));
+        assertNull(ch.readInbound());
+        try {
+            ch.writeInbound(Unpooled.copiedBuffer("\nSTOR foo", UTF8));
+            fail();
+        } catch (TooLongFrameException e) {
+            // expected
+        }
+        assertEquals("NOOP", ch.readInbound());
+        ch.writeInbound(Unpooled.copiedBuffer("PWD\r\n", UTF8));
+        assertEquals("PWD", ch.readInbound());
+        assertFalse(ch.finish());
+    }
+}
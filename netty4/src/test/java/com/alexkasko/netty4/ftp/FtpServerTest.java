@@ -0,0 +1,202 @@
+package com.alexkasko.netty4.ftp;
+
+import com.alexkasko.netty.ftp.DataReceiver;
+import com.alexkasko.netty.ftp.DataTransfer;
+import com.alexkasko.netty.ftp.ResumableReceiver;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.util.ResourceLeakDetector;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.apache.commons.net.ftp.FTPReply.isPositiveCompletion;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * User: alexkasko
+ * Date: 10/17/26
+ */
+public class FtpServerTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @BeforeClass
+    public static void leaks() {
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+    }
+
+    @Test
+    public void testNio() throws Exception {
+        checkTransport(FtpTransport.nio(2), 2221, 4646, 4746);
+    }
+
+    @Test
+    public void testEpoll() throws Exception {
+        if (!FtpTransport.isEpollAvailable()) {
+            System.out.println("Native epoll transport is not available, skipping test");
+            return;
+        }
+        checkTransport(FtpTransport.epoll(2), 2222, 4747, 4847);
+    }
+
+    @Test
+    public void testDataReceiver() throws Exception {
+        final FtpTransport transport = FtpTransport.nio(2);
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final SlowDataReceiver receiver = new SlowDataReceiver();
+        Channel server = transport.controlBootstrap(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel ch) throws Exception {
+                ch.pipeline().addLast("decoder", new CrlfStringDecoder());
+                ch.pipeline().addLast("handler", new FtpServerHandler(receiver, executor, transport,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 6001, 6050, 10));
+            }
+        }).bind(2223).sync().channel();
+        try {
+            // larger than adapter high water mark, so reads are paused while receiver falls behind
+            byte[] data = new byte[3 << 20];
+            new Random(42).nextBytes(data);
+            FTPClient client = new FTPClient();
+            client.connect("127.0.0.1", 2223);
+            assertTrue(isPositiveCompletion(client.getReplyCode()));
+            assertTrue(client.setFileType(FTP.BINARY_FILE_TYPE));
+            assertTrue(client.storeFile("small", new ByteArrayInputStream("content".getBytes(UTF8))));
+            client.enterLocalPassiveMode();
+            assertTrue(client.storeFile("large", new ByteArrayInputStream(data)));
+            // plain receiver cannot resume uploads
+            assertEquals(502, client.sendCommand("SIZE", "large"));
+            assertTrue(client.logout());
+            client.disconnect();
+            assertArrayEquals("content".getBytes(UTF8), receiver.files.get("//small"));
+            assertArrayEquals(data, receiver.files.get("//large"));
+        } finally {
+            server.close().sync();
+            transport.shutdownGracefully().sync();
+            executor.shutdown();
+        }
+    }
+
+    private static void checkTransport(final FtpTransport transport, int port, final int lowestPassivePort,
+                                       final int highestPassivePort) throws Exception {
+        final MemoryReceiver receiver = new MemoryReceiver();
+        Channel server = transport.controlBootstrap(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel ch) throws Exception {
+                ch.pipeline().addLast("decoder", new CrlfStringDecoder());
+                ch.pipeline().addLast("handler", new FtpServerHandler(receiver, transport,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"),
+                        lowestPassivePort, highestPassivePort, 10));
+            }
+        }).bind(port).sync().channel();
+        try {
+            checkUploads(port, false);
+            assertEquals("content!!", receiver.files.get("/foo/bar"));
+            checkUploads(port, true);
+            assertEquals("content!!", receiver.files.get("/foo/bar"));
+        } finally {
+            server.close().sync();
+            transport.shutdownGracefully().sync();
+        }
+    }
+
+    private static void checkUploads(int port, boolean passive) throws IOException {
+        FTPClient client = new FTPClient();
+        client.connect("127.0.0.1", port);
+        assertTrue(isPositiveCompletion(client.getReplyCode()));
+        assertTrue(client.setFileType(FTP.BINARY_FILE_TYPE));
+        if (passive) client.enterLocalPassiveMode();
+        assertEquals("/", client.printWorkingDirectory());
+        assertTrue(client.changeWorkingDirectory("/foo"));
+        assertEquals("/foo", client.printWorkingDirectory());
+        assertEquals(0, client.listFiles("/foo").length);
+        assertTrue(client.allocate(42));
+        assertTrue(client.storeFile("bar", new ByteArrayInputStream("content".getBytes(UTF8))));
+        assertTrue(client.appendFile("bar", new ByteArrayInputStream("!!".getBytes(UTF8))));
+        assertEquals(213, client.sendCommand("SIZE", "bar"));
+        assertEquals("213 9", client.getReplyString().trim());
+        assertTrue(client.rename("bar", "baz"));
+        assertFalse(client.deleteFile("baz"));
+        assertTrue(client.logout());
+        client.disconnect();
+    }
+
+    private static class MemoryReceiver implements DataChunkReceiver, ResumableReceiver {
+        private final Map<String, String> files = new ConcurrentHashMap<String, String>();
+
+        @Override
+        public void onStart(DataTransfer transfer) throws IOException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            if (transfer.getOffset() > 0) {
+                byte[] existing = files.get(transfer.getDirectory() + "/" + transfer.getName()).getBytes(UTF8);
+                baos.write(existing, 0, (int) transfer.getOffset());
+            } else assertEquals(42, transfer.getAllocatedSize());
+            transfer.setAttachment(baos);
+        }
+
+        @Override
+        public long getReceivedSize(String directory, String name) {
+            String data = files.get(directory + "/" + name);
+            return null != data ? data.getBytes(UTF8).length : -1;
+        }
+
+        @Override
+        public void onChunk(DataTransfer transfer, ByteBuf chunk) throws IOException {
+            chunk.readBytes((ByteArrayOutputStream) transfer.getAttachment(), chunk.readableBytes());
+        }
+
+        @Override
+        public void onComplete(DataTransfer transfer) {
+            ByteArrayOutputStream baos = (ByteArrayOutputStream) transfer.getAttachment();
+            files.put(transfer.getDirectory() + "/" + transfer.getName(), new String(baos.toByteArray(), UTF8));
+        }
+
+        @Override
+        public void onError(DataTransfer transfer, Throwable cause) {
+            cause.printStackTrace();
+        }
+    }
+
+    private static class SlowDataReceiver implements DataReceiver {
+        private final Map<String, byte[]> files = new ConcurrentHashMap<String, byte[]>();
+
+        @Override
+        public void receive(String directory, String name, InputStream data) throws IOException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int read;
+            int reads = 0;
+            while (-1 != (read = data.read(buf))) {
+                baos.write(buf, 0, read);
+                if (0 == ++reads % 32) sleep();
+            }
+            files.put(directory + "/" + name, baos.toByteArray());
+        }
+
+        private static void sleep() throws IOException {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+    }
+}
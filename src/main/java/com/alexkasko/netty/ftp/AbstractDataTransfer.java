@@ -0,0 +1,371 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.alexkasko.netty.ftp.FtpServerHandler.send;
+
+/**
+ * Base {@link DataTransfer} implementation, drives {@link DataChunkReceiver} callbacks
+ * and guarantees that exactly one final reply is sent to client. Receiver callbacks are serialized,
+ * so stall timer never calls receiver concurrently with chunk delivery. Chunks of {@code MODE Z} uploads
+ * are inflated before they are passed to receiver
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+abstract class AbstractDataTransfer implements DataTransfer {
+    private static final Logger logger = LoggerFactory.getLogger(AbstractDataTransfer.class);
+
+    private final ChannelHandlerContext ctx;
+    private final DataChunkReceiver receiver;
+    private final String directory;
+    private final String name;
+    private final long allocatedSize;
+    private final long offset;
+    private final SessionInflater inflater;
+    private final AdmissionController.Permit permit;
+    private final SessionTimeouts timeouts;
+    private final FtpMetrics metrics;
+    private final long startNanos = System.nanoTime();
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+    private volatile Object attachment;
+    private volatile boolean deferred = false;
+    // written only by the thread delivering chunks
+    private volatile long received = 0;
+    // explicit lock instead of monitor, so waiting transfer does not pin the carrier of a virtual thread
+    final ReentrantLock lock = new ReentrantLock();
+    // guarded by lock
+    private boolean paused = false;
+    // serializes receiver callbacks between data thread and stall timer
+    private final ReentrantLock delivery = new ReentrantLock();
+    // guarded by delivery
+    private boolean errorNotified = false;
+
+    /**
+     * Constructor
+     *
+     * @param ctx control channel context
+     * @param receiver chunk receiver
+     * @param directory current directory
+     * @param name uploaded file name
+     * @param allocatedSize file size announced by client, {@code -1} if not announced
+     * @param offset byte offset the upload continues from
+     * @param inflater session inflater for {@code MODE Z} uploads, {@code null} for stream mode
+     * @param permit admission permit released on final reply, may be {@code null}
+     * @param timeouts session timeouts notified about transfer start and finish, may be {@code null}
+     * @param metrics metrics registry, may be {@code null}
+     */
+    AbstractDataTransfer(ChannelHandlerContext ctx, DataChunkReceiver receiver, String directory, String name,
+                         long allocatedSize, long offset, SessionInflater inflater,
+                         AdmissionController.Permit permit, SessionTimeouts timeouts, FtpMetrics metrics) {
+        this.ctx = ctx;
+        this.metrics = metrics;
+        this.receiver = receiver;
+        this.directory = directory;
+        this.name = name;
+        this.allocatedSize = allocatedSize;
+        this.offset = offset;
+        this.inflater = inflater;
+        this.permit = permit;
+        this.timeouts = timeouts;
+    }
+
+    /**
+     * Sends preliminary reply and notifies receiver about transfer start
+     */
+    void start() {
+        send(FtpReply.encode("150 Opening binary mode data connection for ", name), ctx, "STOR", name);
+        if(null != timeouts) timeouts.transferStarted(this);
+        delivery.lock();
+        try {
+            if(null != inflater) inflater.reset();
+            receiver.onStart(this);
+        } catch (Exception e) {
+            abort(e);
+        } finally {
+            delivery.unlock();
+        }
+    }
+
+    /**
+     * Passes data chunk to receiver
+     *
+     * @param chunk data chunk
+     */
+    void chunk(ChannelBuffer chunk) {
+        if(finished.get()) return;
+        int len = chunk.readableBytes();
+        received += len;
+        if(null != metrics) metrics.bytesReceived(len);
+        if(null != permit) permit.received(len);
+        delivery.lock();
+        try {
+            // transfer may be aborted by stall timer while this thread was waiting
+            if(finished.get()) return;
+            if(null == inflater) receiver.onChunk(this, chunk);
+            else inflater.inflate(chunk, receiver, this);
+        } catch (Exception e) {
+            abort(e);
+        } finally {
+            delivery.unlock();
+            // data queued by receiver is accounted separately with buffered and drained calls
+            if(null != permit) permit.consumed(len);
+        }
+    }
+
+    /**
+     * Accounts bytes queued by receiver after chunk delivery as held by this transfer
+     *
+     * @param bytes number of queued bytes
+     */
+    void buffered(long bytes) {
+        if(null != permit) permit.received(bytes);
+    }
+
+    /**
+     * Accounts bytes taken from receiver queue
+     *
+     * @param bytes number of bytes taken from queue
+     */
+    void drained(long bytes) {
+        if(null != permit) permit.consumed(bytes);
+    }
+
+    /**
+     * Notifies receiver about the end of data
+     */
+    void end() {
+        if(finished.get()) return;
+        delivery.lock();
+        try {
+            if(finished.get()) return;
+            if(null != inflater) inflater.finish();
+            receiver.onComplete(this);
+            if(!deferred) complete();
+        } catch (Exception e) {
+            abort(e);
+        } finally {
+            delivery.unlock();
+        }
+    }
+
+    /**
+     * Notifies receiver about transfer error
+     *
+     * @param cause error cause
+     */
+    void abort(Throwable cause) {
+        if(finished.get()) return;
+        delivery.lock();
+        try {
+            if(finished.get()) return;
+            notifyError(cause);
+        } finally {
+            delivery.unlock();
+        }
+        if(!deferred) fail(cause);
+    }
+
+    /**
+     * Writes replies pending in current control channel batch, must be called before blocking on data channel
+     */
+    void flushReplies() {
+        FtpServerHandler.writer(ctx).flush();
+    }
+
+    /**
+     * Aborts stalled transfer regardless of deferred completion, sends {@code 426} reply.
+     * Transfer is finished and data connection is closed first, so no more chunks are delivered,
+     * then receiver is notified after the chunk being delivered, if any, is passed to it
+     *
+     * @param stallMillis stall timeout expired
+     */
+    void stalled(long stallMillis) {
+        if(!finish()) return;
+        logger.warn("Aborting stalled transfer of file: [" + name + "] to directory: [" + directory + "], " +
+                "received bytes: [" + received + "], timeout: [" + stallMillis + "]");
+        if(null != metrics) metrics.transferFailed();
+        send(FtpReply.TRANSFER_ABORTED, ctx, "STOR", name);
+        delivery.lock();
+        try {
+            notifyError(new IOException("No data received for: [" + stallMillis + "] ms"));
+        } finally {
+            delivery.unlock();
+        }
+    }
+
+    /**
+     * @return number of bytes received through data connection
+     */
+    long getReceivedBytes() {
+        return received;
+    }
+
+    /**
+     * @return whether final reply was already sent
+     */
+    boolean isFinished() {
+        return finished.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void complete() {
+        if(!finish()) return;
+        if(null != metrics) metrics.transferCompleted(received, System.nanoTime() - startNanos);
+        send(FtpReply.encode("226 Transfer complete for STOR ", name), ctx, "", name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void fail(Throwable cause) {
+        if(!finish()) return;
+        logger.warn("Exception thrown on receiving file: [" + name + "] to directory: [" + directory + "]", cause);
+        if(null != metrics) metrics.transferFailed();
+        send(FtpReply.FILE_ACTION_ABORTED, ctx, "STOR", name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void deferCompletion() {
+        deferred = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void pause() {
+        lock.lock();
+        try {
+            if(paused) return;
+            paused = true;
+            onPause();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void resume() {
+        lock.lock();
+        try {
+            if(!paused) return;
+            paused = false;
+            onResume();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isPaused() {
+        lock.lock();
+        try {
+            return paused;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getAllocatedSize() {
+        return allocatedSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getAttachment() {
+        return attachment;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setAttachment(Object attachment) {
+        this.attachment = attachment;
+    }
+
+    // called under delivery lock, receiver gets single error notification
+    private void notifyError(Throwable cause) {
+        if(errorNotified) return;
+        errorNotified = true;
+        try {
+            receiver.onError(this, cause);
+        } catch (Exception e) {
+            logger.warn("Exception thrown by receiver on error notification", e);
+        }
+    }
+
+    private boolean finish() {
+        if(!finished.compareAndSet(false, true)) return false;
+        release();
+        if(null != permit) permit.release();
+        if(null != timeouts) timeouts.transferFinished();
+        return true;
+    }
+
+    /**
+     * Suspends data connection reading, called under transfer lock
+     */
+    protected abstract void onPause();
+
+    /**
+     * Resumes data connection reading, called under transfer lock
+     */
+    protected abstract void onResume();
+
+    /**
+     * Releases data connection resources before final reply
+     */
+    protected abstract void release();
+}
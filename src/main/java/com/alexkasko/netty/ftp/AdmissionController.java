@@ -0,0 +1,422 @@
+package com.alexkasko.netty.ftp;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Server-wide admission control for uploads, should be shared between all {@link FtpServerHandler} instances.
+ * Limits number of concurrently running uploads and number of bytes held by them. Bytes held by upload
+ * are the size announced with {@code ALLO} or the number of received bytes not yet consumed by the receiver
+ * (being delivered or queued for blocking receiver), whichever is greater.
+ * Uploads that cannot be admitted immediately wait in FIFO queue until capacity is released
+ * or queue timeout expires. Single upload is always admitted when no other uploads are running,
+ * so files larger than in-flight bytes limit are not starved. Limits may be changed at runtime,
+ * controller may be exposed through JMX using {@link #register(String)}.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class AdmissionController implements AdmissionControllerMXBean {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    // guarded by lock
+    private final ArrayDeque<Object> queue = new ArrayDeque<Object>();
+    private int activeTransfers = 0;
+    // changed outside of lock on chunks receiving and consuming
+    private final AtomicLong inFlightBytes = new AtomicLong(0);
+    private final AtomicLong admittedCount = new AtomicLong(0);
+    private final AtomicLong rejectedCount = new AtomicLong(0);
+    private final AtomicLong timedOutCount = new AtomicLong(0);
+    private volatile int maxTransfers;
+    private volatile long maxInFlightBytes;
+    private volatile int maxQueueDepth;
+    private volatile long queueTimeoutMillis;
+    private volatile ObjectName registeredName;
+
+    /**
+     * Constructor without queueing, uploads are rejected immediately on saturation
+     *
+     * @param maxTransfers max number of concurrently running uploads
+     * @param maxInFlightBytes max number of bytes held by running uploads
+     */
+    public AdmissionController(int maxTransfers, long maxInFlightBytes) {
+        this(maxTransfers, maxInFlightBytes, 0, 0);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxTransfers max number of concurrently running uploads
+     * @param maxInFlightBytes max number of bytes held by running uploads
+     * @param maxQueueDepth max number of uploads waiting for admission, {@code 0} disables queueing
+     * @param queueTimeoutMillis max time upload waits for admission in milliseconds, {@code 0} disables queueing
+     */
+    public AdmissionController(int maxTransfers, long maxInFlightBytes, int maxQueueDepth, long queueTimeoutMillis) {
+        setMaxTransfers(maxTransfers);
+        setMaxInFlightBytes(maxInFlightBytes);
+        setMaxQueueDepth(maxQueueDepth);
+        setQueueTimeoutMillis(queueTimeoutMillis);
+    }
+
+    /**
+     * Registers this controller in platform MBean server
+     *
+     * @param name value of {@code name} key of MBean object name
+     * @return object name this controller was registered with
+     * @throws JMException on registration error
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        if (null == name) throw new IllegalArgumentException("Provided name is null");
+        if (null != registeredName) throw new IllegalStateException(
+                "Admission controller is already registered with name: [" + registeredName + "]");
+        ObjectName on = new ObjectName(getClass().getPackage().getName() + ":type=AdmissionController,name=" +
+                ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+        registeredName = on;
+        return on;
+    }
+
+    /**
+     * Unregisters this controller from platform MBean server, does nothing if it was not registered
+     *
+     * @throws JMException on unregistration error
+     */
+    public synchronized void unregister() throws JMException {
+        if (null == registeredName) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(registeredName)) server.unregisterMBean(registeredName);
+        registeredName = null;
+    }
+
+    /**
+     * Admits upload if capacity is available and no other uploads are queued, never blocks
+     *
+     * @param reservedBytes number of bytes announced for upload, {@code 0} if not announced
+     * @return admission permit, {@code null} if upload was not admitted
+     */
+    Permit tryAcquire(long reservedBytes) {
+        lock.lock();
+        try {
+            if (!queue.isEmpty() || !hasCapacity(reservedBytes)) return null;
+            return admit(reservedBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Admits upload waiting in queue for capacity if necessary, upload is rejected if queue is full
+     * or if queue timeout expires
+     *
+     * @param reservedBytes number of bytes announced for upload, {@code 0} if not announced
+     * @return admission permit, {@code null} if upload was rejected
+     * @throws InterruptedException if interrupted while waiting in queue
+     */
+    Permit acquire(long reservedBytes) throws InterruptedException {
+        lock.lock();
+        try {
+            if (queue.isEmpty() && hasCapacity(reservedBytes)) return admit(reservedBytes);
+            long timeout = queueTimeoutMillis;
+            if (queue.size() >= maxQueueDepth || 0 == timeout) {
+                rejectedCount.incrementAndGet();
+                return null;
+            }
+            Object ticket = new Object();
+            queue.addLast(ticket);
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+            try {
+                while (queue.peekFirst() != ticket || !hasCapacity(reservedBytes)) {
+                    if (nanos <= 0) {
+                        rejectedCount.incrementAndGet();
+                        timedOutCount.incrementAndGet();
+                        return null;
+                    }
+                    nanos = changed.awaitNanos(nanos);
+                }
+                return admit(reservedBytes);
+            } finally {
+                queue.remove(ticket);
+                // next in queue may proceed
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks whether new uploads would be rejected without queueing, rejection is counted if so
+     *
+     * @return {@code true} if controller is saturated
+     */
+    boolean checkSaturated() {
+        boolean saturated = isSaturated();
+        if (saturated) rejectedCount.incrementAndGet();
+        return saturated;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxTransfers() {
+        return maxTransfers;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxTransfers(int maxTransfers) {
+        if (maxTransfers <= 0) throw new IllegalArgumentException(
+                "Provided maxTransfers: [" + maxTransfers + "] must be positive");
+        this.maxTransfers = maxTransfers;
+        signalChanged();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMaxInFlightBytes() {
+        return maxInFlightBytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxInFlightBytes(long maxInFlightBytes) {
+        if (maxInFlightBytes <= 0) throw new IllegalArgumentException(
+                "Provided maxInFlightBytes: [" + maxInFlightBytes + "] must be positive");
+        this.maxInFlightBytes = maxInFlightBytes;
+        signalChanged();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxQueueDepth(int maxQueueDepth) {
+        if (maxQueueDepth < 0) throw new IllegalArgumentException(
+                "Provided maxQueueDepth: [" + maxQueueDepth + "] must be non-negative");
+        this.maxQueueDepth = maxQueueDepth;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getQueueTimeoutMillis() {
+        return queueTimeoutMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setQueueTimeoutMillis(long queueTimeoutMillis) {
+        if (queueTimeoutMillis < 0) throw new IllegalArgumentException(
+                "Provided queueTimeoutMillis: [" + queueTimeoutMillis + "] must be non-negative");
+        this.queueTimeoutMillis = queueTimeoutMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getActiveTransfers() {
+        lock.lock();
+        try {
+            return activeTransfers;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getInFlightBytes() {
+        return inFlightBytes.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isSaturated() {
+        lock.lock();
+        try {
+            return !hasCapacity(0) && (queue.size() >= maxQueueDepth || 0 == queueTimeoutMillis);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getAdmittedCount() {
+        return admittedCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getTimedOutCount() {
+        return timedOutCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "AdmissionController{maxTransfers=" + maxTransfers + ", maxInFlightBytes=" + maxInFlightBytes +
+                ", maxQueueDepth=" + maxQueueDepth + ", queueTimeoutMillis=" + queueTimeoutMillis + '}';
+    }
+
+    // must be called under lock
+    private boolean hasCapacity(long reservedBytes) {
+        if (0 == activeTransfers) return true;
+        if (activeTransfers >= maxTransfers) return false;
+        long inFlight = inFlightBytes.get();
+        return inFlight < maxInFlightBytes && inFlight + reservedBytes <= maxInFlightBytes;
+    }
+
+    // must be called under lock
+    private Permit admit(long reservedBytes) {
+        activeTransfers += 1;
+        inFlightBytes.addAndGet(reservedBytes);
+        admittedCount.incrementAndGet();
+        return new Permit(reservedBytes);
+    }
+
+    private void release(long bytes) {
+        lock.lock();
+        try {
+            activeTransfers -= 1;
+            inFlightBytes.addAndGet(-bytes);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalChanged() {
+        lock.lock();
+        try {
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Admission of single upload, bytes received by upload are accounted as in-flight ones
+     * until they are consumed by receiver or until permit is released
+     */
+    final class Permit {
+        private final long reservedBytes;
+        private final ReentrantLock accounting = new ReentrantLock();
+        // guarded by accounting
+        private long bufferedBytes = 0;
+        private boolean released = false;
+
+        private Permit(long reservedBytes) {
+            this.reservedBytes = reservedBytes;
+        }
+
+        /**
+         * Accounts received bytes, only bytes exceeding the reserved ones are added to in-flight bytes,
+         * ignored after release
+         *
+         * @param bytes number of received bytes
+         */
+        void received(long bytes) {
+            accounting.lock();
+            try {
+                if (!released) buffer(bufferedBytes + bytes);
+            } finally {
+                accounting.unlock();
+            }
+        }
+
+        /**
+         * Accounts bytes consumed by receiver, ignored after release
+         *
+         * @param bytes number of consumed bytes
+         */
+        void consumed(long bytes) {
+            accounting.lock();
+            try {
+                if (!released) buffer(Math.max(bufferedBytes - bytes, 0));
+            } finally {
+                accounting.unlock();
+            }
+        }
+
+        /**
+         * Releases this permit, repeated calls are ignored
+         */
+        void release() {
+            long held;
+            accounting.lock();
+            try {
+                if (released) return;
+                released = true;
+                held = Math.max(bufferedBytes, reservedBytes);
+            } finally {
+                accounting.unlock();
+            }
+            AdmissionController.this.release(held);
+        }
+
+        // must be called under accounting lock
+        private void buffer(long buffered) {
+            long grown = Math.max(buffered, reservedBytes) - Math.max(bufferedBytes, reservedBytes);
+            bufferedBytes = buffered;
+            if (0 != grown) inFlightBytes.addAndGet(grown);
+        }
+    }
+}
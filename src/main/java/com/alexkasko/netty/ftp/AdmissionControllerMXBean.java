@@ -0,0 +1,85 @@
+package com.alexkasko.netty.ftp;
+
+/**
+ * JMX management interface of {@link AdmissionController}, limits may be changed at runtime
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public interface AdmissionControllerMXBean {
+
+    /**
+     * @return max number of concurrently running uploads
+     */
+    int getMaxTransfers();
+
+    /**
+     * @param maxTransfers max number of concurrently running uploads, must be positive
+     */
+    void setMaxTransfers(int maxTransfers);
+
+    /**
+     * @return max number of bytes held by running uploads
+     */
+    long getMaxInFlightBytes();
+
+    /**
+     * @param maxInFlightBytes max number of bytes held by running uploads, must be positive
+     */
+    void setMaxInFlightBytes(long maxInFlightBytes);
+
+    /**
+     * @return max number of uploads waiting for admission
+     */
+    int getMaxQueueDepth();
+
+    /**
+     * @param maxQueueDepth max number of uploads waiting for admission, {@code 0} disables queueing
+     */
+    void setMaxQueueDepth(int maxQueueDepth);
+
+    /**
+     * @return max time upload waits for admission in milliseconds
+     */
+    long getQueueTimeoutMillis();
+
+    /**
+     * @param queueTimeoutMillis max time upload waits for admission in milliseconds, {@code 0} disables queueing
+     */
+    void setQueueTimeoutMillis(long queueTimeoutMillis);
+
+    /**
+     * @return number of currently running uploads
+     */
+    int getActiveTransfers();
+
+    /**
+     * @return number of bytes held by running uploads
+     */
+    long getInFlightBytes();
+
+    /**
+     * @return number of uploads waiting for admission
+     */
+    int getQueueDepth();
+
+    /**
+     * @return whether new uploads are rejected without queueing
+     */
+    boolean isSaturated();
+
+    /**
+     * @return total number of admitted uploads
+     */
+    long getAdmittedCount();
+
+    /**
+     * @return total number of rejected uploads and sessions, including queue timeouts
+     */
+    long getRejectedCount();
+
+    /**
+     * @return number of uploads rejected after waiting in queue
+     */
+    long getTimedOutCount();
+}
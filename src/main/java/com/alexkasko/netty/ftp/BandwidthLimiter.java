@@ -0,0 +1,310 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-wide upload rate shaping with token buckets, should be shared between all {@link FtpServerHandler}
+ * instances. Each upload is limited by session rate, that may be overridden for sessions of particular
+ * {@code USER}, and by equal share of global rate between running uploads, all the uploads together
+ * are limited by global rate. Rates are enforced by pausing data connection reads, data is never buffered:
+ * non-blocking channels stop reading until paused time expires on shared {@link Timer},
+ * blocking streams sleep in the reading thread. Limits may be changed at runtime, controller may be exposed
+ * through JMX using {@link #register(String)}. Stall timeout, if set, should be longer than expected pauses.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class BandwidthLimiter implements BandwidthLimiterMXBean {
+    private final Timer timer;
+    private final TokenBucket globalBucket = new TokenBucket();
+    private final ConcurrentHashMap<String, Long> userLimits = new ConcurrentHashMap<String, Long>();
+    private final AtomicInteger activeTransfers = new AtomicInteger(0);
+    private final AtomicLong shapedBytes = new AtomicLong(0);
+    private final AtomicLong throttledCount = new AtomicLong(0);
+    private final AtomicLong throttledNanos = new AtomicLong(0);
+    private volatile long globalBytesPerSecond;
+    private volatile long sessionBytesPerSecond;
+    private volatile ObjectName registeredName;
+
+    /**
+     * Constructor
+     *
+     * @param timer shared timer to resume paused reads with, {@link HashedWheelTimer} is recommended,
+     *              timer is not stopped by limiter
+     * @param globalBytesPerSecond max server-wide upload rate in bytes per second, {@code 0} for unlimited
+     * @param sessionBytesPerSecond max upload rate of single session in bytes per second, {@code 0} for unlimited
+     */
+    public BandwidthLimiter(Timer timer, long globalBytesPerSecond, long sessionBytesPerSecond) {
+        if (null == timer) throw new IllegalArgumentException("Provided timer is null");
+        this.timer = timer;
+        setGlobalBytesPerSecond(globalBytesPerSecond);
+        setSessionBytesPerSecond(sessionBytesPerSecond);
+    }
+
+    /**
+     * Registers this limiter in platform MBean server
+     *
+     * @param name value of {@code name} key of MBean object name
+     * @return object name this limiter was registered with
+     * @throws JMException on registration error
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        if (null == name) throw new IllegalArgumentException("Provided name is null");
+        if (null != registeredName) throw new IllegalStateException(
+                "Bandwidth limiter is already registered with name: [" + registeredName + "]");
+        ObjectName on = new ObjectName(getClass().getPackage().getName() + ":type=BandwidthLimiter,name=" +
+                ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+        registeredName = on;
+        return on;
+    }
+
+    /**
+     * Unregisters this limiter from platform MBean server, does nothing if it was not registered
+     *
+     * @throws JMException on unregistration error
+     */
+    public synchronized void unregister() throws JMException {
+        if (null == registeredName) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(registeredName)) server.unregisterMBean(registeredName);
+        registeredName = null;
+    }
+
+    /**
+     * Starts shaping of single upload
+     *
+     * @param user user name provided with {@code USER} command, may be {@code null}
+     * @return upload shaper, must be closed after upload
+     */
+    Shaper open(String user) {
+        activeTransfers.incrementAndGet();
+        return new Shaper(user);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getGlobalBytesPerSecond() {
+        return globalBytesPerSecond;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setGlobalBytesPerSecond(long globalBytesPerSecond) {
+        if (globalBytesPerSecond < 0) throw new IllegalArgumentException(
+                "Provided globalBytesPerSecond: [" + globalBytesPerSecond + "] must be non-negative");
+        this.globalBytesPerSecond = globalBytesPerSecond;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getSessionBytesPerSecond() {
+        return sessionBytesPerSecond;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSessionBytesPerSecond(long sessionBytesPerSecond) {
+        if (sessionBytesPerSecond < 0) throw new IllegalArgumentException(
+                "Provided sessionBytesPerSecond: [" + sessionBytesPerSecond + "] must be non-negative");
+        this.sessionBytesPerSecond = sessionBytesPerSecond;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getUserBytesPerSecond(String user) {
+        if (null == user) return sessionBytesPerSecond;
+        Long res = userLimits.get(user);
+        return null != res ? res : sessionBytesPerSecond;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUserBytesPerSecond(String user, long bytesPerSecond) {
+        if (null == user) throw new IllegalArgumentException("Provided user is null");
+        if (bytesPerSecond < 0) throw new IllegalArgumentException(
+                "Provided bytesPerSecond: [" + bytesPerSecond + "] must be non-negative");
+        userLimits.put(user, bytesPerSecond);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeUserBytesPerSecond(String user) {
+        if (null == user) throw new IllegalArgumentException("Provided user is null");
+        userLimits.remove(user);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getActiveTransfers() {
+        return activeTransfers.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getShapedBytes() {
+        return shapedBytes.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.get());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "BandwidthLimiter{globalBytesPerSecond=" + globalBytesPerSecond +
+                ", sessionBytesPerSecond=" + sessionBytesPerSecond + ", userLimits=" + userLimits + '}';
+    }
+
+    /**
+     * Rate shaper of single upload, used by single reading thread at a time
+     */
+    class Shaper {
+        private final String user;
+        private final TokenBucket bucket = new TokenBucket();
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private Shaper(String user) {
+            this.user = user;
+        }
+
+        /**
+         * @return shared timer to resume paused reads with
+         */
+        Timer getTimer() {
+            return timer;
+        }
+
+        /**
+         * Accounts received bytes
+         *
+         * @param bytes number of bytes received through data connection
+         * @return nanoseconds to pause reading for, {@code 0} if reading may continue
+         */
+        long acquire(long bytes) {
+            shapedBytes.addAndGet(bytes);
+            long now = System.nanoTime();
+            long rate = getUserBytesPerSecond(user);
+            long global = globalBytesPerSecond;
+            long delay = 0;
+            if (global > 0) {
+                // fair share keeps fast clients from taking the whole global rate
+                long share = Math.max(global / Math.max(activeTransfers.get(), 1), 1);
+                rate = rate > 0 ? Math.min(rate, share) : share;
+                delay = globalBucket.consume(bytes, global, now);
+            }
+            if (rate > 0) delay = Math.max(delay, bucket.consume(bytes, rate, now));
+            if (delay > 0) {
+                throttledCount.incrementAndGet();
+                throttledNanos.addAndGet(delay);
+            }
+            return delay;
+        }
+
+        /**
+         * Wraps blocking data stream to sleep in reading thread when rate is exceeded
+         *
+         * @param data data connection stream
+         * @return shaped stream
+         */
+        InputStream wrap(InputStream data) {
+            return new ShapedInputStream(data, this);
+        }
+
+        /**
+         * Finishes shaping of upload, may be called multiple times
+         */
+        void close() {
+            if (closed.compareAndSet(false, true)) activeTransfers.decrementAndGet();
+        }
+    }
+
+    private static class ShapedInputStream extends FilterInputStream {
+        private final Shaper shaper;
+
+        private ShapedInputStream(InputStream in, Shaper shaper) {
+            super(in);
+            this.shaper = shaper;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int res = in.read();
+            if (-1 != res) pause(1);
+            return res;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int res = in.read(b, off, len);
+            if (res > 0) pause(res);
+            return res;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long res = in.skip(n);
+            if (res > 0) pause(res);
+            return res;
+        }
+
+        private void pause(long bytes) throws IOException {
+            long delay = shaper.acquire(bytes);
+            if (0 == delay) return;
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while paused for bandwidth limit");
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.alexkasko.netty.ftp;
+
+/**
+ * JMX management interface of {@link BandwidthLimiter}, limits may be changed at runtime
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public interface BandwidthLimiterMXBean {
+
+    /**
+     * @return max server-wide upload rate in bytes per second, {@code 0} if unlimited
+     */
+    long getGlobalBytesPerSecond();
+
+    /**
+     * @param globalBytesPerSecond max server-wide upload rate in bytes per second, {@code 0} for unlimited
+     */
+    void setGlobalBytesPerSecond(long globalBytesPerSecond);
+
+    /**
+     * @return max upload rate of single session in bytes per second, {@code 0} if unlimited
+     */
+    long getSessionBytesPerSecond();
+
+    /**
+     * @param sessionBytesPerSecond max upload rate of single session in bytes per second, {@code 0} for unlimited
+     */
+    void setSessionBytesPerSecond(long sessionBytesPerSecond);
+
+    /**
+     * @param user user name provided with {@code USER} command
+     * @return max upload rate of sessions of this user in bytes per second, {@code 0} if unlimited
+     */
+    long getUserBytesPerSecond(String user);
+
+    /**
+     * @param user user name provided with {@code USER} command
+     * @param bytesPerSecond max upload rate of sessions of this user in bytes per second, {@code 0} for unlimited
+     */
+    void setUserBytesPerSecond(String user, long bytesPerSecond);
+
+    /**
+     * @param user user name, sessions of this user will get session limit
+     */
+    void removeUserBytesPerSecond(String user);
+
+    /**
+     * @return number of currently running shaped uploads
+     */
+    int getActiveTransfers();
+
+    /**
+     * @return total number of bytes received by shaped uploads
+     */
+    long getShapedBytes();
+
+    /**
+     * @return number of times reading was paused
+     */
+    long getThrottledCount();
+
+    /**
+     * @return total time reading was paused in milliseconds, summed over all uploads
+     */
+    long getThrottledMillis();
+}
@@ -0,0 +1,126 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.channel.ChannelHandlerContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.locks.Condition;
+
+import static org.jboss.netty.buffer.ChannelBuffers.wrappedBuffer;
+
+/**
+ * {@link DataTransfer} over blocking socket stream, pausing is implemented
+ * by suspending stream reading in the calling thread
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+class BlockingDataTransfer extends AbstractDataTransfer {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Condition changed = lock.newCondition();
+    private volatile InputStream data;
+
+    /**
+     * Constructor
+     *
+     * @param ctx control channel context
+     * @param receiver chunk receiver
+     * @param directory current directory
+     * @param name uploaded file name
+     * @param allocatedSize file size announced by client, {@code -1} if not announced
+     * @param offset byte offset the upload continues from
+     * @param inflater session inflater for {@code MODE Z} uploads, {@code null} for stream mode
+     * @param permit admission permit released on final reply, may be {@code null}
+     * @param timeouts session timeouts notified about transfer start and finish, may be {@code null}
+     * @param metrics metrics registry, may be {@code null}
+     */
+    BlockingDataTransfer(ChannelHandlerContext ctx, DataChunkReceiver receiver, String directory, String name,
+                         long allocatedSize, long offset, SessionInflater inflater,
+                         AdmissionController.Permit permit, SessionTimeouts timeouts, FtpMetrics metrics) {
+        super(ctx, receiver, directory, name, allocatedSize, offset, inflater, permit, timeouts, metrics);
+    }
+
+    /**
+     * Reads provided stream pushing data chunks to receiver, returns after final reply was sent
+     *
+     * @param data uploaded file stream
+     * @throws InterruptedException if interrupted waiting for resume or completion
+     */
+    void run(InputStream data) throws InterruptedException {
+        this.data = data;
+        start();
+        flushReplies();
+        byte[] buf = new byte[BUFFER_SIZE];
+        try {
+            while(!isFinished()) {
+                awaitResumed();
+                int read = data.read(buf);
+                if(-1 == read) {
+                    end();
+                    break;
+                }
+                chunk(wrappedBuffer(buf, 0, read));
+            }
+        } catch (IOException e) {
+            abort(e);
+        }
+        awaitFinished();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onPause() {
+        // nothing to do, reading thread checks the flag
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onResume() {
+        changed.signalAll();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void release() {
+        lock.lock();
+        try {
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        // unblocks reading thread if transfer is finished from another thread
+        InputStream in = data;
+        if(null == in) return;
+        try {
+            in.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private void awaitResumed() throws InterruptedException {
+        lock.lock();
+        try {
+            while(isPaused() && !isFinished()) changed.await();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitFinished() throws InterruptedException {
+        lock.lock();
+        try {
+            // deferred completion may take long, waiting must not pin virtual thread carrier
+            while(!isFinished()) changed.await();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.alexkasko.netty.ftp;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Optional interface for {@link DataReceiver} and {@link DataChunkReceiver} implementations, that get checksums
+ * computed while upload was received, enabled with {@link FtpServerHandler#setChecksums(FtpChecksums)}.
+ * For {@link DataChunkReceiver} checksums are reported before {@link DataChunkReceiver#onComplete(DataTransfer)}.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public interface ChecksumReceiver {
+
+    /**
+     * Receives checksums after all the upload data was received and before the success reply,
+     * resumed uploads have checksums of the data received after the restart offset
+     *
+     * @param directory current directory set by client
+     * @param name name of uploaded file
+     * @param checksums lower-case hex checksums keyed by algorithm name
+     * @throws IOException on checksum verification error, client gets error reply
+     */
+    void onChecksums(String directory, String name, Map<String, String> checksums) throws IOException;
+}
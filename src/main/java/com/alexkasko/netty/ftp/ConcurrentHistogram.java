@@ -0,0 +1,109 @@
+package com.alexkasko.netty.ftp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of non-negative values. Values are counted in buckets
+ * of exponentially growing width, each power of two range is split into 16 linear sub-buckets,
+ * so reported percentiles are accurate within ~6%. Recording takes a few atomic increments
+ * and never allocates, so it may be used on the hot path from any number of threads.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class ConcurrentHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // values up to 2^40 are tracked exactly enough, larger ones go to the last bucket
+    private static final int MAX_MAGNITUDE = 40;
+    private static final long MAX_TRACKED = (1L << (MAX_MAGNITUDE + 1)) - 1;
+    private static final int BUCKETS_COUNT = (MAX_MAGNITUDE - SUB_BITS + 2) << SUB_BITS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS_COUNT);
+    private final AtomicLong count = new AtomicLong(0);
+    private final AtomicLong sum = new AtomicLong(0);
+    private final AtomicLong max = new AtomicLong(0);
+
+    /**
+     * Records value
+     *
+     * @param value value to record, negative values are recorded as zero
+     */
+    public void record(long value) {
+        long val = value > 0 ? value : 0;
+        buckets.incrementAndGet(index(val < MAX_TRACKED ? val : MAX_TRACKED));
+        count.incrementAndGet();
+        sum.addAndGet(val);
+        for (;;) {
+            long cur = max.get();
+            if (val <= cur || max.compareAndSet(cur, val)) break;
+        }
+    }
+
+    /**
+     * @return number of recorded values
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return sum of recorded values
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * @return max recorded value
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return mean of recorded values, {@code 0} if nothing was recorded
+     */
+    public double getMean() {
+        long cnt = count.get();
+        return 0 == cnt ? 0 : ((double) sum.get()) / cnt;
+    }
+
+    /**
+     * Returns approximate value at specified percentile, values recorded concurrently
+     * with this call may or may not be taken into account
+     *
+     * @param percentile percentile from {@code 0} to {@code 100}
+     * @return highest value equivalent to bucket containing specified percentile,
+     *         {@code 0} if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) throw new IllegalArgumentException(
+                "Provided percentile: [" + percentile + "] is out of valid range");
+        long total = 0;
+        for (int i = 0; i < BUCKETS_COUNT; i++) total += buckets.get(i);
+        if (0 == total) return 0;
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= target) return Math.min(highestEquivalent(i), max.get());
+        }
+        return max.get();
+    }
+
+    static int index(long value) {
+        if (value < SUB_COUNT) return (int) value;
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int group = magnitude - SUB_BITS + 1;
+        return (group << SUB_BITS) + (int) (value >>> (magnitude - SUB_BITS)) - SUB_COUNT;
+    }
+
+    static long highestEquivalent(int index) {
+        int group = index >>> SUB_BITS;
+        int sub = index & (SUB_COUNT - 1);
+        if (0 == group) return sub;
+        return ((long) (SUB_COUNT + sub + 1) << (group - 1)) - 1;
+    }
+}
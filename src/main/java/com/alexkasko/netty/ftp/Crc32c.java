@@ -0,0 +1,57 @@
+package com.alexkasko.netty.ftp;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) checksum, table driven implementation used on JDKs without {@code java.util.zip.CRC32C}
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+class Crc32c implements Checksum {
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int j = 0; j < 8; j++) crc = 0 != (crc & 1) ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+            TABLE[i] = crc;
+        }
+    }
+
+    private int crc = 0xFFFFFFFF;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xFF];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int c = crc;
+        for (int i = off; i < off + len; i++) c = (c >>> 8) ^ TABLE[(c ^ b[i]) & 0xFF];
+        crc = c;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getValue() {
+        return ~crc & 0xFFFFFFFFL;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
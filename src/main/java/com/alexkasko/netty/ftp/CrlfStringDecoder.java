@@ -9,7 +9,9 @@ import java.nio.charset.Charset;
 
 /**
  * {@link FrameDecoder} implementation, that accumulates input strings until {@code \r\n}
- * and sends accumulated string upstream.
+ * and sends accumulated string upstream. Line end is located by scanning the buffer,
+ * only the line bytes without line terminator are decoded. Lines consisting of ASCII bytes
+ * are decoded directly without charset decoder. No garbage is produced for incomplete lines.
  *
  * @author alexkasko
  * Date: 12/28/12
@@ -20,6 +22,10 @@ public class CrlfStringDecoder extends FrameDecoder {
 
     private final int maxRequestLengthBytes;
     private final Charset encoding;
+    private final boolean asciiCompatible;
+    // decoder is used by single pipeline, calls are serialized by FrameDecoder
+    private final byte[] line;
+    private int scanned = 0;
 
     /**
      * Constructor, uses {@code 256} max string length and {@code UTF-8} encoding
@@ -39,6 +45,8 @@ public class CrlfStringDecoder extends FrameDecoder {
                 "Provided maxRequestLengthBytes: [" + maxRequestLengthBytes +"] must be positive");
         this.maxRequestLengthBytes = maxRequestLengthBytes;
         this.encoding = Charset.forName(encoding);
+        this.asciiCompatible = isAsciiCompatible(this.encoding);
+        this.line = new byte[maxRequestLengthBytes];
     }
 
     /**
@@ -46,27 +54,48 @@ public class CrlfStringDecoder extends FrameDecoder {
      */
     @Override
     protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer cb) throws Exception {
-        byte[] data = new byte[maxRequestLengthBytes];
-        int lineLength = 0;
-        while (true) {
-            if (!cb.readable()) {
-                cb.resetReaderIndex();
-                return null;
-            }
-            byte nextByte = cb.readByte();
-            if (nextByte == CR) {
-                nextByte = cb.readByte();
-                if (nextByte == LF) {
-                    return new String(data, encoding);
-                }
-            } else if (nextByte == LF) {
-                return new String(data, encoding);
-            } else {
-                if (lineLength >= maxRequestLengthBytes) throw new IllegalArgumentException(
-                        "Request size threshold exceeded: [" + maxRequestLengthBytes + "]");
-                data[lineLength] = nextByte;
-                lineLength += 1;
+        int start = cb.readerIndex();
+        int end = cb.writerIndex();
+        int lf = cb.indexOf(start + scanned, end, LF);
+        if (-1 == lf) {
+            scanned = end - start;
+            // trailing CR may be already received
+            if (scanned > maxRequestLengthBytes + 1) {
+                cb.skipBytes(scanned);
+                scanned = 0;
+                throw new IllegalArgumentException("Request size threshold exceeded: [" + maxRequestLengthBytes + "]");
             }
+            return null;
+        }
+        scanned = 0;
+        cb.readerIndex(lf + 1);
+        int length = lf - start;
+        if (length > 0 && CR == cb.getByte(lf - 1)) length -= 1;
+        if (length > maxRequestLengthBytes) throw new IllegalArgumentException(
+                "Request size threshold exceeded: [" + maxRequestLengthBytes + "]");
+        return decodeLine(cb, start, length);
+    }
+
+    @SuppressWarnings("deprecation")
+    private String decodeLine(ChannelBuffer cb, int index, int length) {
+        cb.getBytes(index, line, 0, length);
+        if (asciiCompatible) {
+            boolean ascii = true;
+            for (int i = 0; i < length && ascii; i++) ascii = line[i] >= 0;
+            // direct byte-to-char copy, no charset decoder
+            if (ascii) return new String(line, 0, 0, length);
+        }
+        return new String(line, 0, length, encoding);
+    }
+
+    private static boolean isAsciiCompatible(Charset charset) {
+        byte[] ascii = new byte[0x80];
+        for (int i = 0; i < ascii.length; i++) ascii[i] = (byte) i;
+        String decoded = new String(ascii, charset);
+        if (decoded.length() != ascii.length) return false;
+        for (int i = 0; i < ascii.length; i++) {
+            if (decoded.charAt(i) != i) return false;
         }
+        return true;
     }
 }
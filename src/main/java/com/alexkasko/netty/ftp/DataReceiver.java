@@ -5,7 +5,7 @@ import java.io.InputStream;
 
 /**
  * Implementation should read all required data from provided FTP file-upload stream,
- * stream will be closed immediately after {@link #receive(String, java.io.InputStream)} call
+ * stream will be closed immediately after {@link #receive(String, String, java.io.InputStream)} call
  *
  * @author alexkasko
  * Date: 12/28/12
@@ -0,0 +1,77 @@
+package com.alexkasko.netty.ftp;
+
+/**
+ * Single FTP file-upload as seen by {@link DataChunkReceiver}
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public interface DataTransfer {
+    /**
+     * @return current directory set by client
+     */
+    String getDirectory();
+
+    /**
+     * @return name of uploaded file
+     */
+    String getName();
+
+    /**
+     * @return file size announced by client with {@code ALLO} command, {@code -1} if not announced
+     */
+    long getAllocatedSize();
+
+    /**
+     * @return byte offset the upload continues from, set with {@code REST} command or equal to already
+     *         received size for {@code APPE}, {@code 0} for new uploads
+     */
+    long getOffset();
+
+    /**
+     * @return receiver-specific object attached to this transfer
+     */
+    Object getAttachment();
+
+    /**
+     * Attaches receiver-specific object to this transfer
+     *
+     * @param attachment attachment
+     */
+    void setAttachment(Object attachment);
+
+    /**
+     * Suspends reading from data connection, may be called from any thread
+     */
+    void pause();
+
+    /**
+     * Resumes reading from data connection, may be called from any thread
+     */
+    void resume();
+
+    /**
+     * @return whether reading from data connection is suspended
+     */
+    boolean isPaused();
+
+    /**
+     * Postpones client reply until {@link #complete()} or {@link #fail(Throwable)} is called,
+     * should be called from {@link DataChunkReceiver} callback before {@code onComplete} returns
+     */
+    void deferCompletion();
+
+    /**
+     * Finishes transfer successfully and sends success reply to client, subsequent data chunks are discarded.
+     * Has no effect if transfer is already finished
+     */
+    void complete();
+
+    /**
+     * Finishes transfer with error and sends error reply to client, subsequent data chunks are discarded.
+     * Has no effect if transfer is already finished
+     *
+     * @param cause error cause
+     */
+    void fail(Throwable cause);
+}
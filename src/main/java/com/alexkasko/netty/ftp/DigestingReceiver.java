@@ -0,0 +1,73 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * {@link DataChunkReceiver} wrapper created for each upload when checksums are enabled.
+ * Checksums are updated with each chunk before it is passed to the wrapped receiver,
+ * so data is never read twice. {@code MODE Z} uploads are checksummed after inflating.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+class DigestingReceiver implements DataChunkReceiver {
+    private final DataChunkReceiver delegate;
+    private final SessionChecksums checksums;
+    private final ChecksumReceiver listener;
+    // written only by the thread delivering chunks
+    private long received = 0;
+
+    /**
+     * Constructor
+     *
+     * @param delegate wrapped receiver
+     * @param checksums session checksums
+     * @param listener receiver to report checksums to, may be {@code null}
+     */
+    DigestingReceiver(DataChunkReceiver delegate, SessionChecksums checksums, ChecksumReceiver listener) {
+        this.delegate = delegate;
+        this.checksums = checksums;
+        this.listener = listener;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onStart(DataTransfer transfer) throws IOException {
+        checksums.reset();
+        delegate.onStart(transfer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onChunk(DataTransfer transfer, ChannelBuffer chunk) throws IOException {
+        checksums.update(chunk);
+        received += chunk.readableBytes();
+        delegate.onChunk(transfer, chunk);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onComplete(DataTransfer transfer) throws IOException {
+        Map<String, String> res = checksums.finish(transfer.getDirectory(), transfer.getName(),
+                transfer.getOffset(), received);
+        if(null != listener) listener.onChecksums(transfer.getDirectory(), transfer.getName(), res);
+        delegate.onComplete(transfer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onError(DataTransfer transfer, Throwable cause) {
+        delegate.onError(transfer, cause);
+    }
+}
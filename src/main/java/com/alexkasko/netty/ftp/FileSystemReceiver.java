@@ -0,0 +1,303 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link DataChunkReceiver} implementation, that writes uploaded files under the root directory,
+ * client current directory is mapped to the subdirectory of the root one.
+ * Data chunks are written with {@link FileChannel} without intermediate copying, use it with
+ * {@link NioDataTransport} to get chunks in direct buffers. If file size was announced by client
+ * with {@code ALLO} command, file is extended to that size on upload start (sparsely, no data is written
+ * and no blocks are reserved) and truncated to the actual received size after the upload. Announced sizes
+ * larger than usable space of the root directory or than {@link #setMaxAllocatedSize(long)} are refused,
+ * upload is aborted with {@code 552} reply. Resumed uploads are written starting from the transfer offset,
+ * file is truncated to the received position after the upload or on error, so interrupted upload
+ * may be continued with {@code REST} or {@code APPE} using the size reported with {@code SIZE}.
+ * Data after the offset is dropped on upload start. While announced upload is running, its written
+ * position is checkpointed every {@code 8MB} to hidden {@code .<name>.ftpsize} file next to the uploaded one.
+ * If the process was killed before truncation, received size is found by looking for the end of written data
+ * in the sparse tail after the last checkpoint, so {@code SIZE} never reports preallocated bytes as received.
+ * If {@link GroupCommitter} is set, uploaded files are forced to disk in group commits and {@code 226}
+ * reply is sent only after the file and its directory entry are on stable storage.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class FileSystemReceiver implements DataChunkReceiver, ResumableReceiver {
+    private static final Logger logger = LoggerFactory.getLogger(FileSystemReceiver.class);
+    private static final String SIZE_SUFFIX = ".ftpsize";
+    private static final long CHECKPOINT_BYTES = 8 << 20;
+    private static final int SCAN_BUFFER_SIZE = 65536;
+
+    private final File root;
+    private final String rootPath;
+    private volatile GroupCommitter committer;
+    private volatile long maxAllocatedSize = Long.MAX_VALUE;
+
+    /**
+     * Constructor
+     *
+     * @param root root directory for uploaded files, will be created if not exists
+     * @throws IOException if root directory cannot be created
+     */
+    public FileSystemReceiver(File root) throws IOException {
+        if(null == root) throw new IllegalArgumentException("Provided root is null");
+        if(!(root.isDirectory() || root.mkdirs())) throw new IOException(
+                "Cannot create root directory: [" + root.getAbsolutePath() + "]");
+        this.root = root.getCanonicalFile();
+        this.rootPath = this.root.getPath() + File.separator;
+    }
+
+    /**
+     * Sets group committer to make uploads durable before {@code 226} reply,
+     * committer may be shared between receivers
+     *
+     * @param committer group committer, {@code null} to send reply without syncing files
+     * @return this instance
+     */
+    public FileSystemReceiver setGroupCommitter(GroupCommitter committer) {
+        this.committer = committer;
+        return this;
+    }
+
+    /**
+     * Sets max file size that may be announced with {@code ALLO}, uploads announced to be larger are refused
+     *
+     * @param maxAllocatedSize max announced file size in bytes
+     * @return this instance
+     */
+    public FileSystemReceiver setMaxAllocatedSize(long maxAllocatedSize) {
+        if(maxAllocatedSize <= 0) throw new IllegalArgumentException(
+                "Provided maxAllocatedSize: [" + maxAllocatedSize + "] must be positive");
+        this.maxAllocatedSize = maxAllocatedSize;
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onStart(DataTransfer transfer) throws IOException {
+        long allocated = transfer.getAllocatedSize();
+        if(allocated > maxAllocatedSize) throw new IOException("Announced size: [" + allocated + "] " +
+                "exceeds max allocated size: [" + maxAllocatedSize + "]");
+        if(allocated - transfer.getOffset() > root.getUsableSpace()) throw new IOException(
+                "Announced size: [" + allocated + "] exceeds usable space of root directory: [" + root + "]");
+        File file = resolve(transfer.getDirectory(), transfer.getName());
+        File parent = file.getParentFile();
+        if(!(parent.isDirectory() || parent.mkdirs())) throw new IOException(
+                "Cannot create directory: [" + parent.getAbsolutePath() + "]");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        long offset = transfer.getOffset();
+        File sizeFile = sizeFile(file);
+        FileUpload upload = new FileUpload(file, raf, offset);
+        transfer.setAttachment(upload);
+        long received = receivedSize(sizeFile, raf.getChannel());
+        if(offset > received) throw new IOException("Provided offset: [" + offset + "] exceeds received size: " +
+                "[" + received + "] of file: [" + file.getAbsolutePath() + "]");
+        // data after restart offset is overwritten, stale tail is dropped before anything is written
+        raf.setLength(offset);
+        if(allocated > offset) {
+            // checkpoint is written before the file gets sparse tail, preallocated tail is truncated on finish
+            upload.track(sizeFile);
+            raf.setLength(allocated);
+        } else if(sizeFile.exists() && !sizeFile.delete()) throw new IOException(
+                "Cannot delete size file: [" + sizeFile.getAbsolutePath() + "]");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onChunk(DataTransfer transfer, ChannelBuffer chunk) throws IOException {
+        FileUpload upload = (FileUpload) transfer.getAttachment();
+        FileChannel channel = upload.raf.getChannel();
+        ByteBuffer[] buffers = chunk.toByteBuffers();
+        for(ByteBuffer buf : buffers) {
+            while(buf.hasRemaining()) {
+                upload.position += channel.write(buf, upload.position);
+            }
+        }
+        upload.written();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onComplete(DataTransfer transfer) throws IOException {
+        FileUpload upload = (FileUpload) transfer.getAttachment();
+        GroupCommitter gc = committer;
+        try {
+            upload.finish();
+        } catch (IOException e) {
+            upload.close();
+            throw e;
+        }
+        if(null == gc) {
+            upload.close();
+            return;
+        }
+        // file is closed and reply is sent by committer thread
+        gc.commit(upload.raf.getChannel(), upload.raf, upload.file.getParentFile(), transfer);
+        transfer.deferCompletion();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onError(DataTransfer transfer, Throwable cause) {
+        FileUpload upload = (FileUpload) transfer.getAttachment();
+        if(null == upload) return;
+        try {
+            upload.finish();
+        } catch (IOException e) {
+            logger.warn("Exception thrown on truncating file: [" + upload.file.getAbsolutePath() + "]", e);
+        } finally {
+            upload.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getReceivedSize(String directory, String name) throws IOException {
+        File file = resolve(directory, name);
+        if(!file.isFile()) return -1;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return receivedSize(sizeFile(file), raf.getChannel());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Resolves uploaded file location under the root directory
+     *
+     * @param directory current directory set by client
+     * @param name name of uploaded file
+     * @return file location
+     * @throws IOException if file location is outside of the root directory
+     */
+    protected File resolve(String directory, String name) throws IOException {
+        File dir = new File(root, null != directory ? directory : "");
+        File file = new File(name.startsWith("/") ? root : dir, name).getCanonicalFile();
+        if(!file.getPath().startsWith(rootPath)) throw new IOException(
+                "Invalid file path: [" + name + "] in directory: [" + directory + "]");
+        return file;
+    }
+
+    private static File sizeFile(File file) {
+        return new File(file.getParentFile(), "." + file.getName() + SIZE_SUFFIX);
+    }
+
+    private static long receivedSize(File sizeFile, FileChannel data) throws IOException {
+        long length = data.size();
+        if(!sizeFile.isFile()) return length;
+        long checkpoint;
+        RandomAccessFile raf = new RandomAccessFile(sizeFile, "r");
+        try {
+            // size file may be empty if process was killed right after its creation
+            checkpoint = raf.length() < 8 ? 0 : Math.max(Math.min(raf.readLong(), length), 0);
+        } finally {
+            raf.close();
+        }
+        return dataEnd(data, checkpoint, Math.min(length, checkpoint + CHECKPOINT_BYTES));
+    }
+
+    // position after the last non-zero byte in range, tail after written data is sparse,
+    // so it is read without disk access, zeros at the end of written data are not counted
+    private static long dataEnd(FileChannel data, long from, long to) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long end = to;
+        while(end > from) {
+            long start = Math.max(from, end - SCAN_BUFFER_SIZE);
+            buf.clear();
+            buf.limit((int) (end - start));
+            while(buf.hasRemaining()) {
+                if(data.read(buf, start + buf.position()) < 0) break;
+            }
+            for(int i = buf.position() - 1; i >= 0; i--) {
+                if(0 != buf.get(i)) return start + i + 1;
+            }
+            end = start;
+        }
+        return from;
+    }
+
+    private static class FileUpload {
+        private final File file;
+        private final RandomAccessFile raf;
+        private long position;
+        private long checkpoint;
+        private File sizeFile;
+        private RandomAccessFile sizeRaf;
+        private final ByteBuffer sizeBuf = ByteBuffer.allocate(8);
+
+        private FileUpload(File file, RandomAccessFile raf, long position) {
+            this.file = file;
+            this.raf = raf;
+            this.position = position;
+        }
+
+        private void track(File sizeFile) throws IOException {
+            this.sizeFile = sizeFile;
+            this.sizeRaf = new RandomAccessFile(sizeFile, "rw");
+            checkpoint();
+        }
+
+        private void written() throws IOException {
+            // no syscalls on most chunks, data written after the checkpoint is found by scanning
+            if(null != sizeRaf && position - checkpoint >= CHECKPOINT_BYTES) checkpoint();
+        }
+
+        private void checkpoint() throws IOException {
+            // written after the data, so it never exceeds the data written to file
+            checkpoint = position;
+            sizeBuf.clear();
+            sizeBuf.putLong(position);
+            sizeBuf.flip();
+            FileChannel ch = sizeRaf.getChannel();
+            while(sizeBuf.hasRemaining()) ch.write(sizeBuf, sizeBuf.position());
+        }
+
+        private void finish() throws IOException {
+            if(null == sizeRaf) return;
+            raf.getChannel().truncate(position);
+            // size file is removed only after truncation, file length is valid from now on
+            closeSize();
+            if(!sizeFile.delete()) throw new IOException(
+                    "Cannot delete size file: [" + sizeFile.getAbsolutePath() + "]");
+        }
+
+        private void close() {
+            closeSize();
+            try {
+                raf.close();
+            } catch (IOException e) {
+                logger.warn("Exception thrown on closing file: [" + file.getAbsolutePath() + "]", e);
+            }
+        }
+
+        private void closeSize() {
+            if(null == sizeRaf) return;
+            try {
+                sizeRaf.close();
+            } catch (IOException e) {
+                logger.warn("Exception thrown on closing file: [" + sizeFile.getAbsolutePath() + "]", e);
+            }
+            sizeRaf = null;
+        }
+    }
+}
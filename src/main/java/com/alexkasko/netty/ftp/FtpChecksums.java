@@ -0,0 +1,85 @@
+package com.alexkasko.netty.ftp;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checksums computed while uploads are received, enables {@code HASH}, {@code XCRC} and {@code XMD5} commands.
+ * Supported algorithms are {@code CRC32}, {@code CRC32C}, {@code MD5}, {@code SHA-1}, {@code SHA-256}
+ * and {@code SHA-512}. {@code XCRC} requires {@code CRC32}, {@code XMD5} requires {@code MD5}, {@code HASH}
+ * uses the first algorithm unless other one was selected with {@code OPTS HASH}.
+ * Instance is immutable and may be shared between handlers.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public final class FtpChecksums {
+    static final String CRC32 = "CRC32";
+    static final String CRC32C = "CRC32C";
+    static final String MD5 = "MD5";
+    private static final List<String> SUPPORTED = Arrays.asList(CRC32, CRC32C, MD5, "SHA-1", "SHA-256", "SHA-512");
+
+    private final List<String> algorithms;
+
+    /**
+     * Constructor
+     *
+     * @param algorithms algorithm names, case-insensitive
+     */
+    public FtpChecksums(String... algorithms) {
+        if(null == algorithms || 0 == algorithms.length) throw new IllegalArgumentException(
+                "Provided algorithms are empty");
+        String[] names = new String[algorithms.length];
+        for(int i = 0; i < algorithms.length; i++) {
+            String name = supported(algorithms[i]);
+            if(null == name) throw new IllegalArgumentException(
+                    "Provided algorithm: [" + algorithms[i] + "] is not supported, supported: " + SUPPORTED);
+            names[i] = name;
+        }
+        this.algorithms = Collections.unmodifiableList(Arrays.asList(names));
+        // fails early if digest is not available in current JVM
+        for(String name : this.algorithms) {
+            if(name.startsWith(CRC32)) continue;
+            try {
+                MessageDigest.getInstance(name);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException("Provided algorithm: [" + name + "] is not available", e);
+            }
+        }
+    }
+
+    /**
+     * @return computed algorithms, first one is used by {@code HASH} by default
+     */
+    public List<String> getAlgorithms() {
+        return algorithms;
+    }
+
+    /**
+     * @param name algorithm name provided by client
+     * @return canonical name of enabled algorithm, {@code null} if not enabled
+     */
+    String enabled(String name) {
+        String res = supported(name);
+        return null != res && algorithms.contains(res) ? res : null;
+    }
+
+    private static String supported(String name) {
+        if(null == name) return null;
+        for(String su : SUPPORTED) {
+            if(su.equalsIgnoreCase(name.trim())) return su;
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "FtpChecksums{algorithms=" + algorithms + '}';
+    }
+}
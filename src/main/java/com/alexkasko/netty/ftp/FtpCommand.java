@@ -0,0 +1,77 @@
+package com.alexkasko.netty.ftp;
+
+/**
+ * Immutable decoded FTP command, verb is resolved on decoding, argument string is extracted
+ * from command line lazily on first access
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class FtpCommand {
+    private final FtpVerb verb;
+    private final String line;
+    private final int verbLength;
+    // benign race, string is immutable
+    private String argument;
+
+    private FtpCommand(FtpVerb verb, String line, int verbLength) {
+        this.verb = verb;
+        this.line = line;
+        this.verbLength = verbLength;
+    }
+
+    /**
+     * Parses command line
+     *
+     * @param line command line without line terminator
+     * @return command or {@code null} if line is too short to contain command
+     */
+    public static FtpCommand parse(String line) {
+        String trimmed = line.trim();
+        if (trimmed.length() < 3) return null;
+        int space = trimmed.indexOf(' ');
+        int verbLength = -1 == space ? trimmed.length() : space;
+        return new FtpCommand(FtpVerb.lookup(trimmed, 0, verbLength), trimmed, verbLength);
+    }
+
+    /**
+     * @return command verb, {@link FtpVerb#UNKNOWN} for unsupported commands
+     */
+    public FtpVerb getVerb() {
+        return verb;
+    }
+
+    /**
+     * @return verb as sent by client
+     */
+    public String getName() {
+        return FtpVerb.UNKNOWN != verb ? verb.name() : line.substring(0, verbLength);
+    }
+
+    /**
+     * @return command argument, empty string if command has no argument
+     */
+    public String getArgument() {
+        String arg = argument;
+        if (null == arg) {
+            arg = line.length() > verbLength ? line.substring(verbLength + 1) : "";
+            argument = arg;
+        }
+        return arg;
+    }
+
+    /**
+     * @return full command line
+     */
+    public String getLine() {
+        return line;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return line;
+    }
+}
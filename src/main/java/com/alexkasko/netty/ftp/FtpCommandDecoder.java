@@ -0,0 +1,25 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
+
+/**
+ * Pipeline stage between {@link CrlfStringDecoder} and {@link FtpServerHandler}, that turns
+ * command lines into {@link FtpCommand} instances. Lines too short to contain command are passed unchanged.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class FtpCommandDecoder extends OneToOneDecoder {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
+        if (!(msg instanceof String)) return msg;
+        FtpCommand command = FtpCommand.parse((String) msg);
+        return null != command ? command : msg;
+    }
+}
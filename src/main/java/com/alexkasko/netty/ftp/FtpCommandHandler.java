@@ -0,0 +1,22 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.channel.ChannelHandlerContext;
+
+/**
+ * Handler for single FTP command verb, registered in {@link FtpCommandTable}.
+ * Single instance is shared between all sessions, session state should be accessed through provided handler.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public interface FtpCommandHandler {
+    /**
+     * Handles command, implementation must send reply to client
+     *
+     * @param session handler of the control channel command was received from
+     * @param ctx control channel context
+     * @param command decoded command
+     * @throws Exception on any error, will be reported to client with generic error reply
+     */
+    void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) throws Exception;
+}
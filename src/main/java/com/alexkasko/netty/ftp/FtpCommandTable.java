@@ -0,0 +1,213 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.channel.ChannelHandlerContext;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Verb-indexed table of FTP command handlers, may be shared between all {@link FtpServerHandler} instances.
+ * Table created with {@link #defaults()} contains handlers for all the supported commands,
+ * other verbs are answered with {@code 500} reply. Handlers may be registered or overridden
+ * per verb at any time.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class FtpCommandTable {
+    private static final FtpCommandHandler UNRECOGNIZED = new FtpCommandHandler() {
+        @Override
+        public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) {
+            session.reply(ctx, command, FtpReply.UNRECOGNIZED);
+        }
+    };
+
+    private final AtomicReferenceArray<FtpCommandHandler> handlers =
+            new AtomicReferenceArray<FtpCommandHandler>(FtpVerb.values().length);
+
+    /**
+     * Constructor, creates table that answers all the verbs with {@code 500} reply
+     */
+    public FtpCommandTable() {
+        for (FtpVerb verb : FtpVerb.values()) handlers.set(verb.ordinal(), UNRECOGNIZED);
+    }
+
+    /**
+     * Creates new table with handlers for all the supported commands
+     *
+     * @return table with default handlers
+     */
+    public static FtpCommandTable defaults() {
+        return new FtpCommandTable()
+                .register(FtpVerb.USER, new FtpCommandHandler() {
+                    @Override
+                    public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) {
+                        session.user(ctx, command.getArgument());
+                    }
+                })
+                .register(FtpVerb.CWD, new FtpCommandHandler() {
+                    @Override
+                    public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) {
+                        session.setCurrentDirectory(command.getArgument());
+                        session.reply(ctx, command, FtpReply.CWD_SUCCESSFUL);
+                    }
+                })
+                .register(FtpVerb.PWD, new FtpCommandHandler() {
+                    @Override
+                    public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) {
+                        session.reply(ctx, command, FtpReply.encode("257 \"", session.getCurrentDirectory(),
+                                "\" is current directory"));
+                    }
+                })
+                .register(FtpVerb.MKD, new FtpCommandHandler() {
+                    @Override
+                    public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) {
+                        session.reply(ctx, command, FtpReply.encode("521 \"", command.getArgument(),
+                                "\" directory exists"));
+                    }
+                })
+                .register(FtpVerb.DELE, new NoSuchFile())
+                .register(FtpVerb.RMD, new NoSuchFile())
+                .register(FtpVerb.RNFR, new Reply(FtpReply.RNFR_SUCCESSFUL))
+                .register(FtpVerb.RNTO, new Reply(FtpReply.RNTO_SUCCESSFUL))
+                .register(FtpVerb.SYST, new Reply(FtpReply.SYSTEM_TYPE))
+                .register(FtpVerb.NOOP, new Reply(FtpReply.OK))
+                .register(FtpVerb.QUIT, new Reply(FtpReply.QUIT_SUCCESSFUL))
+                .register(FtpVerb.TYPE, new FtpCommandHandler() {
+                    @Override
+                    public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) {
+                        session.type(ctx, command.getArgument());
+                    }
+                })
+                .register(FtpVerb.PORT, new FtpCommandHandler() {
+                    @Override
+                    public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) {
+                        session.port(ctx, command.getArgument());
+                    }
+                })
+                .register(FtpVerb.PASV, new FtpCommandHandler() {
+                    @Override
+                    public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command)
+                            throws InterruptedException {
+                        session.pasv(ctx, command.getArgument());
+                    }
+                })
+                .register(FtpVerb.LIST, new FtpCommandHandler() {
+                    @Override
+                    public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) {
+                        session.list(ctx, command.getArgument());
+                    }
+                })
+                .register(FtpVerb.STOR, new FtpCommandHandler() {
+                    @Override
+                    public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) {
+                        session.stor(ctx, command.getArgument());
+                    }
+                })
+                .register(FtpVerb.MODE, new FtpCommandHandler() {
+                    @Override
+                    public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) {
+                        session.mode(ctx, command.getArgument());
+                    }
+                })
+                .register(FtpVerb.APPE, new FtpCommandHandler() {
+                    @Override
+                    public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) {
+                        session.appe(ctx, command.getArgument());
+                    }
+                })
+                .register(FtpVerb.REST, new FtpCommandHandler() {
+                    @Override
+                    public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) {
+                        session.rest(ctx, command.getArgument());
+                    }
+                })
+                .register(FtpVerb.SIZE, new FtpCommandHandler() {
+                    @Override
+                    public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) {
+                        session.size(ctx, command.getArgument());
+                    }
+                })
+                .register(FtpVerb.ALLO, new FtpCommandHandler() {
+                    @Override
+                    public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) {
+                        session.allo(ctx, command.getArgument());
+                    }
+                })
+                .register(FtpVerb.OPTS, new FtpCommandHandler() {
+                    @Override
+                    public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) {
+                        session.opts(ctx, command.getArgument());
+                    }
+                })
+                .register(FtpVerb.HASH, new FtpCommandHandler() {
+                    @Override
+                    public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) {
+                        session.hash(ctx, command.getArgument());
+                    }
+                })
+                .register(FtpVerb.XCRC, new FtpCommandHandler() {
+                    @Override
+                    public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) {
+                        session.xcrc(ctx, command.getArgument());
+                    }
+                })
+                .register(FtpVerb.XMD5, new FtpCommandHandler() {
+                    @Override
+                    public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) {
+                        session.xmd5(ctx, command.getArgument());
+                    }
+                });
+    }
+
+    /**
+     * Registers handler for specified verb replacing existing one
+     *
+     * @param verb command verb
+     * @param handler command handler
+     * @return this table
+     */
+    public FtpCommandTable register(FtpVerb verb, FtpCommandHandler handler) {
+        if (null == verb) throw new IllegalArgumentException("Provided verb is null");
+        if (null == handler) throw new IllegalArgumentException("Provided handler is null");
+        handlers.set(verb.ordinal(), handler);
+        return this;
+    }
+
+    /**
+     * Removes handler for specified verb, verb will be answered with {@code 500} reply
+     *
+     * @param verb command verb
+     * @return this table
+     */
+    public FtpCommandTable unregister(FtpVerb verb) {
+        return register(verb, UNRECOGNIZED);
+    }
+
+    /**
+     * @param verb command verb
+     * @return handler registered for specified verb
+     */
+    public FtpCommandHandler get(FtpVerb verb) {
+        return handlers.get(verb.ordinal());
+    }
+
+    private static class Reply implements FtpCommandHandler {
+        private final FtpReply response;
+
+        private Reply(FtpReply response) {
+            this.response = response;
+        }
+
+        @Override
+        public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) {
+            session.reply(ctx, command, response);
+        }
+    }
+
+    private static class NoSuchFile implements FtpCommandHandler {
+        @Override
+        public void handle(FtpServerHandler session, ChannelHandlerContext ctx, FtpCommand command) {
+            session.reply(ctx, command, FtpReply.encode("550 ", command.getArgument(), ": no such file or directory"));
+        }
+    }
+}
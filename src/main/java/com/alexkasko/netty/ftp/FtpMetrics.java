@@ -0,0 +1,337 @@
+package com.alexkasko.netty.ftp;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Metrics registry for sessions, commands and transfers, should be shared between all
+ * {@link FtpServerHandler} instances. All the counters and histograms are lock-free and
+ * allocation-free on recording. Registry may be exposed through JMX using {@link #register(String)}.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class FtpMetrics implements FtpMetricsMXBean {
+    private static final FtpVerb[] VERBS = FtpVerb.values();
+
+    private final AtomicInteger activeSessions = new AtomicInteger(0);
+    private final AtomicLong totalSessions = new AtomicLong(0);
+    private final AtomicLongArray commandCounts = new AtomicLongArray(VERBS.length);
+    // histograms are created on first command with the verb
+    private final AtomicReferenceArray<ConcurrentHistogram> commandLatencies =
+            new AtomicReferenceArray<ConcurrentHistogram>(VERBS.length);
+    private final AtomicLong storFailures = new AtomicLong(0);
+    private final AtomicLong storBytes = new AtomicLong(0);
+    private final ConcurrentHistogram storDurations = new ConcurrentHistogram();
+    private final ConcurrentHistogram storThroughputs = new ConcurrentHistogram();
+    private final AtomicLong passiveBindFailures = new AtomicLong(0);
+    private final AtomicLong passiveBindRetries = new AtomicLong(0);
+    private final AtomicLong transientErrorReplies = new AtomicLong(0);
+    private final AtomicLong permanentErrorReplies = new AtomicLong(0);
+    private final AtomicLong reapedSessions = new AtomicLong(0);
+    private final AtomicLong reapedDataConnections = new AtomicLong(0);
+    private final AtomicLong reapedTransfers = new AtomicLong(0);
+    private volatile ObjectName registeredName;
+
+    /**
+     * Registers this registry in platform MBean server
+     *
+     * @param name value of {@code name} key of MBean object name
+     * @return object name this registry was registered with
+     * @throws JMException on registration error
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        if (null == name) throw new IllegalArgumentException("Provided name is null");
+        if (null != registeredName) throw new IllegalStateException(
+                "Metrics are already registered with name: [" + registeredName + "]");
+        ObjectName on = new ObjectName(getClass().getPackage().getName() + ":type=FtpMetrics,name=" +
+                ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+        registeredName = on;
+        return on;
+    }
+
+    /**
+     * Unregisters this registry from platform MBean server, does nothing if it was not registered
+     *
+     * @throws JMException on unregistration error
+     */
+    public synchronized void unregister() throws JMException {
+        if (null == registeredName) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(registeredName)) server.unregisterMBean(registeredName);
+        registeredName = null;
+    }
+
+    void sessionOpened() {
+        activeSessions.incrementAndGet();
+        totalSessions.incrementAndGet();
+    }
+
+    void sessionClosed() {
+        activeSessions.decrementAndGet();
+    }
+
+    void commandHandled(FtpVerb verb, long nanos) {
+        int idx = verb.ordinal();
+        commandCounts.incrementAndGet(idx);
+        ConcurrentHistogram hist = commandLatencies.get(idx);
+        if (null == hist) {
+            commandLatencies.compareAndSet(idx, null, new ConcurrentHistogram());
+            hist = commandLatencies.get(idx);
+        }
+        hist.record(nanos / 1000);
+    }
+
+    void bytesReceived(long bytes) {
+        storBytes.addAndGet(bytes);
+    }
+
+    void transferCompleted(long bytes, long nanos) {
+        storDurations.record(nanos / 1000000);
+        storThroughputs.record(nanos > 0 ? (long) (bytes * 1e9 / nanos) : bytes);
+    }
+
+    /**
+     * Wraps data stream of blocking receiver to account received bytes
+     *
+     * @param data data connection stream
+     * @return metered stream
+     */
+    MeteredInputStream wrap(InputStream data) {
+        return new MeteredInputStream(data);
+    }
+
+    void transferFailed() {
+        storFailures.incrementAndGet();
+    }
+
+    void passiveBindFailed(boolean retrying) {
+        passiveBindFailures.incrementAndGet();
+        if (retrying) passiveBindRetries.incrementAndGet();
+    }
+
+    void sessionReaped() {
+        reapedSessions.incrementAndGet();
+    }
+
+    void dataConnectionReaped() {
+        reapedDataConnections.incrementAndGet();
+    }
+
+    void transferReaped() {
+        reapedTransfers.incrementAndGet();
+    }
+
+    void replySent(byte firstDigit) {
+        if ('4' == firstDigit) transientErrorReplies.incrementAndGet();
+        else if ('5' == firstDigit) permanentErrorReplies.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getTotalSessions() {
+        return totalSessions.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getCommandCounts() {
+        Map<String, Long> res = new LinkedHashMap<String, Long>();
+        for (FtpVerb verb : VERBS) {
+            long cnt = commandCounts.get(verb.ordinal());
+            if (cnt > 0) res.put(verb.name(), cnt);
+        }
+        return res;
+    }
+
+    /**
+     * @param verb command verb
+     * @return number of handled commands with specified verb
+     */
+    public long getCommandCount(FtpVerb verb) {
+        return commandCounts.get(verb.ordinal());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCommandLatencyMicros(String verb, double percentile) {
+        if (null == verb) throw new IllegalArgumentException("Provided verb is null");
+        ConcurrentHistogram hist = getCommandLatencies(FtpVerb.lookup(verb, 0, verb.length()));
+        return null != hist ? hist.getValueAtPercentile(percentile) : 0;
+    }
+
+    /**
+     * @param verb command verb
+     * @return histogram of command handling latencies in microseconds,
+     *         {@code null} if no commands with specified verb were handled
+     */
+    public ConcurrentHistogram getCommandLatencies(FtpVerb verb) {
+        return commandLatencies.get(verb.ordinal());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getStorTransfers() {
+        return storDurations.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getStorFailures() {
+        return storFailures.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getStorBytes() {
+        return storBytes.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getStorDurationMillis(double percentile) {
+        return storDurations.getValueAtPercentile(percentile);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getStorBytesPerSecond(double percentile) {
+        return storThroughputs.getValueAtPercentile(percentile);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getPassiveBindFailures() {
+        return passiveBindFailures.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getPassiveBindRetries() {
+        return passiveBindRetries.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getTransientErrorReplies() {
+        return transientErrorReplies.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getPermanentErrorReplies() {
+        return permanentErrorReplies.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getReapedSessions() {
+        return reapedSessions.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getReapedDataConnections() {
+        return reapedDataConnections.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getReapedTransfers() {
+        return reapedTransfers.get();
+    }
+
+    /**
+     * Stream that accounts bytes read through it as received, used by single reading thread
+     */
+    class MeteredInputStream extends FilterInputStream {
+        private long count = 0;
+
+        private MeteredInputStream(InputStream in) {
+            super(in);
+        }
+
+        /**
+         * @return number of bytes read
+         */
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int res = in.read();
+            if(-1 != res) received(1);
+            return res;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int res = in.read(b, off, len);
+            if(res > 0) received(res);
+            return res;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long res = in.skip(n);
+            if(res > 0) received(res);
+            return res;
+        }
+
+        private void received(long bytes) {
+            count += bytes;
+            bytesReceived(bytes);
+        }
+    }
+}
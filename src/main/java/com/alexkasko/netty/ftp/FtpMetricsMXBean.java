@@ -0,0 +1,96 @@
+package com.alexkasko.netty.ftp;
+
+import java.util.Map;
+
+/**
+ * JMX management interface of {@link FtpMetrics}
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public interface FtpMetricsMXBean {
+
+    /**
+     * @return number of currently open control sessions
+     */
+    int getActiveSessions();
+
+    /**
+     * @return total number of accepted control sessions
+     */
+    long getTotalSessions();
+
+    /**
+     * @return number of handled commands by verb, only verbs received at least once are included
+     */
+    Map<String, Long> getCommandCounts();
+
+    /**
+     * @param verb command verb
+     * @param percentile percentile from {@code 0} to {@code 100}
+     * @return command handling latency in microseconds at specified percentile
+     */
+    long getCommandLatencyMicros(String verb, double percentile);
+
+    /**
+     * @return number of successfully completed uploads
+     */
+    long getStorTransfers();
+
+    /**
+     * @return number of failed uploads
+     */
+    long getStorFailures();
+
+    /**
+     * @return total number of bytes received over data connections
+     */
+    long getStorBytes();
+
+    /**
+     * @param percentile percentile from {@code 0} to {@code 100}
+     * @return duration of completed uploads in milliseconds at specified percentile
+     */
+    long getStorDurationMillis(double percentile);
+
+    /**
+     * @param percentile percentile from {@code 0} to {@code 100}
+     * @return throughput of completed uploads in bytes per second at specified percentile
+     */
+    long getStorBytesPerSecond(double percentile);
+
+    /**
+     * @return number of failed passive port binds
+     */
+    long getPassiveBindFailures();
+
+    /**
+     * @return number of passive bind attempts made after failed ones
+     */
+    long getPassiveBindRetries();
+
+    /**
+     * @return number of sent {@code 4xx} replies
+     */
+    long getTransientErrorReplies();
+
+    /**
+     * @return number of sent {@code 5xx} replies
+     */
+    long getPermanentErrorReplies();
+
+    /**
+     * @return number of control sessions closed on idle timeout
+     */
+    long getReapedSessions();
+
+    /**
+     * @return number of data connections closed on connect timeout
+     */
+    long getReapedDataConnections();
+
+    /**
+     * @return number of uploads aborted on stall timeout
+     */
+    long getReapedTransfers();
+}
@@ -0,0 +1,138 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import static org.jboss.netty.buffer.ChannelBuffers.buffer;
+import static org.jboss.netty.buffer.ChannelBuffers.unmodifiableBuffer;
+
+/**
+ * Pre-encoded FTP reply line. Constant replies are encoded once and shared between all sessions,
+ * dynamic replies are encoded directly into exactly sized buffers without intermediate strings.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public final class FtpReply {
+    public static final FtpReply SERVICE_READY = new FtpReply("220 Service ready");
+    public static final FtpReply OK = new FtpReply("200 OK");
+    public static final FtpReply USER_LOGGED_IN = new FtpReply("230 USER LOGGED IN");
+    public static final FtpReply CWD_SUCCESSFUL = new FtpReply("250 CWD command successful");
+    public static final FtpReply RNFR_SUCCESSFUL = new FtpReply("350 File exists, ready for destination name");
+    public static final FtpReply RNTO_SUCCESSFUL = new FtpReply("250 RNTO command successful");
+    public static final FtpReply SYSTEM_TYPE = new FtpReply("215 UNIX Type: Java custom implementation");
+    public static final FtpReply QUIT_SUCCESSFUL = new FtpReply("221 QUIT command successful");
+    public static final FtpReply TYPE_IMAGE = new FtpReply("200 Type set to IMAGE NONPRINT");
+    public static final FtpReply TYPE_ASCII = new FtpReply("200 Type set to ASCII NONPRINT");
+    public static final FtpReply PORT_SUCCESSFUL = new FtpReply("200 PORT command successful");
+    public static final FtpReply ALLO_SUCCESSFUL = new FtpReply("200 ALLO command successful");
+    public static final FtpReply MODE_STREAM = new FtpReply("200 Mode set to S");
+    public static final FtpReply MODE_DEFLATE = new FtpReply("200 Mode set to Z");
+    public static final FtpReply LIST_COMPLETE = new FtpReply("226 Transfer complete for LIST");
+    public static final FtpReply SERVICE_NOT_AVAILABLE = new FtpReply("421 Service not available, closing control connection");
+    public static final FtpReply IDLE_TIMEOUT = new FtpReply("421 Idle timeout, closing control connection");
+    public static final FtpReply SERVER_ERROR = new FtpReply("425 Server error");
+    public static final FtpReply CANT_OPEN_DATA_CONNECTION = new FtpReply("425 Can't open data connection");
+    public static final FtpReply TRANSFER_ABORTED = new FtpReply("426 Connection closed, transfer aborted");
+    public static final FtpReply SERVER_BUSY = new FtpReply("450 Requested file action not taken, server busy");
+    public static final FtpReply UNRECOGNIZED = new FtpReply("500 Command unrecognized");
+    public static final FtpReply UNSPECIFIED_ERROR = new FtpReply("500 Unspecified error");
+    public static final FtpReply SYNTAX_ERROR = new FtpReply("501 Syntax error");
+    public static final FtpReply SYNTAX_ERROR_IN_ARGS = new FtpReply("501 Syntax error in parameters or arguments");
+    public static final FtpReply BAD_SEQUENCE = new FtpReply("503 Bad sequence of commands");
+    public static final FtpReply NOT_IMPLEMENTED = new FtpReply("502 Command not implemented");
+    public static final FtpReply NOT_IMPLEMENTED_FOR_PARAM = new FtpReply("504 Command not implemented for that parameter");
+    public static final FtpReply ACTION_ABORTED = new FtpReply("551 Requested action aborted");
+    public static final FtpReply FILE_ACTION_ABORTED = new FtpReply("552 Requested file action aborted");
+
+    private static final byte CR = 13;
+    private static final byte LF = 10;
+
+    private final String text;
+    private final ChannelBuffer encoded;
+
+    /**
+     * Constructor, encodes reply line
+     *
+     * @param text reply line without line terminator
+     */
+    public FtpReply(String text) {
+        if (null == text) throw new IllegalArgumentException("Provided text is null");
+        this.text = text;
+        this.encoded = unmodifiableBuffer(encode(text));
+    }
+
+    /**
+     * @return reply line without line terminator
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return encoded reply line view, safe to write to channel
+     */
+    public ChannelBuffer encoded() {
+        return encoded.duplicate();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * Encodes reply line concatenated from provided parts, non-ASCII chars are replaced with {@code ?}
+     *
+     * @param parts reply line parts
+     * @return encoded reply line with line terminator
+     */
+    public static ChannelBuffer encode(String... parts) {
+        int len = 2;
+        for (String pa : parts) len += pa.length();
+        ChannelBuffer buf = buffer(len);
+        for (String pa : parts) writeAscii(buf, pa);
+        buf.writeByte(CR);
+        buf.writeByte(LF);
+        return buf;
+    }
+
+    /**
+     * Encodes {@code 227} reply
+     *
+     * @param address advertised IPv4 address
+     * @param port passive port
+     * @return encoded reply line with line terminator
+     */
+    public static ChannelBuffer encodePassive(byte[] address, int port) {
+        // "227 Entering Passive Mode (255,255,255,255,255,255)\r\n"
+        ChannelBuffer buf = buffer(56);
+        writeAscii(buf, "227 Entering Passive Mode (");
+        for (byte b : address) {
+            writeDecimal(buf, b & 0xff);
+            buf.writeByte(',');
+        }
+        writeDecimal(buf, port >> 8 & 0xff);
+        buf.writeByte(',');
+        writeDecimal(buf, port & 0xff);
+        buf.writeByte(')');
+        buf.writeByte(CR);
+        buf.writeByte(LF);
+        return buf;
+    }
+
+    private static void writeAscii(ChannelBuffer buf, String str) {
+        for (int i = 0; i < str.length(); i++) {
+            char ch = str.charAt(i);
+            buf.writeByte(ch < 0x80 ? ch : '?');
+        }
+    }
+
+    private static void writeDecimal(ChannelBuffer buf, int value) {
+        if (value >= 100) buf.writeByte('0' + value / 100);
+        if (value >= 10) buf.writeByte('0' + value / 10 % 10);
+        buf.writeByte('0' + value % 10);
+    }
+}
@@ -1,20 +1,38 @@
 package com.alexkasko.netty.ftp;
 
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.*;
-import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
-import static java.lang.System.currentTimeMillis;
-import static org.jboss.netty.buffer.ChannelBuffers.wrappedBuffer;
 
 /**
  * Netty handler, partial implementation of <a href="http://tools.ietf.org/html/rfc959">RFC 959 "File Transfer Protocol (FTP)"</a>
  * for receiving FTP files. Both active and passive modes are supported.
+ * Accepts both command lines from {@link CrlfStringDecoder} and commands from {@link FtpCommandDecoder},
+ * commands are dispatched through {@link FtpCommandTable}.
+ * Data connections are opened using blocking sockets by default, non-blocking NIO data connections
+ * are used if {@link NioDataTransport} is provided. Replies written while command is handled are
+ * coalesced into single control channel write. {@code REST}, {@code APPE} and {@code SIZE} commands
+ * are enabled for receivers implementing {@link ResumableReceiver}. {@code MODE Z} uploads are inflated
+ * before reaching the receiver if {@link InflateLimits} are set. Uploads may be limited server-wide
+ * with {@link AdmissionController}, sessions are refused on {@code PORT} and {@code PASV} with {@code 421}
+ * reply if controller is saturated, uploads that were not admitted are refused with {@code 450} reply.
+ * Idle sessions, unused data connections and stalled uploads are closed if {@link FtpTimeouts} are set.
+ * Small uploads are received in memory by receivers implementing {@link InMemoryReceiver}
+ * if {@link SmallFileBuffers} are set. Checksums of uploads are computed while data is received
+ * and served with {@code HASH}, {@code XCRC} and {@code XMD5} commands if {@link FtpChecksums} are set.
  *
  * @author alexkasko
  * Date: 12/27/12
@@ -24,22 +42,43 @@ public class FtpServerHandler extends SimpleChannelUpstreamHandler {
     private static final byte CR = 13;
     private static final byte LF = 10;
     private static final byte[] CRLF = new byte[]{CR, LF};
-    private static final Charset ASCII = Charset.forName("ASCII");
+    private static final FtpCommandTable DEFAULT_COMMANDS = FtpCommandTable.defaults();
 
     private final DataReceiver receiver;
+    private final DataChunkReceiver chunkReceiver;
     private final byte[] passiveAddress;
     private final byte[] passiveAdvertisedAddress;
     private final int lowestPassivePort;
     private final int highestPassivePort;
     private final int passiveOpenAttempts;
     private final int passiveSoTimeoutMillis;
+    private final NioDataTransport transport;
+    private final PassivePortAllocator portAllocator;
+    private volatile FtpCommandTable commandTable = DEFAULT_COMMANDS;
+    private volatile FtpMetrics metrics;
+    private volatile InflateLimits inflateLimits;
+    private volatile AdmissionController admissionController;
+    private volatile FtpTimeouts timeouts;
+    private volatile SessionTimeouts sessionTimeouts;
+    private volatile SmallFileBuffers smallFileBuffers;
+    private volatile FtpChecksums checksums;
+    private volatile PassiveListener passiveListener;
+    private volatile BandwidthLimiter bandwidthLimiter;
 
     // netty may be configured to use different worker threads with single handler
     // even if handler is created for each pipeline
     private AtomicReference<String> curDir = new AtomicReference<String>("/");
-    private AtomicReference<String> lastCommand = new AtomicReference<String>("");
+    private AtomicReference<FtpVerb> lastCommand = new AtomicReference<FtpVerb>(FtpVerb.UNKNOWN);
+    private AtomicLong allocatedSize = new AtomicLong(-1);
+    private AtomicLong restartOffset = new AtomicLong(0);
     private AtomicReference<Socket> activeSocket = new AtomicReference<Socket>();
     private AtomicReference<ServerSocket> passiveSocket = new AtomicReference<ServerSocket>();
+    private AtomicInteger passivePort = new AtomicInteger(-1);
+    private AtomicReference<NioDataConnection> dataConnection = new AtomicReference<NioDataConnection>();
+    private AtomicBoolean deflateMode = new AtomicBoolean(false);
+    private AtomicReference<SessionInflater> inflater = new AtomicReference<SessionInflater>();
+    private AtomicReference<SessionChecksums> sessionChecksums = new AtomicReference<SessionChecksums>();
+    private AtomicReference<String> userName = new AtomicReference<String>();
 
     /**
      * Constructor for FTP active mode
@@ -78,8 +117,75 @@ public class FtpServerHandler extends SimpleChannelUpstreamHandler {
      */
     public FtpServerHandler(DataReceiver receiver, byte[] passiveAddress, byte[] passiveAdvertisedAddress,
                             int lowestPassivePort, int highestPassivePort, int passiveOpenAttempts, int passiveSoTimeoutMillis) {
+        this(receiver, null, null, passiveAddress, passiveAdvertisedAddress, lowestPassivePort, highestPassivePort,
+                passiveOpenAttempts, passiveSoTimeoutMillis);
+    }
+
+    /**
+     * Constructor for FTP active and passive modes with non-blocking data connections
+     *
+     * @param receiver data receiver implementation
+     * @param transport shared non-blocking data transport
+     * @param passiveAddress passive IP address that will be used for server channel bind
+     * @param passiveAdvertisedAddress passive IP address that will be advertized to client
+     * @param lowestPassivePort lowest bound of passive ports range
+     * @param highestPassivePort highest bound of passive ports range
+     * @param passiveOpenAttempts number of ports to choose for passive channel bind before reporting error
+     */
+    public FtpServerHandler(DataReceiver receiver, NioDataTransport transport, InetAddress passiveAddress,
+                            InetAddress passiveAdvertisedAddress, int lowestPassivePort, int highestPassivePort,
+                            int passiveOpenAttempts) {
+        this(receiver, null == transport || null == receiver ? null :
+                new DataReceiverAdapter(receiver, transport.getReceiverExecutor()), transport,
+                passiveAddress.getAddress(), passiveAdvertisedAddress.getAddress(),
+                lowestPassivePort, highestPassivePort, passiveOpenAttempts, 0);
+        if(null == transport) throw new IllegalArgumentException("Provided transport is null");
+    }
+
+    /**
+     * Constructor for FTP active and passive modes with push-style data receiver
+     *
+     * @param receiver chunk receiver implementation
+     * @param passiveAddress passive IP address that will be used for server socket bind
+     * @param passiveAdvertisedAddress passive IP address that will be advertized to client
+     * @param lowestPassivePort lowest bound of passive ports range
+     * @param highestPassivePort highest bound of passive ports range
+     * @param passiveOpenAttempts number of ports to choose for passive socket open before reporting error
+     */
+    public FtpServerHandler(DataChunkReceiver receiver, InetAddress passiveAddress, InetAddress passiveAdvertisedAddress,
+                            int lowestPassivePort, int highestPassivePort, int passiveOpenAttempts, int passiveSoTimeoutMillis) {
+        this(null, receiver, null, passiveAddress.getAddress(), passiveAdvertisedAddress.getAddress(),
+                lowestPassivePort, highestPassivePort, passiveOpenAttempts, passiveSoTimeoutMillis);
         if(null == receiver) throw new IllegalArgumentException("Provided receiver is null");
+    }
+
+    /**
+     * Constructor for FTP active and passive modes with push-style data receiver and non-blocking data connections
+     *
+     * @param receiver chunk receiver implementation
+     * @param transport shared non-blocking data transport
+     * @param passiveAddress passive IP address that will be used for server channel bind
+     * @param passiveAdvertisedAddress passive IP address that will be advertized to client
+     * @param lowestPassivePort lowest bound of passive ports range
+     * @param highestPassivePort highest bound of passive ports range
+     * @param passiveOpenAttempts number of ports to choose for passive channel bind before reporting error
+     */
+    public FtpServerHandler(DataChunkReceiver receiver, NioDataTransport transport, InetAddress passiveAddress,
+                            InetAddress passiveAdvertisedAddress, int lowestPassivePort, int highestPassivePort,
+                            int passiveOpenAttempts) {
+        this(null, receiver, transport, passiveAddress.getAddress(), passiveAdvertisedAddress.getAddress(),
+                lowestPassivePort, highestPassivePort, passiveOpenAttempts, 0);
+        if(null == receiver) throw new IllegalArgumentException("Provided receiver is null");
+        if(null == transport) throw new IllegalArgumentException("Provided transport is null");
+    }
+
+    private FtpServerHandler(DataReceiver receiver, DataChunkReceiver chunkReceiver, NioDataTransport transport,
+                             byte[] passiveAddress, byte[] passiveAdvertisedAddress, int lowestPassivePort,
+                             int highestPassivePort, int passiveOpenAttempts, int passiveSoTimeoutMillis) {
+        if(null == receiver && null == chunkReceiver) throw new IllegalArgumentException("Provided receiver is null");
+        this.transport = transport;
         this.receiver = receiver;
+        this.chunkReceiver = chunkReceiver;
         if(null == passiveAddress) throw new IllegalArgumentException("Provided passiveAddress is null");
         this.passiveAddress = passiveAddress;
         this.passiveAdvertisedAddress = passiveAdvertisedAddress;
@@ -92,6 +198,7 @@ public class FtpServerHandler extends SimpleChannelUpstreamHandler {
                         "highestPassivePort: [" + highestPassivePort + "]");
         this.lowestPassivePort = lowestPassivePort;
         this.highestPassivePort = highestPassivePort;
+        this.portAllocator = PassivePortAllocator.shared(lowestPassivePort, highestPassivePort);
         if(passiveOpenAttempts <= 0) throw new IllegalArgumentException(
                 "Provided passiveOpenAttempts: [" + passiveOpenAttempts + "] must be positive");
         this.passiveOpenAttempts = passiveOpenAttempts;
@@ -100,35 +207,194 @@ public class FtpServerHandler extends SimpleChannelUpstreamHandler {
         this.passiveSoTimeoutMillis = passiveSoTimeoutMillis;
     }
 
+    /**
+     * Sets table of command handlers to use instead of the default one
+     *
+     * @param commandTable command handlers table, may be shared between handlers
+     * @return this handler
+     */
+    public FtpServerHandler setCommandTable(FtpCommandTable commandTable) {
+        if(null == commandTable) throw new IllegalArgumentException("Provided commandTable is null");
+        this.commandTable = commandTable;
+        return this;
+    }
+
+    /**
+     * Sets metrics registry to record sessions, commands and transfers to
+     *
+     * @param metrics metrics registry, should be shared between handlers
+     * @return this handler
+     */
+    public FtpServerHandler setMetrics(FtpMetrics metrics) {
+        if(null == metrics) throw new IllegalArgumentException("Provided metrics is null");
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Enables {@code MODE Z} (deflate) uploads
+     *
+     * @param inflateLimits limits applied to inflated uploads, may be shared between handlers
+     * @return this handler
+     */
+    public FtpServerHandler setInflateLimits(InflateLimits inflateLimits) {
+        if(null == inflateLimits) throw new IllegalArgumentException("Provided inflateLimits is null");
+        this.inflateLimits = inflateLimits;
+        return this;
+    }
+
+    /**
+     * Sets admission controller to limit concurrent uploads with
+     *
+     * @param admissionController admission controller, should be shared between handlers
+     * @return this handler
+     */
+    public FtpServerHandler setAdmissionController(AdmissionController admissionController) {
+        if(null == admissionController) throw new IllegalArgumentException("Provided admissionController is null");
+        this.admissionController = admissionController;
+        return this;
+    }
+
+    /**
+     * Sets idle session, data connect and transfer stall timeouts
+     *
+     * @param timeouts timeouts with shared timer, may be shared between handlers
+     * @return this handler
+     */
+    public FtpServerHandler setTimeouts(FtpTimeouts timeouts) {
+        if(null == timeouts) throw new IllegalArgumentException("Provided timeouts is null");
+        this.timeouts = timeouts;
+        return this;
+    }
+
+    /**
+     * Enables small file fast path for receivers implementing {@link InMemoryReceiver}
+     *
+     * @param smallFileBuffers buffers pool with memory budget, should be shared between handlers
+     * @return this handler
+     */
+    public FtpServerHandler setSmallFileBuffers(SmallFileBuffers smallFileBuffers) {
+        if(null == smallFileBuffers) throw new IllegalArgumentException("Provided smallFileBuffers is null");
+        this.smallFileBuffers = smallFileBuffers;
+        return this;
+    }
+
+    /**
+     * Enables checksums computation for uploads
+     *
+     * @param checksums algorithms to compute, may be shared between handlers
+     * @return this handler
+     */
+    public FtpServerHandler setChecksums(FtpChecksums checksums) {
+        if(null == checksums) throw new IllegalArgumentException("Provided checksums is null");
+        this.checksums = checksums;
+        return this;
+    }
+
+    /**
+     * Sets shared passive listener to accept passive data connections on,
+     * requires handler created with {@link NioDataTransport}
+     *
+     * @param passiveListener passive listener, should be shared between handlers
+     * @return this handler
+     */
+    public FtpServerHandler setPassiveListener(PassiveListener passiveListener) {
+        if(null == passiveListener) throw new IllegalArgumentException("Provided passiveListener is null");
+        if(null == transport) throw new IllegalStateException("Passive listener requires NIO data transport");
+        this.passiveListener = passiveListener;
+        return this;
+    }
+
+    /**
+     * Enables upload rate shaping on data connections
+     *
+     * @param bandwidthLimiter bandwidth limiter, should be shared between handlers
+     * @return this handler
+     */
+    public FtpServerHandler setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        if(null == bandwidthLimiter) throw new IllegalArgumentException("Provided bandwidthLimiter is null");
+        this.bandwidthLimiter = bandwidthLimiter;
+        return this;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
-        String message = ((String) e.getMessage()).trim();
-        if (message.length() < 3) send("501 Syntax error", ctx, message, "");
-        String cmd = 3 == message.length() ? message.substring(0, 3) : message.substring(0, 4).trim();
-        String args = message.length() > cmd.length() ? message.substring(cmd.length() + 1) : "";
-        // dispatch
-        if ("USER".equals(cmd)) send("230 USER LOGGED IN", ctx, cmd, args);
-        else if ("CWD".equals(cmd)) { curDir.set(args); send("250 CWD command successful", ctx, cmd, args); }
-        else if ("PWD".equals(cmd)) send("257 \"" + curDir.get() + "\" is current directory", ctx, cmd, args);
-        else if ("MKD".equals(cmd)) send("521 \"" + args + "\" directory exists", ctx, cmd, args);
-        else if ("DELE".equals(cmd)) send("550 " + args + ": no such file or directory", ctx, cmd, args);
-        else if ("RMD".equals(cmd)) send("550 " + args + ": no such file or directory", ctx, cmd, args);
-        else if ("RNFR".equals(cmd)) send("350 File exists, ready for destination name", ctx, cmd, args);
-        else if ("RNTO".equals(cmd)) send("250 RNTO command successful", ctx, cmd, args);
-        else if ("SYST".equals(cmd)) send("215 UNIX Type: Java custom implementation", ctx, cmd, args);
-        else if ("NOOP".equals(cmd)) send("200 OK", ctx, cmd, args);
-        else if ("TYPE".equals(cmd)) type(ctx, args);
-        else if ("PORT".equals(cmd)) port(ctx, args);
-        else if ("PASV".equals(cmd)) pasv(ctx, args);
-        else if ("LIST".equals(cmd)) list(ctx, args);
-        else if ("STOR".equals(cmd)) stor(ctx, args);
-        else if ("QUIT".equals(cmd)) send("221 QUIT command successful", ctx, "QUIT", args);
-        else if ("ALLO".equals(cmd)) send("202 No storage allocation necessary", ctx, "ALLO", args);
-        else send("500 Command unrecognized", ctx, cmd, args);
-        lastCommand.set(cmd);
+        ReplyWriter writer = writer(ctx);
+        boolean batch = writer.begin();
+        SessionTimeouts st = sessionTimeouts;
+        if (null != st) st.touch();
+        try {
+            Object msg = e.getMessage();
+            FtpCommand command = msg instanceof FtpCommand ? (FtpCommand) msg : FtpCommand.parse((String) msg);
+            if (null == command) {
+                send(FtpReply.SYNTAX_ERROR, ctx, String.valueOf(msg), "");
+                return;
+            }
+            FtpMetrics me = metrics;
+            long started = null != me ? System.nanoTime() : 0;
+            commandTable.get(command.getVerb()).handle(this, ctx, command);
+            // REST applies only to the next command and is transparent for data connection sequencing
+            if (FtpVerb.REST != command.getVerb()) {
+                lastCommand.set(command.getVerb());
+                restartOffset.set(0);
+            }
+            if (null != me) me.commandHandled(command.getVerb(), System.nanoTime() - started);
+        } finally {
+            if (null != st) st.touch();
+            if (batch) writer.end();
+        }
+    }
+
+    /**
+     * Sends reply to client
+     *
+     * @param ctx control channel context
+     * @param command command to reply to
+     * @param response reply line without line terminator
+     */
+    public void reply(ChannelHandlerContext ctx, FtpCommand command, String response) {
+        send(FtpReply.encode(response), ctx, command.getName(), command.getArgument());
+    }
+
+    /**
+     * Sends reply encoded with {@link FtpReply#encode(String...)} to client
+     *
+     * @param ctx control channel context
+     * @param command command to reply to
+     * @param reply encoded reply line with line terminator
+     */
+    public void reply(ChannelHandlerContext ctx, FtpCommand command, ChannelBuffer reply) {
+        send(reply, ctx, command.getName(), command.getArgument());
+    }
+
+    /**
+     * Sends pre-encoded reply to client
+     *
+     * @param ctx control channel context
+     * @param command command to reply to
+     * @param reply reply line
+     */
+    public void reply(ChannelHandlerContext ctx, FtpCommand command, FtpReply reply) {
+        send(reply, ctx, command.getName(), command.getArgument());
+    }
+
+    /**
+     * @return current directory set by client
+     */
+    public String getCurrentDirectory() {
+        return curDir.get();
+    }
+
+    /**
+     * Sets current directory
+     *
+     * @param directory current directory
+     */
+    public void setCurrentDirectory(String directory) {
+        curDir.set(directory);
     }
 
     /**
@@ -138,7 +404,7 @@ public class FtpServerHandler extends SimpleChannelUpstreamHandler {
     public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
         logger.warn("Exception caught in FtpServerHandler", e.getCause());
         if(ctx.getChannel().isOpen()) {
-            send("500 Unspecified error", ctx, String.valueOf(e.getCause().getMessage()), "");
+            send(FtpReply.UNSPECIFIED_ERROR, ctx, String.valueOf(e.getCause().getMessage()), "");
         }
     }
 
@@ -147,7 +413,46 @@ public class FtpServerHandler extends SimpleChannelUpstreamHandler {
      */
     @Override
     public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
-        send("220 Service ready", ctx, "[connected]", "");
+        FtpMetrics me = metrics;
+        if (null != me) me.sessionOpened();
+        ctx.setAttachment(new ReplyWriter(ctx.getChannel(), me));
+        FtpTimeouts ft = timeouts;
+        if (null != ft) {
+            SessionTimeouts st = new SessionTimeouts(ctx, ft, me);
+            sessionTimeouts = st;
+            st.start();
+        }
+        send(FtpReply.SERVICE_READY, ctx, "[connected]", "");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        SessionTimeouts st = sessionTimeouts;
+        if (null != st) st.stop();
+        closeDataConnection(null);
+        closeActiveSocket(null);
+        closePassiveSocket(null);
+        SessionInflater si = inflater.getAndSet(null);
+        if (null != si) si.end();
+        if (ctx.getAttachment() instanceof ReplyWriter) {
+            FtpMetrics me = ((ReplyWriter) ctx.getAttachment()).getMetrics();
+            if (null != me) me.sessionClosed();
+        }
+        super.channelClosed(ctx, e);
+    }
+
+    /**
+     * USER command handler, user name is kept for per-user bandwidth limits, no authentication is performed
+     *
+     * @param ctx handler context
+     * @param args command arguments
+     */
+    protected void user(ChannelHandlerContext ctx, String args) {
+        userName.set(args);
+        send(FtpReply.USER_LOGGED_IN, ctx, "USER", args);
     }
 
     /**
@@ -157,9 +462,155 @@ public class FtpServerHandler extends SimpleChannelUpstreamHandler {
      * @param args command arguments
      */
     protected void type(ChannelHandlerContext ctx, String args) {
-        if ("I".equals(args)) send("200 Type set to IMAGE NONPRINT", ctx, "TYPE", args);
-        else if ("A".equals(args)) send("200 Type set to ASCII NONPRINT", ctx, "TYPE", args);
-        else send("504 Command not implemented for that parameter", ctx, "TYPE", args);
+        if ("I".equals(args)) send(FtpReply.TYPE_IMAGE, ctx, "TYPE", args);
+        else if ("A".equals(args)) send(FtpReply.TYPE_ASCII, ctx, "TYPE", args);
+        else send(FtpReply.NOT_IMPLEMENTED_FOR_PARAM, ctx, "TYPE", args);
+    }
+
+    /**
+     * MODE command handler, {@code S} (stream) mode is always supported, {@code Z} (deflate) mode
+     * is supported only when inflate limits are set
+     *
+     * @param ctx handler context
+     * @param args command arguments
+     */
+    protected void mode(ChannelHandlerContext ctx, String args) {
+        if ("S".equalsIgnoreCase(args)) {
+            deflateMode.set(false);
+            send(FtpReply.MODE_STREAM, ctx, "MODE", args);
+        } else if ("Z".equalsIgnoreCase(args) && null != inflateLimits) {
+            deflateMode.set(true);
+            send(FtpReply.MODE_DEFLATE, ctx, "MODE", args);
+        } else send(FtpReply.NOT_IMPLEMENTED_FOR_PARAM, ctx, "MODE", args);
+    }
+
+    /**
+     * ALLO command handler, announced size is passed to the next uploaded file
+     *
+     * @param ctx handler context
+     * @param args command arguments
+     */
+    protected void allo(ChannelHandlerContext ctx, String args) {
+        String size = args.split(" ")[0];
+        try {
+            long parsed = Long.parseLong(size);
+            if (parsed < 0) throw new NumberFormatException(size);
+            allocatedSize.set(parsed);
+            send(FtpReply.ALLO_SUCCESSFUL, ctx, "ALLO", args);
+        } catch (NumberFormatException e) {
+            send(FtpReply.SYNTAX_ERROR_IN_ARGS, ctx, "ALLO", args);
+        }
+    }
+
+    /**
+     * REST command handler, offset is applied to the next STOR command
+     *
+     * @param ctx handler context
+     * @param args command arguments
+     */
+    protected void rest(ChannelHandlerContext ctx, String args) {
+        if (null == resumableReceiver()) {
+            send(FtpReply.NOT_IMPLEMENTED, ctx, "REST", args);
+            return;
+        }
+        try {
+            long parsed = Long.parseLong(args.trim());
+            if (parsed < 0) throw new NumberFormatException(args);
+            restartOffset.set(parsed);
+            send(FtpReply.encode("350 Restarting at ", Long.toString(parsed), ". Send STOR or APPE to initiate transfer"),
+                    ctx, "REST", args);
+        } catch (NumberFormatException e) {
+            send(FtpReply.SYNTAX_ERROR_IN_ARGS, ctx, "REST", args);
+        }
+    }
+
+    /**
+     * SIZE command handler, replies with the size already received by receiver
+     *
+     * @param ctx handler context
+     * @param args command arguments
+     */
+    protected void size(ChannelHandlerContext ctx, String args) {
+        ResumableReceiver rr = resumableReceiver();
+        if (null == rr) {
+            send(FtpReply.NOT_IMPLEMENTED, ctx, "SIZE", args);
+            return;
+        }
+        try {
+            long size = rr.getReceivedSize(curDir.get(), args);
+            if (size >= 0) send(FtpReply.encode("213 ", Long.toString(size)), ctx, "SIZE", args);
+            else send(FtpReply.encode("550 ", args, ": no such file or directory"), ctx, "SIZE", args);
+        } catch (IOException e) {
+            logger.warn("Exception thrown on reading size of file: [" + args + "] in directory: [" + curDir.get() + "]", e);
+            send(FtpReply.encode("550 ", args, ": no such file or directory"), ctx, "SIZE", args);
+        }
+    }
+
+    /**
+     * OPTS command handler, only {@code HASH} option is supported, it selects algorithm used by {@code HASH}
+     *
+     * @param ctx handler context
+     * @param args command arguments
+     */
+    protected void opts(ChannelHandlerContext ctx, String args) {
+        String[] parts = args.trim().split("\\s+", 2);
+        SessionChecksums sc = sessionChecksums();
+        if (null == sc || !"HASH".equalsIgnoreCase(parts[0])) {
+            send(FtpReply.NOT_IMPLEMENTED_FOR_PARAM, ctx, "OPTS", args);
+            return;
+        }
+        if (parts.length > 1) {
+            String alg = sc.getConfig().enabled(parts[1]);
+            if (null == alg) {
+                send(FtpReply.SYNTAX_ERROR_IN_ARGS, ctx, "OPTS", args);
+                return;
+            }
+            sc.setHashAlgorithm(alg);
+        }
+        send(FtpReply.encode("200 ", sc.getHashAlgorithm()), ctx, "OPTS", args);
+    }
+
+    /**
+     * HASH command handler, replies with the checksum of the last upload of provided file in this session
+     *
+     * @param ctx handler context
+     * @param args command arguments
+     */
+    protected void hash(ChannelHandlerContext ctx, String args) {
+        SessionChecksums sc = sessionChecksums();
+        if (null == sc) {
+            send(FtpReply.NOT_IMPLEMENTED, ctx, "HASH", args);
+            return;
+        }
+        String alg = sc.getHashAlgorithm();
+        SessionChecksums.Result res = sc.get(curDir.get(), args);
+        if (null == res) {
+            send(FtpReply.encode("550 ", args, ": no checksum available"), ctx, "HASH", args);
+            return;
+        }
+        long start = res.getOffset();
+        send(FtpReply.encode("213 ", alg, " ", Long.toString(start), "-", Long.toString(start + res.getLength()),
+                " ", res.get(alg), " ", args), ctx, "HASH", args);
+    }
+
+    /**
+     * XCRC command handler, replies with the CRC32 of the last upload of provided file in this session
+     *
+     * @param ctx handler context
+     * @param args command arguments
+     */
+    protected void xcrc(ChannelHandlerContext ctx, String args) {
+        checksum(ctx, "XCRC", FtpChecksums.CRC32, args);
+    }
+
+    /**
+     * XMD5 command handler, replies with the MD5 of the last upload of provided file in this session
+     *
+     * @param ctx handler context
+     * @param args command arguments
+     */
+    protected void xmd5(ChannelHandlerContext ctx, String args) {
+        checksum(ctx, "XMD5", FtpChecksums.MD5, args);
     }
 
     /**
@@ -169,24 +620,37 @@ public class FtpServerHandler extends SimpleChannelUpstreamHandler {
      * @param args command arguments
      */
     protected void port(ChannelHandlerContext ctx, String args) {
+        if(serviceUnavailable(ctx, "PORT", args)) return;
+        if(null != transport) {
+            portNio(ctx, args);
+            return;
+        }
         InetSocketAddress addr = parsePortArgs(args);
         Socket as = activeSocket.get();
         if (logger.isTraceEnabled()) logger.trace(String.valueOf(addr));
-        if (null == addr) send("501 Syntax error in parameters or arguments", ctx, "PORT", args);
-        else if (null != as) send("503 Bad sequence of commands", ctx, "PORT", args);
+        if (null == addr) send(FtpReply.SYNTAX_ERROR_IN_ARGS, ctx, "PORT", args);
+        else if (null != as) send(FtpReply.BAD_SEQUENCE, ctx, "PORT", args);
         else {
             try {
                 Socket created = new Socket(addr.getAddress(), addr.getPort());
                 boolean success = activeSocket.compareAndSet(null, created);
-                if(success) send("200 PORT command successful", ctx, "PORT", args);
+                if(success) {
+                    dataOpened(new Runnable() {
+                        @Override
+                        public void run() {
+                            closeActiveSocket(null);
+                        }
+                    });
+                    send(FtpReply.PORT_SUCCESSFUL, ctx, "PORT", args);
+                }
                 else {
                     logger.warn("Invalid concurrent handler usage detected");
-                    send("425 Server error", ctx, "PORT", args);
+                    send(FtpReply.SERVER_ERROR, ctx, "PORT", args);
                 }
             } catch (IOException e1) {
                 logger.warn("Exception thrown on opening active socket to address: [" + addr + "]", e1);
                 closeActiveSocket(null);
-                send("552 Requested file action aborted", ctx, "PORT", args);
+                send(FtpReply.FILE_ACTION_ABORTED, ctx, "PORT", args);
             }
         }
     }
@@ -199,42 +663,55 @@ public class FtpServerHandler extends SimpleChannelUpstreamHandler {
      * @throws InterruptedException
      */
     protected void pasv(ChannelHandlerContext ctx, String args) throws InterruptedException {
+        if(serviceUnavailable(ctx, "PASV", args)) return;
+        if(null != transport) {
+            pasvNio(ctx, args);
+            return;
+        }
         ServerSocket ps = passiveSocket.get();
         if(null != ps) {
             logger.warn("Invalid concurrent handler usage detected");
-            send("425 Server error", ctx, "PASV", args);
+            send(FtpReply.SERVER_ERROR, ctx, "PASV", args);
             return;
         }
         for (int i = 0; i < passiveOpenAttempts; i++) {
-            int port = choosePassivePort(lowestPassivePort, highestPassivePort);
-            int part1 = (byte) (port >> 8) & 0xff;
-            int part2 = (byte) (port >> 0) & 0xff;
+            int port = allocatePassivePort();
+            if (-1 == port) break;
             InetAddress addr = null;
             try {
                 addr = InetAddress.getByAddress(passiveAddress);
                 ps = new ServerSocket(port, 0, addr);
                 ps.setSoTimeout(passiveSoTimeoutMillis);
-                send(String.format("227 Entering Passive Mode (%d,%d,%d,%d,%d,%d)",
-                        passiveAdvertisedAddress[0] & 0xff, passiveAdvertisedAddress[1] & 0xff,
-                        passiveAdvertisedAddress[2] & 0xff, passiveAdvertisedAddress[3] & 0xff,
-                        part1, part2), ctx, "PASV", args);
+                passivePort.set(port);
+                send(FtpReply.encodePassive(passiveAdvertisedAddress, port), ctx, "PASV", args);
                 break;
             } catch (IOException e1) {
                 logger.warn("Exception thrown on binding passive socket to address: [" + addr + "], port: [" + port + "], " +
-                        "attempt: [" + i + 1 + "] of: [" + passiveOpenAttempts + "]", e1);
-                closePassiveSocket(ps);
-                // ensure port change
-                Thread.sleep(1);
+                        "attempt: [" + (i + 1) + "] of: [" + passiveOpenAttempts + "]", e1);
+                if (null != ps) closeQuietly(ps);
+                ps = null;
+                portAllocator.release(port);
+                bindFailed(i);
             }
         }
         if(null != ps) {
             boolean success = passiveSocket.compareAndSet(null, ps);
-            if(!success) {
+            if(success) {
+                dataOpened(new Runnable() {
+                    @Override
+                    public void run() {
+                        closePassiveSocket(null);
+                    }
+                });
+            } else {
                 logger.warn("Invalid concurrent handler usage detected");
-                send("425 Server error", ctx, "PASV", args);
+                closeQuietly(ps);
+                int port = passivePort.getAndSet(-1);
+                if (-1 != port) portAllocator.release(port);
+                send(FtpReply.SERVER_ERROR, ctx, "PASV", args);
             }
         }
-        else send("551 Requested action aborted", ctx, "PASV", args);
+        else send(FtpReply.ACTION_ABORTED, ctx, "PASV", args);
     }
 
     /**
@@ -244,90 +721,449 @@ public class FtpServerHandler extends SimpleChannelUpstreamHandler {
      * @param args command arguments
      */
     protected void list(ChannelHandlerContext ctx, String args) {
-        if ("PORT".equals(lastCommand.get())) {
+        if (null != transport) {
+            NioDataConnection conn = takeDataConnection();
+            if (null != conn) conn.startListing(args);
+            else send(FtpReply.BAD_SEQUENCE, ctx, "LIST", args);
+        } else if (FtpVerb.PORT == lastCommand.get()) {
             Socket as = activeSocket.get();
             if (null != as) {
-                send("150 Opening binary mode data connection for LIST " + args, ctx, "LIST", args);
+                dataConnected();
+                send(FtpReply.encode("150 Opening binary mode data connection for LIST ", args), ctx, "LIST", args);
                 try {
                     as.getOutputStream().write(CRLF);
-                    send("226 Transfer complete for LIST", ctx, "", args);
+                    send(FtpReply.LIST_COMPLETE, ctx, "", args);
                 } catch (IOException e1) {
                     logger.warn("Exception thrown on writing through active socket: [" + as + "]", e1);
-                    send("552 Requested file action aborted", ctx, "LIST", args);
+                    send(FtpReply.FILE_ACTION_ABORTED, ctx, "LIST", args);
                 } finally {
                     closeActiveSocket(as);
                 }
-            } else send("503 Bad sequence of commands", ctx, "LIST", args);
-        } else if ("PASV".equals(lastCommand.get())) {
+            } else send(FtpReply.BAD_SEQUENCE, ctx, "LIST", args);
+        } else if (FtpVerb.PASV == lastCommand.get()) {
             ServerSocket ps = this.passiveSocket.get();
             if (null != ps) {
-                send("150 Opening binary mode data connection for LIST on port: " + ps, ctx, "LIST", args);
+                send(FtpReply.encode("150 Opening binary mode data connection for LIST on port: ", ps.toString()),
+                        ctx, "LIST", args);
+                writer(ctx).flush();
                 Socket clientSocket = null;
                 try {
                     clientSocket = ps.accept();
+                    dataConnected();
                     clientSocket.getOutputStream().write(CRLF);
                     clientSocket.getOutputStream().close();
-                    send("226 Transfer complete for LIST", ctx, "", args);
+                    send(FtpReply.LIST_COMPLETE, ctx, "", args);
                 } catch (IOException e1) {
                     logger.warn("Exception thrown on writing through passive socket: [" + ps + "]," +
                             "accepted client socket: [" + clientSocket + "]", e1);
-                    send("552 Requested file action aborted", ctx, "LIST", args);
+                    send(FtpReply.FILE_ACTION_ABORTED, ctx, "LIST", args);
                 } finally {
                     closePassiveSocket(ps);
                 }
-            } else send("503 Bad sequence of commands", ctx, "LIST", args);
-        } else send("503 Bad sequence of commands", ctx, "LIST", args);
+            } else send(FtpReply.BAD_SEQUENCE, ctx, "LIST", args);
+        } else send(FtpReply.BAD_SEQUENCE, ctx, "LIST", args);
     }
 
     /**
-     * STOP command handler
+     * STOR command handler, upload continues from the offset set by preceding REST command
      *
      * @param ctx handler context
      * @param args command arguments
      */
     protected void stor(ChannelHandlerContext ctx, String args) {
-        if ("PORT".equals(lastCommand.get())) {
+        store(ctx, args, restartOffset.getAndSet(0));
+    }
+
+    /**
+     * APPE command handler, upload continues from the size already received by receiver
+     *
+     * @param ctx handler context
+     * @param args command arguments
+     */
+    protected void appe(ChannelHandlerContext ctx, String args) {
+        ResumableReceiver rr = resumableReceiver();
+        if (null == rr) {
+            send(FtpReply.NOT_IMPLEMENTED, ctx, "APPE", args);
+            return;
+        }
+        long size;
+        try {
+            size = rr.getReceivedSize(curDir.get(), args);
+        } catch (IOException e) {
+            logger.warn("Exception thrown on reading size of file: [" + args + "] in directory: [" + curDir.get() + "]", e);
+            send(FtpReply.FILE_ACTION_ABORTED, ctx, "APPE", args);
+            return;
+        }
+        restartOffset.set(0);
+        store(ctx, args, Math.max(size, 0));
+    }
+
+    private void store(ChannelHandlerContext ctx, String args, long offset) {
+        SessionInflater si = transferInflater();
+        if (null != transport) {
+            NioDataConnection conn = takeDataConnection();
+            if (null != conn) admit(ctx, conn, args, allocatedSize.getAndSet(-1), offset, si);
+            else send(FtpReply.BAD_SEQUENCE, ctx, "STOR", args);
+        } else if (FtpVerb.PORT == lastCommand.get()) {
             Socket as = activeSocket.get();
             if (null != as) {
-                send("150 Opening binary mode data connection for " + args, ctx, "", args);
+                dataConnected();
                 try {
-                    receiver.receive(curDir.get(), args, as.getInputStream());
-                    send("226 Transfer complete for STOR " + args, ctx, "", args);
+                    receive(ctx, args, offset, si, as.getInputStream());
                 } catch (IOException e1) {
                     logger.warn("Exception thrown on reading through active socket: [" + as + "]", e1);
-                    send("552 Requested file action aborted", ctx, "STOR", args);
+                    send(FtpReply.FILE_ACTION_ABORTED, ctx, "STOR", args);
                 } finally {
                     closeActiveSocket(as);
                 }
-            } else send("503 Bad sequence of commands", ctx, "STOR", args);
-        } else if ("PASV".equals(lastCommand.get())) {
+            } else send(FtpReply.BAD_SEQUENCE, ctx, "STOR", args);
+        } else if (FtpVerb.PASV == lastCommand.get()) {
             ServerSocket ps = this.passiveSocket.get();
             if (null != ps) {
-                send("150 Opening binary mode data connection for " + args, ctx, "STOR", args);
                 Socket clientSocket = null;
                 try {
-                    clientSocket = ps.accept();
-                    receiver.receive(curDir.get(), args, clientSocket.getInputStream());
-                    send("226 Transfer complete for STOR " + args, ctx, "", args);
+                    writer(ctx).flush();
+                    try {
+                        clientSocket = ps.accept();
+                    } catch (IOException e1) {
+                        logger.warn("Exception thrown on accepting data connection through passive socket: [" + ps + "]", e1);
+                        send(FtpReply.CANT_OPEN_DATA_CONNECTION, ctx, "STOR", args);
+                        return;
+                    }
+                    dataConnected();
+                    receive(ctx, args, offset, si, clientSocket.getInputStream());
                 } catch (IOException e1) {
                     logger.warn("Exception thrown on reading through passive socket: [" + ps + "], " +
                             "accepted client socket: [" + clientSocket + "]", e1);
-                    send("552 Requested file action aborted", ctx, "STOR", args);
+                    send(FtpReply.FILE_ACTION_ABORTED, ctx, "STOR", args);
                 } finally {
+                    if (null != clientSocket) closeQuietly(clientSocket);
                     closePassiveSocket(ps);
                 }
-            } else send("503 Bad sequence of commands", ctx, "STOR", args);
-        } else send("503 Bad sequence of commands", ctx, "STOR", args);
+            } else send(FtpReply.BAD_SEQUENCE, ctx, "STOR", args);
+        } else send(FtpReply.BAD_SEQUENCE, ctx, "STOR", args);
+    }
+
+    private void receive(ChannelHandlerContext ctx, String args, long offset, SessionInflater si,
+                         InputStream data) throws IOException {
+        long allocated = allocatedSize.getAndSet(-1);
+        AdmissionController ac = admissionController;
+        AdmissionController.Permit permit = null;
+        if (null != ac) {
+            // blocking data connections already occupy control channel thread for the whole transfer
+            try {
+                permit = ac.acquire(reservedBytes(allocated, offset));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (null == permit) {
+                send(FtpReply.SERVER_BUSY, ctx, "STOR", args);
+                return;
+            }
+        }
+        // shaper is opened only for admitted uploads, so queued ones do not take share of user bandwidth
+        BandwidthLimiter bl = bandwidthLimiter;
+        if (null == bl) {
+            receiveData(ctx, args, allocated, offset, si, data, permit);
+            return;
+        }
+        BandwidthLimiter.Shaper shaper = bl.open(userName.get());
+        try {
+            receiveData(ctx, args, allocated, offset, si, shaper.wrap(data), permit);
+        } finally {
+            shaper.close();
+        }
+    }
+
+    // permit is released on final reply
+    private void receiveData(ChannelHandlerContext ctx, String args, long allocated, long offset, SessionInflater si,
+                             InputStream data, AdmissionController.Permit permit) throws IOException {
+        if (null != chunkReceiver) {
+            BlockingDataTransfer transfer = new BlockingDataTransfer(ctx, uploadReceiver(allocated, offset),
+                    curDir.get(), args, allocated, offset, si, permit, sessionTimeouts, metrics);
+            try {
+                transfer.run(data);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                transfer.fail(e);
+            }
+        } else {
+            SessionTimeouts st = sessionTimeouts;
+            FtpMetrics fm = metrics;
+            // progress of blocking receiver cannot be tracked
+            if (null != st) st.transferStarted(null);
+            long startNanos = System.nanoTime();
+            FtpMetrics.MeteredInputStream metered = null;
+            boolean completed = false;
+            try {
+                send(FtpReply.encode("150 Opening binary mode data connection for ", args), ctx, "STOR", args);
+                writer(ctx).flush();
+                InputStream in = data;
+                if (null != fm) {
+                    metered = fm.wrap(data);
+                    in = metered;
+                }
+                if (null != si) {
+                    si.reset();
+                    in = si.wrap(data);
+                }
+                SessionChecksums sc = sessionChecksums();
+                SessionChecksums.CountingInputStream counted = null;
+                if (null != sc) {
+                    sc.reset();
+                    counted = sc.wrap(in);
+                    in = counted;
+                }
+                SmallFileBuffers sfb = smallFileBuffers;
+                if (null != sfb && receiver instanceof InMemoryReceiver && sfb.accepts(allocated, offset)) {
+                    in = SmallFileGatherer.receive((InMemoryReceiver) receiver, curDir.get(), args, in, sfb);
+                }
+                // stream is null if upload was received in memory
+                if (null != in && 0 == offset) receiver.receive(curDir.get(), args, in);
+                else if (null != in) ((ResumableDataReceiver) receiver).receive(curDir.get(), args, offset, in);
+                if (null != counted) {
+                    Map<String, String> sums = sc.finish(curDir.get(), args, offset, counted.getCount());
+                    ChecksumReceiver cr = checksumReceiver();
+                    if (null != cr) cr.onChecksums(curDir.get(), args, sums);
+                }
+                completed = true;
+                if (null != fm) fm.transferCompleted(metered.getCount(), System.nanoTime() - startNanos);
+                send(FtpReply.encode("226 Transfer complete for STOR ", args), ctx, "", args);
+            } finally {
+                if (null != fm && !completed) fm.transferFailed();
+                if (null != permit) permit.release();
+                if (null != st) st.transferFinished();
+            }
+        }
+    }
+
+    private void admit(final ChannelHandlerContext ctx, final NioDataConnection conn, final String args,
+                       final long allocated, final long offset, final SessionInflater si) {
+        final String dir = curDir.get();
+        final AdmissionController ac = admissionController;
+        AdmissionController.Permit permit = null != ac ? ac.tryAcquire(reservedBytes(allocated, offset)) : null;
+        if (null == ac || null != permit) {
+            conn.startUpload(uploadReceiver(allocated, offset), dir, args, allocated, offset, si, permit,
+                    bandwidthLimiter, userName.get());
+            return;
+        }
+        // waiting in queue must not block control channel thread
+        transport.getReceiverExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                AdmissionController.Permit pe = null;
+                try {
+                    pe = ac.acquire(reservedBytes(allocated, offset));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (null != pe) conn.startUpload(uploadReceiver(allocated, offset), dir, args, allocated, offset, si, pe,
+                        bandwidthLimiter, userName.get());
+                else {
+                    conn.close();
+                    send(FtpReply.SERVER_BUSY, ctx, "STOR", args);
+                }
+            }
+        });
+    }
+
+    private void dataOpened(Runnable reaper) {
+        SessionTimeouts st = sessionTimeouts;
+        if (null != st) st.dataOpened(reaper);
+    }
+
+    private void dataOpened(final NioDataConnection conn) {
+        dataOpened(new Runnable() {
+            @Override
+            public void run() {
+                conn.reap();
+                dataConnection.compareAndSet(conn, null);
+            }
+        });
+    }
+
+    private void dataConnected() {
+        SessionTimeouts st = sessionTimeouts;
+        if (null != st) st.dataConnected();
+    }
+
+    private boolean serviceUnavailable(ChannelHandlerContext ctx, String command, String args) {
+        AdmissionController ac = admissionController;
+        if (null == ac || !ac.checkSaturated()) return false;
+        send(FtpReply.SERVICE_NOT_AVAILABLE, ctx, command, args);
+        writer(ctx).close();
+        return true;
+    }
+
+    private static long reservedBytes(long allocated, long offset) {
+        return allocated > offset ? allocated - offset : 0;
+    }
+
+    private void portNio(final ChannelHandlerContext ctx, final String args) {
+        final InetSocketAddress addr = parsePortArgs(args);
+        if (logger.isTraceEnabled()) logger.trace(String.valueOf(addr));
+        if (null == addr) {
+            send(FtpReply.SYNTAX_ERROR_IN_ARGS, ctx, "PORT", args);
+            return;
+        }
+        final NioDataConnection conn = new NioDataConnection(ctx, sessionTimeouts, metrics);
+        if (!dataConnection.compareAndSet(null, conn)) {
+            send(FtpReply.BAD_SEQUENCE, ctx, "PORT", args);
+            return;
+        }
+        dataOpened(conn);
+        transport.connect(addr, conn).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                if (future.isSuccess()) send(FtpReply.PORT_SUCCESSFUL, ctx, "PORT", args);
+                else {
+                    logger.warn("Exception thrown on opening active channel to address: [" + addr + "]", future.getCause());
+                    closeDataConnection(conn);
+                    send(FtpReply.FILE_ACTION_ABORTED, ctx, "PORT", args);
+                }
+            }
+        });
+    }
+
+    private void pasvNio(ChannelHandlerContext ctx, String args) {
+        if (null != dataConnection.get()) {
+            logger.warn("Invalid concurrent handler usage detected");
+            send(FtpReply.SERVER_ERROR, ctx, "PASV", args);
+            return;
+        }
+        NioDataConnection conn = new NioDataConnection(ctx, sessionTimeouts, metrics);
+        PassiveListener pl = passiveListener;
+        if (null != pl) {
+            int port = pl.register(ctx.getChannel().getRemoteAddress(), conn);
+            // falls back to binding own channel if no shared port is free for this client
+            if (-1 != port) {
+                pasvOpened(ctx, args, conn, port);
+                return;
+            }
+        }
+        Channel bound = null;
+        for (int i = 0; i < passiveOpenAttempts && null == bound; i++) {
+            final int port = allocatePassivePort();
+            if (-1 == port) break;
+            InetSocketAddress addr = null;
+            try {
+                addr = new InetSocketAddress(InetAddress.getByAddress(passiveAddress), port);
+                bound = transport.bind(addr, conn);
+                bound.getCloseFuture().addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) {
+                        portAllocator.release(port);
+                    }
+                });
+            } catch (IOException e1) {
+                logger.warn("Invalid passive address: [" + Arrays.toString(passiveAddress) + "]", e1);
+                portAllocator.release(port);
+                break;
+            } catch (ChannelException e1) {
+                logger.warn("Exception thrown on binding passive channel to address: [" + addr + "], " +
+                        "attempt: [" + (i + 1) + "] of: [" + passiveOpenAttempts + "]", e1);
+                portAllocator.release(port);
+                bindFailed(i);
+            }
+        }
+        if (null == bound) {
+            send(FtpReply.ACTION_ABORTED, ctx, "PASV", args);
+            return;
+        }
+        conn.setServerChannel(bound);
+        pasvOpened(ctx, args, conn, ((InetSocketAddress) bound.getLocalAddress()).getPort());
     }
 
-    private static void send(String response, ChannelHandlerContext ctx, String command, String args) {
-        if(logger.isDebugEnabled()) {
-            if(command.length() > 0) logger.debug("-> " + command + " " + args);
-            logger.debug("<- " + response);
+    private void pasvOpened(ChannelHandlerContext ctx, String args, NioDataConnection conn, int port) {
+        if (!dataConnection.compareAndSet(null, conn)) {
+            logger.warn("Invalid concurrent handler usage detected");
+            conn.close();
+            send(FtpReply.SERVER_ERROR, ctx, "PASV", args);
+            return;
+        }
+        dataOpened(conn);
+        send(FtpReply.encodePassive(passiveAdvertisedAddress, port), ctx, "PASV", args);
+    }
+
+    private SessionInflater transferInflater() {
+        if (!deflateMode.get()) return null;
+        SessionInflater si = inflater.get();
+        if (null != si) return si;
+        // inflater with its buffers is created once per session
+        SessionInflater created = new SessionInflater(inflateLimits);
+        if (inflater.compareAndSet(null, created)) return created;
+        created.end();
+        return inflater.get();
+    }
+
+    private DataChunkReceiver uploadReceiver(long allocated, long offset) {
+        DataChunkReceiver res = chunkReceiver;
+        SmallFileBuffers sfb = smallFileBuffers;
+        if (null != sfb && sfb.accepts(allocated, offset)) {
+            // blocking receiver wrapped into adapter is called on receiver executor
+            if (receiver instanceof InMemoryReceiver) res = new SmallFileGatherer(chunkReceiver,
+                    (InMemoryReceiver) receiver, sfb, transport.getReceiverExecutor());
+            else if (chunkReceiver instanceof InMemoryReceiver) res = new SmallFileGatherer(chunkReceiver,
+                    (InMemoryReceiver) chunkReceiver, sfb, null);
+        }
+        SessionChecksums sc = sessionChecksums();
+        if (null != sc) res = new DigestingReceiver(res, sc, checksumReceiver());
+        return res;
+    }
+
+    private ChecksumReceiver checksumReceiver() {
+        if (receiver instanceof ChecksumReceiver) return (ChecksumReceiver) receiver;
+        return chunkReceiver instanceof ChecksumReceiver ? (ChecksumReceiver) chunkReceiver : null;
+    }
+
+    private SessionChecksums sessionChecksums() {
+        FtpChecksums config = checksums;
+        if (null == config) return null;
+        SessionChecksums sc = sessionChecksums.get();
+        if (null != sc && sc.getConfig() == config) return sc;
+        // digest instances are created once per session
+        SessionChecksums created = new SessionChecksums(config);
+        if (sessionChecksums.compareAndSet(sc, created)) return created;
+        return sessionChecksums.get();
+    }
+
+    private void checksum(ChannelHandlerContext ctx, String command, String algorithm, String args) {
+        SessionChecksums sc = sessionChecksums();
+        if (null == sc || null == sc.getConfig().enabled(algorithm)) {
+            send(FtpReply.NOT_IMPLEMENTED, ctx, command, args);
+            return;
         }
-        String line = response + "\r\n";
-        byte[] data = line.getBytes(ASCII);
-        ctx.getChannel().write(wrappedBuffer(data));
+        SessionChecksums.Result res = sc.get(curDir.get(), args);
+        if (null == res) send(FtpReply.encode("550 ", args, ": no checksum available"), ctx, command, args);
+        else send(FtpReply.encode("250 ", res.get(algorithm).toUpperCase(Locale.ENGLISH)), ctx, command, args);
+    }
+
+    private ResumableReceiver resumableReceiver() {
+        // blocking receiver may be wrapped into adapter
+        if (null != receiver) return receiver instanceof ResumableDataReceiver ? (ResumableReceiver) receiver : null;
+        return chunkReceiver instanceof ResumableReceiver ? (ResumableReceiver) chunkReceiver : null;
+    }
+
+    private NioDataConnection takeDataConnection() {
+        FtpVerb last = lastCommand.get();
+        if (FtpVerb.PORT != last && FtpVerb.PASV != last) return null;
+        return dataConnection.getAndSet(null);
+    }
+
+    static void send(FtpReply reply, ChannelHandlerContext ctx, String command, String args) {
+        writer(ctx).write(reply, command, args);
+    }
+
+    static void send(ChannelBuffer reply, ChannelHandlerContext ctx, String command, String args) {
+        writer(ctx).write(reply, command, args);
+    }
+
+    static ReplyWriter writer(ChannelHandlerContext ctx) {
+        Object attachment = ctx.getAttachment();
+        if (attachment instanceof ReplyWriter) return (ReplyWriter) attachment;
+        ReplyWriter created = new ReplyWriter(ctx.getChannel(), null);
+        ctx.setAttachment(created);
+        return created;
     }
 
     private static InetSocketAddress parsePortArgs(String portArgs) {
@@ -348,10 +1184,32 @@ public class FtpServerHandler extends SimpleChannelUpstreamHandler {
         return new InetSocketAddress(inetAddress, port);
     }
 
-    private static int choosePassivePort(int low, int high) {
-        int length = high - low;
-        int offset = (int) (currentTimeMillis() % length);
-        return low + offset;
+    private int allocatePassivePort() {
+        int port = portAllocator.allocate();
+        if (-1 == port) logger.warn("All passive ports are in use, range: [" + lowestPassivePort + ", " +
+                highestPassivePort + "], used: [" + portAllocator.getUsedCount() + "]");
+        return port;
+    }
+
+    private void bindFailed(int attempt) {
+        FtpMetrics me = metrics;
+        if (null != me) me.passiveBindFailed(attempt + 1 < passiveOpenAttempts);
+    }
+
+    private static void closeQuietly(ServerSocket socket) {
+        try {
+            socket.close();
+        } catch (Exception e) {
+            logger.warn("Exception thrown on closing server socket", e);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (Exception e) {
+            logger.warn("Exception thrown on closing socket", e);
+        }
     }
 
     private void closeActiveSocket(Socket socket) {
@@ -363,10 +1221,18 @@ public class FtpServerHandler extends SimpleChannelUpstreamHandler {
             logger.warn("Exception thrown on closing active socket", e);
         } finally {
             boolean success = activeSocket.compareAndSet(as, null);
-            if(!success) logger.warn("Invalid concurrent handler usage detected");
+            // socket may be already closed on data connect timeout
+            if(!success && null != activeSocket.get()) logger.warn("Invalid concurrent handler usage detected");
         }
     }
 
+    private void closeDataConnection(NioDataConnection connection) {
+        NioDataConnection dc = null != connection ? connection : dataConnection.get();
+        if(null == dc) return;
+        dc.close();
+        dataConnection.compareAndSet(dc, null);
+    }
+
     private void closePassiveSocket(ServerSocket socket) {
         ServerSocket ps = null != socket ? socket: passiveSocket.get();
         if(null == ps) return;
@@ -375,8 +1241,11 @@ public class FtpServerHandler extends SimpleChannelUpstreamHandler {
         } catch (Exception e) {
             logger.warn("Exception thrown on closing server socket", e);
         } finally {
+            int port = passivePort.getAndSet(-1);
+            if(-1 != port) portAllocator.release(port);
             boolean success = passiveSocket.compareAndSet(ps, null);
-            if(!success) logger.warn("Invalid concurrent handler usage detected");
+            // socket may be already closed on data connect timeout
+            if(!success && null != passiveSocket.get()) logger.warn("Invalid concurrent handler usage detected");
         }
     }
 }
@@ -0,0 +1,81 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+
+/**
+ * Session and data connection timeouts. All the timeouts are driven by single shared {@link Timer},
+ * {@link HashedWheelTimer} is recommended, each session keeps at most one scheduled timeout at a time.
+ * Timer is not stopped by handlers. Instance is immutable and may be shared between handlers.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public final class FtpTimeouts {
+    private final Timer timer;
+    private final long controlIdleMillis;
+    private final long dataConnectMillis;
+    private final long transferStallMillis;
+
+    /**
+     * Constructor
+     *
+     * @param timer shared timer
+     * @param controlIdleMillis max time between commands when no transfer is running,
+     *                          control connection is closed with {@code 421} reply on expiry, {@code 0} to disable
+     * @param dataConnectMillis max time between {@code PORT} or {@code PASV} and data transfer start,
+     *                          data connection is closed on expiry, {@code 0} to disable
+     * @param transferStallMillis max time without data received by running upload,
+     *                            upload is aborted with {@code 426} reply on expiry, {@code 0} to disable
+     */
+    public FtpTimeouts(Timer timer, long controlIdleMillis, long dataConnectMillis, long transferStallMillis) {
+        if(null == timer) throw new IllegalArgumentException("Provided timer is null");
+        if(controlIdleMillis < 0) throw new IllegalArgumentException(
+                "Provided controlIdleMillis: [" + controlIdleMillis + "] must be non-negative");
+        if(dataConnectMillis < 0) throw new IllegalArgumentException(
+                "Provided dataConnectMillis: [" + dataConnectMillis + "] must be non-negative");
+        if(transferStallMillis < 0) throw new IllegalArgumentException(
+                "Provided transferStallMillis: [" + transferStallMillis + "] must be non-negative");
+        this.timer = timer;
+        this.controlIdleMillis = controlIdleMillis;
+        this.dataConnectMillis = dataConnectMillis;
+        this.transferStallMillis = transferStallMillis;
+    }
+
+    /**
+     * @return shared timer
+     */
+    public Timer getTimer() {
+        return timer;
+    }
+
+    /**
+     * @return max time between commands in milliseconds, {@code 0} if disabled
+     */
+    public long getControlIdleMillis() {
+        return controlIdleMillis;
+    }
+
+    /**
+     * @return max time between data connection opening and transfer start in milliseconds, {@code 0} if disabled
+     */
+    public long getDataConnectMillis() {
+        return dataConnectMillis;
+    }
+
+    /**
+     * @return max time without data received by running upload in milliseconds, {@code 0} if disabled
+     */
+    public long getTransferStallMillis() {
+        return transferStallMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "FtpTimeouts{controlIdleMillis=" + controlIdleMillis + ", dataConnectMillis=" + dataConnectMillis +
+                ", transferStallMillis=" + transferStallMillis + '}';
+    }
+}
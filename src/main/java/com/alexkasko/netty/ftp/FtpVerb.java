@@ -0,0 +1,63 @@
+package com.alexkasko.netty.ftp;
+
+/**
+ * FTP command verbs from RFC 959 and common extensions, verbs not listed here
+ * are decoded as {@link #UNKNOWN}
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public enum FtpVerb {
+    ABOR, ACCT, ALLO, APPE, CDUP, CWD, DELE, EPRT, EPSV, FEAT, HASH, HELP, LIST, MDTM, MKD, MODE, NLST, NOOP,
+    OPTS, PASS, PASV, PORT, PWD, QUIT, REIN, REST, RETR, RMD, RNFR, RNTO, SITE, SIZE, SMNT, STAT, STOR, STOU,
+    STRU, SYST, TYPE, USER, XCRC, XMD5, UNKNOWN;
+
+    private static final int TABLE_SIZE = 1 << 7;
+    private static final int[] KEYS = new int[TABLE_SIZE];
+    private static final FtpVerb[] VERBS = new FtpVerb[TABLE_SIZE];
+
+    static {
+        for (FtpVerb verb : values()) {
+            if (UNKNOWN == verb) continue;
+            int key = key(verb.name(), 0, verb.name().length());
+            int idx = slot(key);
+            while (null != VERBS[idx]) idx = (idx + 1) & (TABLE_SIZE - 1);
+            KEYS[idx] = key;
+            VERBS[idx] = verb;
+        }
+    }
+
+    /**
+     * Looks up verb without allocations, lookup is case-insensitive
+     *
+     * @param line command line
+     * @param offset verb start offset
+     * @param length verb length
+     * @return verb, {@link #UNKNOWN} if not found
+     */
+    public static FtpVerb lookup(CharSequence line, int offset, int length) {
+        if (length < 3 || length > 4) return UNKNOWN;
+        int key = key(line, offset, length);
+        if (0 == key) return UNKNOWN;
+        for (int idx = slot(key); null != VERBS[idx]; idx = (idx + 1) & (TABLE_SIZE - 1)) {
+            if (KEYS[idx] == key) return VERBS[idx];
+        }
+        return UNKNOWN;
+    }
+
+    // packs up to 4 upper-cased ASCII letters or digits into int, returns 0 for other chars
+    private static int key(CharSequence line, int offset, int length) {
+        int key = 0;
+        for (int i = offset; i < offset + length; i++) {
+            char ch = line.charAt(i);
+            if (ch >= 'a' && ch <= 'z') ch -= 'a' - 'A';
+            else if ((ch < 'A' || ch > 'Z') && (ch < '0' || ch > '9')) return 0;
+            key = key << 8 | ch;
+        }
+        return key;
+    }
+
+    private static int slot(int key) {
+        return (key * 0x9E3779B9) >>> 25;
+    }
+}
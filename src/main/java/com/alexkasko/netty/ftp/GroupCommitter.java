@@ -0,0 +1,246 @@
+package com.alexkasko.netty.ftp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Group commit for durable uploads, should be shared between all the receivers writing to the same disk.
+ * Files of concurrently finishing uploads are collected into batches and forced to disk by single
+ * committer thread back to back, so file system may merge their journal commits, and the number of
+ * concurrent sync calls stays bounded regardless of the number of sessions. Success reply of each upload
+ * is sent only after its batch was committed. Batch is committed when it reaches max size or when
+ * max delay expires since its first file was added. Parent directories of the batch files are synced once
+ * per batch after the files, so newly created files also survive power loss. Directory sync requires JDK 7
+ * or later, elsewhere it is skipped with a warning.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class GroupCommitter implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitter.class);
+
+    private final long maxDelayNanos;
+    private final int maxBatch;
+    private final Thread thread;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition added = lock.newCondition();
+    // guarded by lock
+    private List<Commit> batch = new ArrayList<Commit>();
+    private long batchStarted;
+    private boolean closed = false;
+    private final AtomicLong committedFiles = new AtomicLong(0);
+    private final AtomicLong committedBatches = new AtomicLong(0);
+    private final AtomicLong syncedDirectories = new AtomicLong(0);
+
+    /**
+     * Constructor, starts committer thread
+     *
+     * @param maxDelayMillis max time first file of the batch waits for other files, {@code 0} to commit
+     *                       files as soon as committer thread is free
+     * @param maxBatch max number of files in batch
+     */
+    public GroupCommitter(long maxDelayMillis, int maxBatch) {
+        if(maxDelayMillis < 0) throw new IllegalArgumentException(
+                "Provided maxDelayMillis: [" + maxDelayMillis + "] must be non-negative");
+        if(maxBatch <= 0) throw new IllegalArgumentException(
+                "Provided maxBatch: [" + maxBatch + "] must be positive");
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.maxBatch = maxBatch;
+        this.thread = new Thread(this, "ftp-group-commit");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Adds file to current batch, should be called from {@link DataChunkReceiver#onComplete(DataTransfer)}
+     * that defers completion after this call. Upload is completed with success reply after file is forced
+     * to disk or failed if forcing throws exception, file resource is closed in both cases.
+     *
+     * @param channel file channel to force
+     * @param resource file resource to close after forcing
+     * @param transfer upload transfer to complete
+     */
+    public void commit(FileChannel channel, Closeable resource, DataTransfer transfer) {
+        commit(channel, resource, null, transfer);
+    }
+
+    /**
+     * Adds file to current batch, should be called from {@link DataChunkReceiver#onComplete(DataTransfer)}
+     * that defers completion after this call. Upload is completed with success reply after file and
+     * its directory are forced to disk or failed if forcing throws exception, file resource is closed in both cases.
+     *
+     * @param channel file channel to force
+     * @param resource file resource to close after forcing
+     * @param directory parent directory of the file to sync, may be {@code null}
+     * @param transfer upload transfer to complete
+     */
+    public void commit(FileChannel channel, Closeable resource, File directory, DataTransfer transfer) {
+        if(null == channel) throw new IllegalArgumentException("Provided channel is null");
+        if(null == resource) throw new IllegalArgumentException("Provided resource is null");
+        if(null == transfer) throw new IllegalArgumentException("Provided transfer is null");
+        lock.lock();
+        try {
+            if(closed) throw new IllegalStateException("Group committer is closed");
+            if(batch.isEmpty()) batchStarted = System.nanoTime();
+            batch.add(new Commit(channel, resource, directory, transfer));
+            added.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Commits pending files and stops committer thread
+     *
+     * @throws InterruptedException if interrupted waiting for committer thread
+     */
+    public void close() throws InterruptedException {
+        lock.lock();
+        try {
+            closed = true;
+            added.signal();
+        } finally {
+            lock.unlock();
+        }
+        thread.join();
+    }
+
+    /**
+     * @return number of files forced to disk
+     */
+    public long getCommittedFiles() {
+        return committedFiles.get();
+    }
+
+    /**
+     * @return number of committed batches
+     */
+    public long getCommittedBatches() {
+        return committedBatches.get();
+    }
+
+    /**
+     * @return number of directory syncs, each distinct directory is synced once per batch
+     */
+    public long getSyncedDirectories() {
+        return syncedDirectories.get();
+    }
+
+    /**
+     * Committer thread loop, must not be called directly
+     */
+    @Override
+    public void run() {
+        try {
+            List<Commit> commits;
+            while(null != (commits = awaitBatch())) {
+                for(Commit co : commits) co.force();
+                syncDirectories(commits);
+                committedBatches.incrementAndGet();
+                committedFiles.addAndGet(commits.size());
+                for(Commit co : commits) {
+                    try {
+                        co.complete();
+                    } catch (Exception e) {
+                        logger.warn("Exception thrown on completing committed upload", e);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Group committer thread interrupted, pending uploads will not be completed");
+        }
+    }
+
+    // each distinct directory is synced once, its error fails all the batch files in it
+    private void syncDirectories(List<Commit> commits) {
+        Map<File, IOException> synced = new HashMap<File, IOException>();
+        for(Commit co : commits) {
+            if(null == co.directory || null != co.error) continue;
+            if(!synced.containsKey(co.directory)) {
+                IOException error = null;
+                try {
+                    SpoolingReceiver.syncDirectory(co.directory);
+                } catch (IOException e) {
+                    error = e;
+                }
+                synced.put(co.directory, error);
+                syncedDirectories.incrementAndGet();
+            }
+            co.error = synced.get(co.directory);
+        }
+    }
+
+    private List<Commit> awaitBatch() throws InterruptedException {
+        lock.lock();
+        try {
+            while(batch.isEmpty()) {
+                if(closed) return null;
+                added.await();
+            }
+            // waits for more files only while batch is not full
+            long left = maxDelayNanos - (System.nanoTime() - batchStarted);
+            while(batch.size() < maxBatch && left > 0 && !closed) {
+                left = added.awaitNanos(left);
+            }
+            if(batch.size() <= maxBatch) {
+                List<Commit> res = batch;
+                batch = new ArrayList<Commit>();
+                return res;
+            }
+            // files over the limit start next batch
+            List<Commit> head = batch.subList(0, maxBatch);
+            List<Commit> res = new ArrayList<Commit>(head);
+            head.clear();
+            batchStarted = System.nanoTime();
+            return res;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Commit {
+        private final FileChannel channel;
+        private final Closeable resource;
+        private final File directory;
+        private final DataTransfer transfer;
+        private IOException error;
+
+        private Commit(FileChannel channel, Closeable resource, File directory, DataTransfer transfer) {
+            this.channel = channel;
+            this.resource = resource;
+            this.directory = directory;
+            this.transfer = transfer;
+        }
+
+        private void force() {
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        private void complete() {
+            try {
+                resource.close();
+            } catch (IOException e) {
+                if(null == error) error = e;
+            }
+            if(null == error) transfer.complete();
+            else transfer.fail(error);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.alexkasko.netty.ftp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Optional interface for {@link DataReceiver} and {@link DataChunkReceiver} implementations, that accept
+ * small files as single buffer, enabled with {@link FtpServerHandler#setSmallFileBuffers(SmallFileBuffers)}.
+ * Uploads larger than {@link SmallFileBuffers} threshold, resumed uploads and uploads that did not fit
+ * into memory budget are passed to the main receiver methods as usual.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public interface InMemoryReceiver {
+
+    /**
+     * Receives whole uploaded file, is called from the receiver executor for {@link DataReceiver}
+     * implementations, and from the thread delivering data chunks for {@link DataChunkReceiver} ones.
+     * Buffer is reused after this call returns, so its contents must be copied if needed later.
+     *
+     * @param directory current directory set by client
+     * @param name name of uploaded file
+     * @param data file contents, readable from position to limit
+     * @throws IOException on receiving error, client gets error reply
+     */
+    void receive(String directory, String name, ByteBuffer data) throws IOException;
+}
@@ -0,0 +1,58 @@
+package com.alexkasko.netty.ftp;
+
+/**
+ * Limits applied to {@code MODE Z} (deflate) uploads. Upload is aborted as soon as inflated size exceeds
+ * compressed size multiplied by max ratio, memory used by each session is bounded by the input and output
+ * buffers sizes plus constant inflater state. Instance is immutable and may be shared between handlers.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public final class InflateLimits {
+    private final int maxRatio;
+    private final int bufferSize;
+
+    /**
+     * Constructor, uses {@code 1024} max ratio and {@code 64KB} buffers
+     */
+    public InflateLimits() {
+        this(1 << 10, 1 << 16);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxRatio max allowed ratio of inflated size to compressed size
+     * @param bufferSize size of input and output buffers in bytes, also a max size of inflated data chunk
+     */
+    public InflateLimits(int maxRatio, int bufferSize) {
+        if(maxRatio <= 0) throw new IllegalArgumentException(
+                "Provided maxRatio: [" + maxRatio + "] must be positive");
+        if(bufferSize <= 0) throw new IllegalArgumentException(
+                "Provided bufferSize: [" + bufferSize + "] must be positive");
+        this.maxRatio = maxRatio;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @return max allowed ratio of inflated size to compressed size
+     */
+    public int getMaxRatio() {
+        return maxRatio;
+    }
+
+    /**
+     * @return size of input and output buffers in bytes
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "InflateLimits{maxRatio=" + maxRatio + ", bufferSize=" + bufferSize + '}';
+    }
+}
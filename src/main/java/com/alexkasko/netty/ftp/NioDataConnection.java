@@ -0,0 +1,316 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.alexkasko.netty.ftp.FtpServerHandler.send;
+import static org.jboss.netty.buffer.ChannelBuffers.wrappedBuffer;
+import static org.jboss.netty.channel.Channels.pipeline;
+
+/**
+ * Single non-blocking FTP data connection opened by PORT or PASV command.
+ * Serves as a handler for the data channel, all the transfer replies are sent
+ * from data channel callbacks, control channel threads are never blocked.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+class NioDataConnection extends SimpleChannelUpstreamHandler implements ChannelPipelineFactory {
+    private static final Logger logger = LoggerFactory.getLogger(NioDataConnection.class);
+    private static final byte[] CRLF = new byte[]{13, 10};
+
+    private final ChannelHandlerContext ctx;
+    private final SessionTimeouts timeouts;
+    private final FtpMetrics metrics;
+    // guarded by this
+    private Channel serverChannel;
+    private Runnable pendingAccept;
+    private Channel dataChannel;
+    private List<ChannelBuffer> early = new ArrayList<ChannelBuffer>();
+    private String command;
+    private DataChunkReceiver receiver;
+    private String directory;
+    private String args;
+    private long allocatedSize;
+    private long offset;
+    private SessionInflater inflater;
+    private AdmissionController.Permit permit;
+    private BandwidthLimiter limiter;
+    private String user;
+    private NioDataTransfer upload;
+    private boolean begun = false;
+    private boolean closed = false;
+    private boolean reaped = false;
+
+    /**
+     * Constructor
+     *
+     * @param ctx control channel context
+     * @param timeouts session timeouts, may be {@code null}
+     * @param metrics metrics registry, may be {@code null}
+     */
+    NioDataConnection(ChannelHandlerContext ctx, SessionTimeouts timeouts, FtpMetrics metrics) {
+        this.ctx = ctx;
+        this.timeouts = timeouts;
+        this.metrics = metrics;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChannelPipeline getPipeline() {
+        return pipeline(this);
+    }
+
+    /**
+     * Sets passive server channel, that will be closed after first accepted connection
+     *
+     * @param channel bound server channel
+     */
+    void setServerChannel(Channel channel) {
+        boolean close;
+        synchronized (this) {
+            serverChannel = channel;
+            close = closed || null != dataChannel;
+        }
+        if(close) channel.close();
+    }
+
+    /**
+     * Sets registration on shared {@link PassiveListener}, that will be cancelled on close
+     *
+     * @param cancel registration cancel action
+     */
+    void setPendingAccept(Runnable cancel) {
+        boolean run;
+        synchronized (this) {
+            pendingAccept = cancel;
+            run = closed;
+        }
+        if(run) cancel.run();
+    }
+
+    /**
+     * Starts upload through this connection, transfer begins as soon as data channel is connected
+     *
+     * @param receiver chunk receiver
+     * @param directory current directory
+     * @param name uploaded file name
+     * @param allocatedSize file size announced by client, {@code -1} if not announced
+     * @param offset byte offset the upload continues from
+     * @param inflater session inflater for {@code MODE Z} uploads, {@code null} for stream mode
+     * @param permit admission permit released on final reply, may be {@code null}
+     * @param limiter bandwidth limiter, may be {@code null}
+     * @param user user name provided with {@code USER} command, may be {@code null}
+     */
+    void startUpload(DataChunkReceiver receiver, String directory, String name, long allocatedSize, long offset,
+                     SessionInflater inflater, AdmissionController.Permit permit, BandwidthLimiter limiter,
+                     String user) {
+        synchronized (this) {
+            this.limiter = limiter;
+            this.user = user;
+        }
+        start("STOR", receiver, directory, name, allocatedSize, offset, inflater, permit);
+    }
+
+    /**
+     * Starts listing through this connection, transfer begins as soon as data channel is connected
+     *
+     * @param args command arguments
+     */
+    void startListing(String args) {
+        start("LIST", null, null, args, -1, 0, null, null);
+    }
+
+    /**
+     * Closes this connection releasing all the channels
+     */
+    void close() {
+        Channel sc;
+        Channel dc;
+        Runnable pa;
+        AdmissionController.Permit pe;
+        synchronized (this) {
+            closed = true;
+            sc = serverChannel;
+            pa = pendingAccept;
+            dc = dataChannel;
+            // permit of started upload is released by transfer
+            pe = null == upload ? permit : null;
+        }
+        if(null != pe) pe.release();
+        if(null != pa) pa.run();
+        if(null != sc) sc.close();
+        if(null != dc) dc.close();
+    }
+
+    /**
+     * Closes this connection on data connect timeout unless transfer was already started through it,
+     * sends {@code 425} reply if transfer was already requested
+     */
+    void reap() {
+        String cmd;
+        String cmdArgs;
+        synchronized (this) {
+            if(begun || closed) return;
+            reaped = true;
+            cmd = command;
+            cmdArgs = args;
+        }
+        close();
+        if(null != cmd) send(FtpReply.CANT_OPEN_DATA_CONNECTION, ctx, cmd, cmdArgs);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void channelConnected(ChannelHandlerContext dctx, ChannelStateEvent e) {
+        Channel ch = e.getChannel();
+        Channel sc;
+        boolean begin;
+        synchronized (this) {
+            if(closed || null != dataChannel) {
+                ch.close();
+                return;
+            }
+            dataChannel = ch;
+            sc = serverChannel;
+            begin = null != command;
+            begun = begin;
+            // readability is switched under lock to not race with transfer start
+            if(!begin) ch.setReadable(false);
+        }
+        // only one data connection is accepted per PASV
+        if(null != sc) sc.close();
+        if(begin) begin();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void messageReceived(ChannelHandlerContext dctx, MessageEvent e) {
+        ChannelBuffer chunk = (ChannelBuffer) e.getMessage();
+        NioDataTransfer up;
+        synchronized (this) {
+            if(null == upload) {
+                early.add(chunk);
+                return;
+            }
+            up = upload;
+        }
+        up.chunk(chunk);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void channelClosed(ChannelHandlerContext dctx, ChannelStateEvent e) {
+        NioDataTransfer up;
+        AdmissionController.Permit pe;
+        synchronized (this) {
+            if(e.getChannel() != dataChannel) return;
+            closed = true;
+            up = upload;
+            pe = null == up ? permit : null;
+        }
+        if(null != up) up.end();
+        else if(null != pe) pe.release();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void exceptionCaught(ChannelHandlerContext dctx, ExceptionEvent e) {
+        logger.warn("Exception caught on data channel: [" + e.getChannel() + "]", e.getCause());
+        NioDataTransfer up;
+        synchronized (this) {
+            up = e.getChannel() == dataChannel ? upload : null;
+        }
+        if(null != up) up.abort(e.getCause());
+        e.getChannel().close();
+    }
+
+    private void start(String command, DataChunkReceiver receiver, String directory, String args,
+                       long allocatedSize, long offset, SessionInflater inflater, AdmissionController.Permit permit) {
+        boolean begin;
+        synchronized (this) {
+            if(reaped) {
+                begin = false;
+            } else {
+                this.command = command;
+                this.receiver = receiver;
+                this.directory = directory;
+                this.args = args;
+                this.allocatedSize = allocatedSize;
+                this.offset = offset;
+                this.inflater = inflater;
+                this.permit = permit;
+                begin = null != dataChannel;
+                begun = begin;
+                // data connection is still expected
+                if(!begin) return;
+            }
+        }
+        if(begin) begin();
+        else {
+            // reaped on data connect timeout before transfer was requested
+            if(null != permit) permit.release();
+            send(FtpReply.CANT_OPEN_DATA_CONNECTION, ctx, command, args);
+        }
+    }
+
+    private void begin() {
+        if("LIST".equals(command)) beginListing();
+        else beginUpload();
+    }
+
+    private void beginListing() {
+        send(FtpReply.encode("150 Opening binary mode data connection for LIST ", args), ctx, "LIST", args);
+        final Channel ch = dataChannel;
+        ch.write(wrappedBuffer(CRLF)).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                if(future.isSuccess()) {
+                    ch.close().addListener(new ChannelFutureListener() {
+                        @Override
+                        public void operationComplete(ChannelFuture future) {
+                            send(FtpReply.LIST_COMPLETE, ctx, "", args);
+                        }
+                    });
+                } else {
+                    logger.warn("Exception thrown on writing through data channel: [" + ch + "]", future.getCause());
+                    ch.close();
+                    send(FtpReply.FILE_ACTION_ABORTED, ctx, "LIST", args);
+                }
+            }
+        });
+    }
+
+    private void beginUpload() {
+        // shaper is opened only for started uploads, so it is always closed on final reply
+        BandwidthLimiter.Shaper shaper = null != limiter ? limiter.open(user) : null;
+        NioDataTransfer up = new NioDataTransfer(ctx, receiver, directory, args, allocatedSize, offset, inflater,
+                permit, timeouts, metrics, dataChannel, shaper);
+        up.start();
+        boolean finished;
+        synchronized (this) {
+            // chunks received before STOR must go first
+            for(ChannelBuffer cb : early) up.chunk(cb);
+            early = null;
+            upload = up;
+            finished = closed;
+        }
+        if(finished) up.end();
+        else up.activate();
+    }
+}
@@ -0,0 +1,127 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DataTransfer} over non-blocking data channel, pausing and bandwidth shaping are implemented
+ * with channel readability switching
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+class NioDataTransfer extends AbstractDataTransfer {
+    private final Channel channel;
+    private final BandwidthLimiter.Shaper shaper;
+    // guarded by lock
+    private boolean throttled = false;
+
+    /**
+     * Constructor
+     *
+     * @param ctx control channel context
+     * @param receiver chunk receiver
+     * @param directory current directory
+     * @param name uploaded file name
+     * @param allocatedSize file size announced by client, {@code -1} if not announced
+     * @param offset byte offset the upload continues from
+     * @param inflater session inflater for {@code MODE Z} uploads, {@code null} for stream mode
+     * @param permit admission permit released on final reply, may be {@code null}
+     * @param timeouts session timeouts notified about transfer start and finish, may be {@code null}
+     * @param metrics metrics registry, may be {@code null}
+     * @param channel data channel
+     * @param shaper bandwidth shaper closed on final reply, may be {@code null}
+     */
+    NioDataTransfer(ChannelHandlerContext ctx, DataChunkReceiver receiver, String directory, String name,
+                    long allocatedSize, long offset, SessionInflater inflater,
+                    AdmissionController.Permit permit, SessionTimeouts timeouts, FtpMetrics metrics,
+                    Channel channel, BandwidthLimiter.Shaper shaper) {
+        super(ctx, receiver, directory, name, allocatedSize, offset, inflater, permit, timeouts, metrics);
+        this.channel = channel;
+        this.shaper = shaper;
+    }
+
+    /**
+     * Enables data channel reading unless transfer was paused by receiver or by shaper
+     */
+    void activate() {
+        lock.lock();
+        try {
+            if(!isPaused() && !throttled) channel.setReadable(true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Passes data chunk to receiver and suspends reading if bandwidth limit is exceeded
+     *
+     * @param chunk data chunk
+     */
+    @Override
+    void chunk(ChannelBuffer chunk) {
+        int len = chunk.readableBytes();
+        super.chunk(chunk);
+        if(null == shaper) return;
+        long delay = shaper.acquire(len);
+        if(delay > 0) throttle(delay);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onPause() {
+        channel.setReadable(false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onResume() {
+        if(!throttled) channel.setReadable(true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void release() {
+        channel.close();
+        if(null != shaper) shaper.close();
+    }
+
+    private void throttle(long delayNanos) {
+        lock.lock();
+        try {
+            // chunks already read while paused only add to shaper debt
+            if(throttled || isFinished()) return;
+            throttled = true;
+            channel.setReadable(false);
+        } finally {
+            lock.unlock();
+        }
+        shaper.getTimer().newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) {
+                unthrottle();
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void unthrottle() {
+        lock.lock();
+        try {
+            throttled = false;
+            if(!isPaused() && !isFinished()) channel.setReadable(true);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.socket.ClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.ServerSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+
+/**
+ * Non-blocking transport for FTP data connections, should be shared between all
+ * {@link FtpServerHandler} instances. Active connections are opened through {@link ClientBootstrap},
+ * passive ones are accepted through {@link ServerBootstrap}. Passive data channels may be accepted through
+ * the control channel factory itself, so they are served by the same boss and worker selectors as control
+ * channels. Netty 3.2 client and server factories cannot share worker selectors, so active data channels
+ * always use own client factory, which should be created over the same executors as the control channel
+ * factory to keep thread counts bounded. Data channels use direct buffers, so received chunks may be written
+ * to files without copying.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class NioDataTransport {
+    private final ClientSocketChannelFactory clientFactory;
+    private final ServerSocketChannelFactory serverFactory;
+    private final Executor receiverExecutor;
+    private final boolean sharedServerFactory;
+
+    /**
+     * Constructor, passive data channels share boss and worker selectors with control channels
+     *
+     * @param controlFactory channel factory of the control server, is not released by this transport
+     * @param bossExecutor executor for NIO boss thread of active mode client factory
+     * @param workerExecutor executor for NIO worker threads of active mode client factory,
+     *                       should be the same one used for control channels
+     * @param receiverExecutor executor to run blocking {@link DataReceiver} calls on
+     */
+    public NioDataTransport(NioServerSocketChannelFactory controlFactory, Executor bossExecutor,
+                            Executor workerExecutor, Executor receiverExecutor) {
+        this(new NioClientSocketChannelFactory(bossExecutor, workerExecutor), controlFactory, receiverExecutor, true);
+    }
+
+    /**
+     * Constructor, data channels get own boss and worker selectors created over provided executors,
+     * so data connections do not share selector threads with control channels
+     *
+     * @param bossExecutor executor for NIO boss threads
+     * @param workerExecutor executor for NIO worker threads, should be the same one used for control channels
+     * @param receiverExecutor executor to run blocking {@link DataReceiver} calls on
+     */
+    public NioDataTransport(Executor bossExecutor, Executor workerExecutor, Executor receiverExecutor) {
+        this(new NioClientSocketChannelFactory(bossExecutor, workerExecutor),
+                new NioServerSocketChannelFactory(bossExecutor, workerExecutor), receiverExecutor);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param clientFactory factory for active mode data channels
+     * @param serverFactory factory for passive mode server channels
+     * @param receiverExecutor executor to run blocking {@link DataReceiver} calls on
+     */
+    public NioDataTransport(ClientSocketChannelFactory clientFactory, ServerSocketChannelFactory serverFactory,
+                            Executor receiverExecutor) {
+        this(clientFactory, serverFactory, receiverExecutor, false);
+    }
+
+    private NioDataTransport(ClientSocketChannelFactory clientFactory, ServerSocketChannelFactory serverFactory,
+                             Executor receiverExecutor, boolean sharedServerFactory) {
+        if(null == clientFactory) throw new IllegalArgumentException("Provided clientFactory is null");
+        if(null == serverFactory) throw new IllegalArgumentException("Provided serverFactory is null");
+        if(null == receiverExecutor) throw new IllegalArgumentException("Provided receiverExecutor is null");
+        this.clientFactory = clientFactory;
+        this.serverFactory = serverFactory;
+        this.receiverExecutor = receiverExecutor;
+        this.sharedServerFactory = sharedServerFactory;
+    }
+
+    /**
+     * Opens active mode data connection
+     *
+     * @param address client data address
+     * @param pipelineFactory data channel pipeline factory
+     * @return connect future
+     */
+    ChannelFuture connect(InetSocketAddress address, ChannelPipelineFactory pipelineFactory) {
+        ClientBootstrap bootstrap = new ClientBootstrap(clientFactory);
+        bootstrap.setPipelineFactory(pipelineFactory);
+        bootstrap.setOption("tcpNoDelay", true);
+        bootstrap.setOption("bufferFactory", DirectChannelBufferFactory.getInstance());
+        return bootstrap.connect(address);
+    }
+
+    /**
+     * Binds passive mode server channel
+     *
+     * @param address local address to bind to
+     * @param pipelineFactory accepted data channels pipeline factory
+     * @return bound server channel
+     * @throws org.jboss.netty.channel.ChannelException on bind error
+     */
+    Channel bind(InetSocketAddress address, ChannelPipelineFactory pipelineFactory) {
+        ServerBootstrap bootstrap = new ServerBootstrap(serverFactory);
+        bootstrap.setPipelineFactory(pipelineFactory);
+        bootstrap.setOption("child.tcpNoDelay", true);
+        bootstrap.setOption("child.bufferFactory", DirectChannelBufferFactory.getInstance());
+        return bootstrap.bind(address);
+    }
+
+    /**
+     * @return executor to run blocking {@link DataReceiver} calls on
+     */
+    Executor getReceiverExecutor() {
+        return receiverExecutor;
+    }
+
+    /**
+     * Releases resources of channel factories, shared control channel factory is left to its owner
+     */
+    public void releaseExternalResources() {
+        clientFactory.releaseExternalResources();
+        if(!sharedServerFactory) serverFactory.releaseExternalResources();
+    }
+}
@@ -0,0 +1,185 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelState;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.channel.Channels;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed set of long-lived passive mode server channels shared between all the sessions of
+ * {@link FtpServerHandler} with {@link NioDataTransport}. {@code PASV} registers the session on one of the ports,
+ * accepted data connection is passed to the session waiting on that port for the same client address.
+ * Each port may have single waiting session per client address, so the number of concurrent passive transfers
+ * is not limited by the number of ports, and no ports are bound or closed per transfer.
+ * If all the ports already have waiting sessions for the same client address, handler falls back
+ * to binding new server channel. Data connections from addresses without waiting session are closed.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class PassiveListener {
+    private static final Logger logger = LoggerFactory.getLogger(PassiveListener.class);
+
+    private final int[] ports;
+    private final List<Channel> channels = new ArrayList<Channel>();
+    private final List<ConcurrentMap<InetAddress, NioDataConnection>> pending =
+            new ArrayList<ConcurrentMap<InetAddress, NioDataConnection>>();
+    private final AtomicInteger next = new AtomicInteger(0);
+    private final AtomicLong accepted = new AtomicLong(0);
+    private final AtomicLong unmatched = new AtomicLong(0);
+    private final AtomicLong exhausted = new AtomicLong(0);
+
+    /**
+     * Constructor, binds server channels to all provided ports
+     *
+     * @param transport data transport
+     * @param address local address to bind to
+     * @param ports ports to bind to
+     * @throws org.jboss.netty.channel.ChannelException on bind error, already bound channels are closed
+     */
+    public PassiveListener(NioDataTransport transport, InetAddress address, int... ports) {
+        if(null == transport) throw new IllegalArgumentException("Provided transport is null");
+        if(null == address) throw new IllegalArgumentException("Provided address is null");
+        if(null == ports || 0 == ports.length) throw new IllegalArgumentException("Provided ports are empty");
+        for(int port : ports) {
+            if(port <= 0 || port >= 1 << 16) throw new IllegalArgumentException(
+                    "Provided port: [" + port + "] is out of valid range");
+        }
+        this.ports = ports.clone();
+        try {
+            for(int i = 0; i < ports.length; i++) {
+                pending.add(new ConcurrentHashMap<InetAddress, NioDataConnection>());
+                channels.add(transport.bind(new InetSocketAddress(address, ports[i]), new Demux(i)));
+            }
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes all the server channels, waiting sessions are not affected
+     */
+    public void close() {
+        for(Channel ch : channels) ch.close().awaitUninterruptibly();
+    }
+
+    /**
+     * @return number of data connections passed to waiting sessions
+     */
+    public long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    /**
+     * @return number of data connections closed because no session was waiting for them
+     */
+    public long getUnmatchedCount() {
+        return unmatched.get();
+    }
+
+    /**
+     * @return number of {@code PASV} commands that found no free port for client address
+     */
+    public long getExhaustedCount() {
+        return exhausted.get();
+    }
+
+    /**
+     * @return number of sessions waiting for data connection
+     */
+    public int getPendingCount() {
+        int res = 0;
+        for(ConcurrentMap<InetAddress, NioDataConnection> map : pending) res += map.size();
+        return res;
+    }
+
+    /**
+     * Registers session waiting for data connection, registration is cancelled when connection is closed
+     *
+     * @param client client control channel address
+     * @param conn data connection
+     * @return port to advertise to client, {@code -1} if all the ports have waiting sessions for this client
+     */
+    int register(SocketAddress client, final NioDataConnection conn) {
+        if(!(client instanceof InetSocketAddress)) return -1;
+        final InetAddress addr = ((InetSocketAddress) client).getAddress();
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        for(int i = 0; i < ports.length; i++) {
+            final int idx = (start + i) % ports.length;
+            final ConcurrentMap<InetAddress, NioDataConnection> map = pending.get(idx);
+            if(null != map.putIfAbsent(addr, conn)) continue;
+            conn.setPendingAccept(new Runnable() {
+                @Override
+                public void run() {
+                    map.remove(addr, conn);
+                }
+            });
+            return ports[idx];
+        }
+        exhausted.incrementAndGet();
+        return -1;
+    }
+
+    private class Demux implements ChannelPipelineFactory {
+        private final int idx;
+
+        private Demux(int idx) {
+            this.idx = idx;
+        }
+
+        @Override
+        public ChannelPipeline getPipeline() {
+            return Channels.pipeline(new Matcher(idx));
+        }
+    }
+
+    // created for each accepted channel
+    private class Matcher implements ChannelUpstreamHandler {
+        private final int idx;
+        private NioDataConnection conn;
+
+        private Matcher(int idx) {
+            this.idx = idx;
+        }
+
+        @Override
+        public void handleUpstream(ChannelHandlerContext ctx, ChannelEvent e) throws Exception {
+            if(null == conn) {
+                // open and bound events precede connected one, events of unmatched channel are dropped
+                if(!(e instanceof ChannelStateEvent)) return;
+                ChannelStateEvent se = (ChannelStateEvent) e;
+                if(ChannelState.CONNECTED != se.getState() || null == se.getValue()) return;
+                Channel ch = e.getChannel();
+                InetAddress remote = ((InetSocketAddress) ch.getRemoteAddress()).getAddress();
+                conn = pending.get(idx).remove(remote);
+                if(null == conn) {
+                    unmatched.incrementAndGet();
+                    logger.warn("Closing passive data connection from: [" + ch.getRemoteAddress() + "] " +
+                            "on port: [" + ports[idx] + "], no session is waiting for it");
+                    ch.close();
+                    return;
+                }
+                accepted.incrementAndGet();
+            }
+            conn.handleUpstream(ctx, e);
+        }
+    }
+}
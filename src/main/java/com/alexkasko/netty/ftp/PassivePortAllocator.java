@@ -0,0 +1,178 @@
+package com.alexkasko.netty.ftp;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free pool of passive ports. Free ports are kept in FIFO queue, so allocation takes constant time
+ * regardless of range size and utilization, and released ports are reused only after all the other free
+ * ones. Port usage is also tracked in atomic bitset, so each port is released only once and concurrent
+ * sessions never get the same port. Port released concurrently with allocation may be not visible to it yet,
+ * so allocation may fail while the last port is being released. Instances for the same ports range
+ * are shared process-wide, see {@link #shared(int, int)}.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class PassivePortAllocator {
+    private static final ConcurrentMap<String, PassivePortAllocator> SHARED =
+            new ConcurrentHashMap<String, PassivePortAllocator>();
+
+    private final int lowestPort;
+    private final int highestPort;
+    private final int capacity;
+    private final AtomicLongArray words;
+    private final Queue<Integer> free = new ConcurrentLinkedQueue<Integer>();
+    private final AtomicInteger used = new AtomicInteger(0);
+    private final AtomicLong allocations = new AtomicLong(0);
+    private final AtomicLong exhaustions = new AtomicLong(0);
+
+    /**
+     * Constructor
+     *
+     * @param lowestPort lowest bound of passive ports range, inclusive
+     * @param highestPort highest bound of passive ports range, inclusive
+     */
+    public PassivePortAllocator(int lowestPort, int highestPort) {
+        if (lowestPort <= 0 || lowestPort >= 1 << 16) throw new IllegalArgumentException(
+                "Provided lowestPort: [" + lowestPort + "] is out of valid range");
+        if (highestPort <= 0 || highestPort >= 1 << 16) throw new IllegalArgumentException(
+                "Provided highestPort: [" + highestPort + "] is out of valid range");
+        if (lowestPort > highestPort) throw new IllegalArgumentException(
+                "Provided lowestPort: [" + lowestPort + "] must be not greater than " +
+                        "highestPort: [" + highestPort + "]");
+        this.lowestPort = lowestPort;
+        this.highestPort = highestPort;
+        this.capacity = highestPort - lowestPort + 1;
+        int count = (capacity + 63) >>> 6;
+        this.words = new AtomicLongArray(count);
+        // bits past the range end are permanently marked as used
+        int tail = capacity & 63;
+        if (0 != tail) words.set(count - 1, -1L << tail);
+        for (int port = lowestPort; port <= highestPort; port++) free.add(port);
+    }
+
+    /**
+     * Returns allocator shared by all handlers using the same ports range
+     *
+     * @param lowestPort lowest bound of passive ports range, inclusive
+     * @param highestPort highest bound of passive ports range, inclusive
+     * @return process-wide allocator for specified range
+     */
+    public static PassivePortAllocator shared(int lowestPort, int highestPort) {
+        String key = lowestPort + "-" + highestPort;
+        PassivePortAllocator existing = SHARED.get(key);
+        if (null != existing) return existing;
+        PassivePortAllocator created = new PassivePortAllocator(lowestPort, highestPort);
+        existing = SHARED.putIfAbsent(key, created);
+        return null != existing ? existing : created;
+    }
+
+    /**
+     * Allocates free port
+     *
+     * @return allocated port or {@code -1} if all ports are in use
+     */
+    public int allocate() {
+        Integer port = free.poll();
+        if (null == port) {
+            exhaustions.incrementAndGet();
+            return -1;
+        }
+        // queued port is free, only this thread may take it
+        int idx = port - lowestPort;
+        int wordIdx = idx >>> 6;
+        long bit = 1L << (idx & 63);
+        for (;;) {
+            long word = words.get(wordIdx);
+            if (words.compareAndSet(wordIdx, word, word | bit)) break;
+        }
+        used.incrementAndGet();
+        allocations.incrementAndGet();
+        return port;
+    }
+
+    /**
+     * Returns port to the pool
+     *
+     * @param port port previously returned by {@link #allocate()}
+     * @return {@code false} if port was not allocated
+     */
+    public boolean release(int port) {
+        if (port < lowestPort || port > highestPort) throw new IllegalArgumentException(
+                "Provided port: [" + port + "] is out of range: [" + lowestPort + ", " + highestPort + "]");
+        int idx = port - lowestPort;
+        int wordIdx = idx >>> 6;
+        long bit = 1L << (idx & 63);
+        for (;;) {
+            long word = words.get(wordIdx);
+            if (0 == (word & bit)) return false;
+            if (words.compareAndSet(wordIdx, word, word & ~bit)) {
+                used.decrementAndGet();
+                free.add(port);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return lowest bound of passive ports range, inclusive
+     */
+    public int getLowestPort() {
+        return lowestPort;
+    }
+
+    /**
+     * @return highest bound of passive ports range, inclusive
+     */
+    public int getHighestPort() {
+        return highestPort;
+    }
+
+    /**
+     * @return number of ports in range
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of currently allocated ports
+     */
+    public int getUsedCount() {
+        return used.get();
+    }
+
+    /**
+     * @return number of currently free ports
+     */
+    public int getFreeCount() {
+        return capacity - used.get();
+    }
+
+    /**
+     * @return share of currently allocated ports, from {@code 0} to {@code 1}
+     */
+    public double getUtilization() {
+        return ((double) used.get()) / capacity;
+    }
+
+    /**
+     * @return total number of successful allocations
+     */
+    public long getAllocationsCount() {
+        return allocations.get();
+    }
+
+    /**
+     * @return total number of allocations failed because all ports were in use
+     */
+    public long getExhaustionsCount() {
+        return exhaustions.get();
+    }
+}
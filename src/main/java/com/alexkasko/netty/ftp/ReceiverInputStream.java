@@ -0,0 +1,178 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded pipe between {@link DataTransfer} and blocking {@link DataReceiver}.
+ * Transfer is paused when queued data exceeds high water mark
+ * and resumed when receiver drains it below low water mark.
+ * Explicit lock is used instead of monitor, so waiting reader does not pin the carrier of a virtual thread.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+class ReceiverInputStream extends InputStream {
+    private final DataTransfer transfer;
+    // queued bytes are accounted by admission control of server transfers
+    private final AbstractDataTransfer server;
+    private final int highWaterMark;
+    private final int lowWaterMark;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    // guarded by lock
+    private final LinkedList<ChannelBuffer> chunks = new LinkedList<ChannelBuffer>();
+    private int queuedBytes = 0;
+    private boolean paused = false;
+    private boolean finished = false;
+    private boolean closed = false;
+    private Throwable error;
+
+    /**
+     * Constructor
+     *
+     * @param transfer upload transfer
+     * @param highWaterMark queued bytes count to pause transfer at
+     * @param lowWaterMark queued bytes count to resume transfer at
+     */
+    ReceiverInputStream(DataTransfer transfer, int highWaterMark, int lowWaterMark) {
+        this.transfer = transfer;
+        this.server = transfer instanceof AbstractDataTransfer ? (AbstractDataTransfer) transfer : null;
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = lowWaterMark;
+    }
+
+    /**
+     * Enqueues data chunk
+     *
+     * @param chunk data chunk
+     */
+    void offer(ChannelBuffer chunk) {
+        lock.lock();
+        try {
+            if(closed || !chunk.readable()) return;
+            chunks.add(chunk);
+            queuedBytes += chunk.readableBytes();
+            if(null != server) server.buffered(chunk.readableBytes());
+            if(!paused && queuedBytes >= highWaterMark) {
+                paused = true;
+                transfer.pause();
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks end of data
+     */
+    void finish() {
+        lock.lock();
+        try {
+            finished = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks transfer failure
+     *
+     * @param cause failure cause
+     */
+    void fail(Throwable cause) {
+        lock.lock();
+        try {
+            error = cause;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int res = read(single, 0, 1);
+        return -1 == res ? -1 : single[0] & 0xff;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] buf, int off, int len) throws IOException {
+        if(0 == len) return 0;
+        lock.lock();
+        try {
+            while(chunks.isEmpty() && !finished && null == error && !closed) {
+                try {
+                    changed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Data receiving interrupted");
+                }
+            }
+            if(null != error) throw new IOException("Data connection failed", error);
+            if(chunks.isEmpty()) return -1;
+            ChannelBuffer first = chunks.getFirst();
+            int count = Math.min(len, first.readableBytes());
+            first.readBytes(buf, off, count);
+            if(!first.readable()) chunks.removeFirst();
+            queuedBytes -= count;
+            if(null != server) server.drained(count);
+            if(paused && queuedBytes <= lowWaterMark) {
+                paused = false;
+                transfer.resume();
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int available() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            chunks.clear();
+            if(null != server) server.drained(queuedBytes);
+            queuedBytes = 0;
+            if(paused) {
+                paused = false;
+                transfer.resume();
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.jboss.netty.buffer.ChannelBuffers.wrappedBuffer;
+
+/**
+ * Writes replies to control channel of single session. Replies written while batch is open
+ * (from any thread) are coalesced and written to channel with single write when batch is closed.
+ * Batch owner thread must {@link #flush()} pending replies before any blocking operation.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+class ReplyWriter {
+    private static final Logger logger = LoggerFactory.getLogger(FtpServerHandler.class);
+    private static final Charset ASCII = Charset.forName("ASCII");
+
+    private final Channel channel;
+    private final FtpMetrics metrics;
+    // guarded by this
+    private Thread owner;
+    private final List<ChannelBuffer> pending = new ArrayList<ChannelBuffer>(4);
+    private ChannelFuture lastWrite;
+
+    /**
+     * Constructor
+     *
+     * @param channel control channel
+     * @param metrics metrics registry, may be {@code null}
+     */
+    ReplyWriter(Channel channel, FtpMetrics metrics) {
+        this.channel = channel;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Opens batch owned by current thread
+     *
+     * @return {@code false} if batch is already open, {@link #end()} must not be called in this case
+     */
+    synchronized boolean begin() {
+        if (null != owner) return false;
+        owner = Thread.currentThread();
+        return true;
+    }
+
+    /**
+     * Closes batch writing all pending replies
+     */
+    synchronized void end() {
+        owner = null;
+        writePending();
+    }
+
+    /**
+     * Writes pending replies leaving batch open
+     */
+    synchronized void flush() {
+        writePending();
+    }
+
+    /**
+     * Writes pending replies and closes control channel after all the replies are written
+     */
+    synchronized void close() {
+        writePending();
+        if(null != lastWrite) lastWrite.addListener(ChannelFutureListener.CLOSE);
+        else channel.close();
+    }
+
+    /**
+     * Writes reply or adds it to open batch
+     *
+     * @param reply encoded reply
+     * @param command command replied to, used for logging
+     * @param args command arguments, used for logging
+     */
+    void write(ChannelBuffer reply, String command, String args) {
+        if (logger.isDebugEnabled()) {
+            if (command.length() > 0) logger.debug("-> " + command + " " + args);
+            logger.debug("<- " + reply.toString(reply.readerIndex(), reply.readableBytes() - 2, ASCII));
+        }
+        if (null != metrics) metrics.replySent(reply.getByte(reply.readerIndex()));
+        synchronized (this) {
+            if (null != owner) pending.add(reply);
+            else lastWrite = channel.write(reply);
+        }
+    }
+
+    /**
+     * Writes reply or adds it to open batch
+     *
+     * @param reply pre-encoded reply
+     * @param command command replied to, used for logging
+     * @param args command arguments, used for logging
+     */
+    void write(FtpReply reply, String command, String args) {
+        write(reply.encoded(), command, args);
+    }
+
+    /**
+     * @return metrics registry of this session, may be {@code null}
+     */
+    FtpMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return control channel
+     */
+    Channel getChannel() {
+        return channel;
+    }
+
+    private void writePending() {
+        int size = pending.size();
+        if (0 == size) return;
+        if (1 == size) lastWrite = channel.write(pending.get(0));
+        else lastWrite = channel.write(wrappedBuffer(pending.toArray(new ChannelBuffer[size])));
+        pending.clear();
+    }
+}
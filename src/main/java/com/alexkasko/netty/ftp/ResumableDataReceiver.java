@@ -0,0 +1,25 @@
+package com.alexkasko.netty.ftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link DataReceiver} that can continue interrupted uploads, uploads with non-zero offset
+ * are passed to {@link #receive(String, String, long, java.io.InputStream)}
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public interface ResumableDataReceiver extends DataReceiver, ResumableReceiver {
+    /**
+     * Implementation should write provided FTP file-upload data starting from specified offset
+     * keeping the data before it
+     *
+     * @param directory current directory set by client
+     * @param name name of uploaded file
+     * @param offset byte offset to start writing at
+     * @param data uploaded data stream
+     * @throws IOException on IO error
+     */
+    void receive(String directory, String name, long offset, InputStream data) throws IOException;
+}
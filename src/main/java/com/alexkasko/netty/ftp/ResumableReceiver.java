@@ -0,0 +1,25 @@
+package com.alexkasko.netty.ftp;
+
+import java.io.IOException;
+
+/**
+ * Optional interface for receivers that can continue interrupted uploads, {@code REST}, {@code APPE}
+ * and {@code SIZE} commands are enabled only for receivers implementing it. {@link DataChunkReceiver}
+ * implementations should start writing at {@link DataTransfer#getOffset()} keeping the data before it,
+ * blocking receivers should implement {@link ResumableDataReceiver}.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public interface ResumableReceiver {
+    /**
+     * Returns number of bytes already received for the file, used for {@code SIZE}
+     * and as an offset for {@code APPE}
+     *
+     * @param directory current directory set by client
+     * @param name file name
+     * @return received size in bytes, {@code -1} if file does not exist
+     * @throws IOException on IO error
+     */
+    long getReceivedSize(String directory, String name) throws IOException;
+}
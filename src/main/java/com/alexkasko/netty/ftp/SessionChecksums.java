@@ -0,0 +1,315 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Checksums state of single session. Checksum and digest instances are created once per session
+ * and reset before each upload, uploads of the same session never run concurrently.
+ * Checksums of the last uploads are kept for {@code HASH}, {@code XCRC} and {@code XMD5} commands.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+class SessionChecksums {
+    private static final int MAX_RESULTS = 16;
+    private static final int SCRATCH_SIZE = 8192;
+    private static final Constructor<?> JDK_CRC32C = jdkCrc32c();
+
+    private final FtpChecksums config;
+    private final String[] names;
+    private final Checksum[] checksums;
+    private final MessageDigest[] digests;
+    private final byte[] scratch = new byte[SCRATCH_SIZE];
+    private volatile String hashAlgorithm;
+    // guarded by itself
+    private final Map<String, Result> results = new LinkedHashMap<String, Result>(MAX_RESULTS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+            return size() > MAX_RESULTS;
+        }
+    };
+
+    /**
+     * Constructor
+     *
+     * @param config checksums configuration
+     */
+    SessionChecksums(FtpChecksums config) {
+        this.config = config;
+        List<String> algs = config.getAlgorithms();
+        this.names = algs.toArray(new String[algs.size()]);
+        this.checksums = new Checksum[names.length];
+        this.digests = new MessageDigest[names.length];
+        for(int i = 0; i < names.length; i++) {
+            if(FtpChecksums.CRC32.equals(names[i])) checksums[i] = new CRC32();
+            else if(FtpChecksums.CRC32C.equals(names[i])) checksums[i] = newCrc32c();
+            else digests[i] = newDigest(names[i]);
+        }
+        this.hashAlgorithm = names[0];
+    }
+
+    /**
+     * @return checksums configuration
+     */
+    FtpChecksums getConfig() {
+        return config;
+    }
+
+    /**
+     * @return algorithm used by {@code HASH} command
+     */
+    String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    /**
+     * @param algorithm enabled algorithm to use by {@code HASH} command
+     */
+    void setHashAlgorithm(String algorithm) {
+        this.hashAlgorithm = algorithm;
+    }
+
+    /**
+     * Prepares instances for the next upload
+     */
+    void reset() {
+        for(int i = 0; i < names.length; i++) {
+            if(null != checksums[i]) checksums[i].reset();
+            else digests[i].reset();
+        }
+    }
+
+    /**
+     * Updates checksums with chunk data without changing its reader index
+     *
+     * @param chunk data chunk
+     */
+    void update(ChannelBuffer chunk) {
+        for(ByteBuffer bb : chunk.toByteBuffers()) {
+            if(bb.hasArray()) update(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+            else updateDirect(bb);
+        }
+    }
+
+    /**
+     * Updates checksums with array data
+     *
+     * @param buf data array
+     * @param off data offset
+     * @param len data length
+     */
+    void update(byte[] buf, int off, int len) {
+        for(int i = 0; i < names.length; i++) {
+            if(null != checksums[i]) checksums[i].update(buf, off, len);
+            else digests[i].update(buf, off, len);
+        }
+    }
+
+    /**
+     * Finishes checksums of the upload and keeps them for commands
+     *
+     * @param directory current directory
+     * @param name uploaded file name
+     * @param offset byte offset the upload continued from
+     * @param length number of received bytes
+     * @return lower-case hex checksums keyed by algorithm name
+     */
+    Map<String, String> finish(String directory, String name, long offset, long length) {
+        Map<String, String> res = new LinkedHashMap<String, String>();
+        for(int i = 0; i < names.length; i++) {
+            if(null != checksums[i]) res.put(names[i], String.format("%08x", checksums[i].getValue()));
+            else res.put(names[i], hex(digests[i].digest()));
+        }
+        synchronized (results) {
+            results.put(path(directory, name), new Result(offset, length, res));
+        }
+        return res;
+    }
+
+    /**
+     * Finds checksums of the last upload of provided file
+     *
+     * @param directory current directory
+     * @param name file name, absolute or relative to current directory
+     * @return upload checksums, {@code null} if file was not uploaded in this session
+     */
+    Result get(String directory, String name) {
+        synchronized (results) {
+            return results.get(path(directory, name));
+        }
+    }
+
+    /**
+     * Wraps blocking stream to update checksums while it is read
+     *
+     * @param data uploaded file stream
+     * @return wrapping stream
+     */
+    CountingInputStream wrap(InputStream data) {
+        return new CountingInputStream(data);
+    }
+
+    static String path(String directory, String name) {
+        if(name.startsWith("/")) return name;
+        if(null == directory || directory.endsWith("/")) return (null == directory ? "/" : directory) + name;
+        return directory + "/" + name;
+    }
+
+    private void updateDirect(ByteBuffer bb) {
+        for(int i = 0; i < names.length; i++) {
+            if(null != digests[i]) digests[i].update(bb.duplicate());
+        }
+        // checksums accept only arrays on older JDKs
+        ByteBuffer dup = bb.duplicate();
+        while(dup.hasRemaining()) {
+            int len = Math.min(dup.remaining(), SCRATCH_SIZE);
+            dup.get(scratch, 0, len);
+            for(Checksum cs : checksums) {
+                if(null != cs) cs.update(scratch, 0, len);
+            }
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for(byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static MessageDigest newDigest(String name) {
+        try {
+            return MessageDigest.getInstance(name);
+        } catch (NoSuchAlgorithmException e) {
+            // checked in config
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Checksum newCrc32c() {
+        if(null == JDK_CRC32C) return new Crc32c();
+        try {
+            return (Checksum) JDK_CRC32C.newInstance();
+        } catch (Exception e) {
+            return new Crc32c();
+        }
+    }
+
+    private static Constructor<?> jdkCrc32c() {
+        // intrinsified implementation is available since JDK 9
+        try {
+            return Class.forName("java.util.zip.CRC32C").getConstructor();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checksums of single upload
+     */
+    static class Result {
+        private final long offset;
+        private final long length;
+        private final Map<String, String> checksums;
+
+        private Result(long offset, long length, Map<String, String> checksums) {
+            this.offset = offset;
+            this.length = length;
+            this.checksums = checksums;
+        }
+
+        /**
+         * @return byte offset the upload continued from
+         */
+        long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return number of received bytes
+         */
+        long getLength() {
+            return length;
+        }
+
+        /**
+         * @param algorithm canonical algorithm name
+         * @return hex checksum, {@code null} if algorithm was not enabled
+         */
+        String get(String algorithm) {
+            return checksums.get(algorithm);
+        }
+    }
+
+    /**
+     * Stream that updates checksums and counts bytes read
+     */
+    class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        /**
+         * @return number of bytes read
+         */
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int res = in.read();
+            if(-1 != res) {
+                scratch[0] = (byte) res;
+                update(scratch, 0, 1);
+                count += 1;
+            }
+            return res;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int res = in.read(b, off, len);
+            if(res > 0) {
+                update(b, off, res);
+                count += res;
+            }
+            return res;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped data must be digested too
+            byte[] buf = new byte[SCRATCH_SIZE];
+            long left = n;
+            while(left > 0) {
+                int read = read(buf, 0, (int) Math.min(left, buf.length));
+                if(-1 == read) break;
+                left -= read;
+            }
+            return n - left;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static org.jboss.netty.buffer.ChannelBuffers.wrappedBuffer;
+
+/**
+ * Inflater for {@code MODE Z} uploads, single instance with its buffers is reused by all the transfers
+ * of the session, transfers of the same session never overlap. Decompression ratio is checked
+ * after each inflated block.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+class SessionInflater {
+    private final InflateLimits limits;
+    private final Inflater inflater = new Inflater();
+    private final byte[] input;
+    private final byte[] output;
+
+    /**
+     * Constructor
+     *
+     * @param limits inflate limits
+     */
+    SessionInflater(InflateLimits limits) {
+        this.limits = limits;
+        this.input = new byte[limits.getBufferSize()];
+        this.output = new byte[limits.getBufferSize()];
+    }
+
+    /**
+     * Prepares inflater for the next transfer
+     */
+    void reset() {
+        inflater.reset();
+    }
+
+    /**
+     * Inflates compressed chunk passing inflated chunks to receiver, inflated chunks share
+     * single output buffer and stay unchanged only until receiver call returns
+     *
+     * @param chunk compressed chunk
+     * @param receiver chunk receiver
+     * @param transfer current transfer
+     * @throws IOException on invalid deflate stream or on limits violation
+     */
+    void inflate(ChannelBuffer chunk, DataChunkReceiver receiver, DataTransfer transfer) throws IOException {
+        while(chunk.readable()) {
+            if(inflater.finished()) throw new IOException("Data received after the end of deflate stream");
+            int len = Math.min(chunk.readableBytes(), input.length);
+            chunk.readBytes(input, 0, len);
+            inflater.setInput(input, 0, len);
+            while(!inflater.needsInput() && !inflater.finished()) {
+                int inflated;
+                try {
+                    inflated = inflater.inflate(output);
+                } catch (DataFormatException e) {
+                    throw new IOException("Invalid deflate stream: [" + e.getMessage() + "]");
+                }
+                if(inflater.needsDictionary()) throw new IOException("Preset dictionaries are not supported");
+                checkRatio();
+                if(inflated > 0) receiver.onChunk(transfer, wrappedBuffer(output, 0, inflated));
+            }
+            if(inflater.finished() && inflater.getRemaining() > 0) throw new IOException(
+                    "Data received after the end of deflate stream");
+        }
+    }
+
+    /**
+     * Checks that whole deflate stream was received
+     *
+     * @throws IOException if deflate stream is truncated
+     */
+    void finish() throws IOException {
+        if(!inflater.finished()) throw new EOFException("Unexpected end of deflate stream");
+    }
+
+    /**
+     * Wraps compressed stream for blocking receivers
+     *
+     * @param data compressed stream
+     * @return inflating stream, its closing does not release this inflater
+     */
+    InputStream wrap(InputStream data) {
+        return new InflaterInputStream(data, inflater, input.length) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                checkRatio();
+                return read;
+            }
+        };
+    }
+
+    /**
+     * Releases native inflater resources
+     */
+    void end() {
+        inflater.end();
+    }
+
+    private void checkRatio() throws IOException {
+        long in = inflater.getBytesRead();
+        long out = inflater.getBytesWritten();
+        // first output buffer is always allowed
+        if(out > output.length && out > in * limits.getMaxRatio()) throw new IOException(
+                "Decompression ratio limit exceeded, compressed: [" + in + "], inflated: [" + out + "], " +
+                        "limit: [" + limits.getMaxRatio() + "]");
+    }
+}
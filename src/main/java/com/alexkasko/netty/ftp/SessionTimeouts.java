@@ -0,0 +1,197 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.alexkasko.netty.ftp.FtpServerHandler.send;
+import static com.alexkasko.netty.ftp.FtpServerHandler.writer;
+
+/**
+ * Timeouts state of single session. Only the earliest deadline of the session is scheduled in shared timer,
+ * all the deadlines are rechecked when it expires. Commands only move idle deadline forward, so they
+ * are recorded without rescheduling. Transfer stall is detected by comparing received bytes count
+ * between checks, so data chunks are never timestamped.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+class SessionTimeouts implements TimerTask {
+    private final ChannelHandlerContext ctx;
+    private final FtpTimeouts timeouts;
+    private final FtpMetrics metrics;
+    private final long idleNanos;
+    private final long connectNanos;
+    private final long stallNanos;
+    private volatile long lastActivity = System.nanoTime();
+    // guarded by this
+    private boolean stopped = false;
+    private Timeout scheduled;
+    private long scheduledDeadline;
+    private Runnable dataReaper;
+    private long dataOpened;
+    private boolean transferring = false;
+    private AbstractDataTransfer transfer;
+    private long transferReceived;
+    private long transferChecked;
+
+    /**
+     * Constructor
+     *
+     * @param ctx control channel context
+     * @param timeouts timeouts configuration
+     * @param metrics metrics registry, may be {@code null}
+     */
+    SessionTimeouts(ChannelHandlerContext ctx, FtpTimeouts timeouts, FtpMetrics metrics) {
+        this.ctx = ctx;
+        this.timeouts = timeouts;
+        this.metrics = metrics;
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(timeouts.getControlIdleMillis());
+        this.connectNanos = TimeUnit.MILLISECONDS.toNanos(timeouts.getDataConnectMillis());
+        this.stallNanos = TimeUnit.MILLISECONDS.toNanos(timeouts.getTransferStallMillis());
+    }
+
+    /**
+     * Schedules first check
+     */
+    synchronized void start() {
+        reschedule();
+    }
+
+    /**
+     * Records control channel activity
+     */
+    void touch() {
+        lastActivity = System.nanoTime();
+    }
+
+    /**
+     * Starts data connect timeout
+     *
+     * @param reaper closes data connection on expiry
+     */
+    synchronized void dataOpened(Runnable reaper) {
+        dataReaper = reaper;
+        dataOpened = System.nanoTime();
+        reschedule();
+    }
+
+    /**
+     * Stops data connect timeout
+     */
+    synchronized void dataConnected() {
+        dataReaper = null;
+        reschedule();
+    }
+
+    /**
+     * Stops data connect and idle timeouts and starts stall timeout
+     *
+     * @param transfer started transfer, {@code null} if its progress cannot be tracked
+     */
+    synchronized void transferStarted(AbstractDataTransfer transfer) {
+        dataReaper = null;
+        transferring = true;
+        this.transfer = transfer;
+        transferReceived = 0;
+        transferChecked = System.nanoTime();
+        reschedule();
+    }
+
+    /**
+     * Stops stall timeout and restarts idle timeout
+     */
+    synchronized void transferFinished() {
+        transferring = false;
+        transfer = null;
+        lastActivity = System.nanoTime();
+        reschedule();
+    }
+
+    /**
+     * Cancels scheduled check, no more checks are scheduled after this call
+     */
+    synchronized void stop() {
+        stopped = true;
+        if (null != scheduled) scheduled.cancel();
+        scheduled = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run(Timeout timeout) {
+        AbstractDataTransfer stalled = null;
+        Runnable reaper = null;
+        boolean idle = false;
+        synchronized (this) {
+            if (stopped || timeout != scheduled) return;
+            scheduled = null;
+            long now = System.nanoTime();
+            if (null != transfer) {
+                long received = transfer.getReceivedBytes();
+                if (received != transferReceived || transfer.isPaused()) {
+                    transferReceived = received;
+                    transferChecked = now;
+                } else if (now - transferChecked >= stallNanos) {
+                    stalled = transfer;
+                    // session stays busy until transfer reports its finish
+                    transfer = null;
+                }
+            }
+            if (null != dataReaper && connectNanos > 0 && now - dataOpened >= connectNanos) {
+                reaper = dataReaper;
+                dataReaper = null;
+            }
+            if (!transferring && idleNanos > 0 && now - lastActivity >= idleNanos) {
+                idle = true;
+                stopped = true;
+            } else reschedule();
+        }
+        if (null != stalled) {
+            if (null != metrics) metrics.transferReaped();
+            stalled.stalled(timeouts.getTransferStallMillis());
+        }
+        if (null != reaper) {
+            if (null != metrics) metrics.dataConnectionReaped();
+            reaper.run();
+        }
+        if (idle) {
+            if (null != metrics) metrics.sessionReaped();
+            send(FtpReply.IDLE_TIMEOUT, ctx, "[idle]", "");
+            writer(ctx).close();
+        }
+    }
+
+    // must be called under lock
+    private void reschedule() {
+        if (stopped) return;
+        long deadline = 0;
+        boolean found = false;
+        if (null != transfer && stallNanos > 0) {
+            deadline = transferChecked + stallNanos;
+            found = true;
+        }
+        if (null != dataReaper && connectNanos > 0) {
+            long dl = dataOpened + connectNanos;
+            if (!found || dl - deadline < 0) deadline = dl;
+            found = true;
+        }
+        if (!transferring && idleNanos > 0) {
+            long dl = lastActivity + idleNanos;
+            if (!found || dl - deadline < 0) deadline = dl;
+            found = true;
+        }
+        if (!found) return;
+        if (null != scheduled) {
+            if (scheduledDeadline - deadline <= 0) return;
+            scheduled.cancel();
+        }
+        scheduledDeadline = deadline;
+        long delay = Math.max(deadline - System.nanoTime(), 0);
+        scheduled = timeouts.getTimer().newTimeout(this, delay, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,140 @@
+package com.alexkasko.netty.ftp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct buffers for the small file fast path, should be shared between handlers.
+ * Uploads announced with {@code ALLO} to be not larger than threshold, and uploads of unknown size,
+ * are gathered into single pooled buffer and passed to {@link InMemoryReceiver}. Uploads exceeding
+ * the threshold fall back to streaming. Buffers are allocated lazily up to the memory budget
+ * and are never freed, uploads are streamed when all the buffers are in use.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class SmallFileBuffers {
+    private final int threshold;
+    private final int maxBuffers;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger allocated = new AtomicInteger(0);
+    private final AtomicInteger inUse = new AtomicInteger(0);
+    private final AtomicLong gathered = new AtomicLong(0);
+    private final AtomicLong exhausted = new AtomicLong(0);
+    private final AtomicLong overflowed = new AtomicLong(0);
+
+    /**
+     * Constructor
+     *
+     * @param threshold max size of the file received in memory, size of each pooled buffer
+     * @param budgetBytes max memory allocated for pooled buffers, must fit at least one buffer
+     */
+    public SmallFileBuffers(int threshold, long budgetBytes) {
+        if(threshold <= 0) throw new IllegalArgumentException(
+                "Provided threshold: [" + threshold + "] must be positive");
+        if(budgetBytes < threshold) throw new IllegalArgumentException(
+                "Provided budgetBytes: [" + budgetBytes + "] must be not less than threshold: [" + threshold + "]");
+        this.threshold = threshold;
+        this.maxBuffers = (int) Math.min(budgetBytes / threshold, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return max size of the file received in memory
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return number of allocated buffers
+     */
+    public int getAllocatedBuffers() {
+        return allocated.get();
+    }
+
+    /**
+     * @return number of buffers used by running uploads
+     */
+    public int getBuffersInUse() {
+        return inUse.get();
+    }
+
+    /**
+     * @return number of uploads received in memory
+     */
+    public long getGatheredCount() {
+        return gathered.get();
+    }
+
+    /**
+     * @return number of uploads streamed because memory budget was exhausted
+     */
+    public long getExhaustedCount() {
+        return exhausted.get();
+    }
+
+    /**
+     * @return number of uploads streamed because received data exceeded the threshold
+     */
+    public long getOverflowedCount() {
+        return overflowed.get();
+    }
+
+    /**
+     * @param allocatedSize file size announced by client, {@code -1} if not announced
+     * @param offset byte offset the upload continues from
+     * @return whether upload may be received in memory
+     */
+    boolean accepts(long allocatedSize, long offset) {
+        return 0 == offset && allocatedSize <= threshold;
+    }
+
+    /**
+     * Takes cleared buffer from the pool
+     *
+     * @return buffer or {@code null} if memory budget is exhausted
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buf = free.poll();
+        if(null == buf) {
+            for(;;) {
+                int count = allocated.get();
+                if(count >= maxBuffers) {
+                    exhausted.incrementAndGet();
+                    return null;
+                }
+                if(allocated.compareAndSet(count, count + 1)) break;
+            }
+            buf = ByteBuffer.allocateDirect(threshold);
+        }
+        inUse.incrementAndGet();
+        return buf;
+    }
+
+    /**
+     * Returns buffer to the pool
+     *
+     * @param buf buffer taken with {@link #acquire()}
+     */
+    void release(ByteBuffer buf) {
+        buf.clear();
+        inUse.decrementAndGet();
+        free.offer(buf);
+    }
+
+    /**
+     * Records upload received in memory
+     */
+    void gathered() {
+        gathered.incrementAndGet();
+    }
+
+    /**
+     * Records upload that exceeded the threshold
+     */
+    void overflowed() {
+        overflowed.incrementAndGet();
+    }
+}
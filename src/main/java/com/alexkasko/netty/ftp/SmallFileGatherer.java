@@ -0,0 +1,196 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+import static org.jboss.netty.buffer.ChannelBuffers.copiedBuffer;
+
+/**
+ * {@link DataChunkReceiver} wrapper created for each upload eligible for the small file fast path.
+ * Data chunks are gathered into pooled buffer and passed to {@link InMemoryReceiver} on completion.
+ * If pooled buffer is not available or received data exceeds its capacity, upload falls back to the
+ * wrapped receiver, data gathered so far is copied and passed to it as the first chunk.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+class SmallFileGatherer implements DataChunkReceiver {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final DataChunkReceiver delegate;
+    private final InMemoryReceiver target;
+    private final SmallFileBuffers buffers;
+    private final Executor executor;
+    // written only by the thread delivering chunks
+    private volatile boolean streaming = false;
+    // guarded by this
+    private ByteBuffer buf;
+
+    /**
+     * Constructor
+     *
+     * @param delegate receiver to fall back to
+     * @param target in-memory receiver
+     * @param buffers buffers pool
+     * @param executor executor to call in-memory receiver on, {@code null} to call it
+     *                 from the thread delivering chunks
+     */
+    SmallFileGatherer(DataChunkReceiver delegate, InMemoryReceiver target, SmallFileBuffers buffers,
+                      Executor executor) {
+        this.delegate = delegate;
+        this.target = target;
+        this.buffers = buffers;
+        this.executor = executor;
+    }
+
+    /**
+     * Receives upload from blocking stream, falls back to streaming if upload does not fit into pooled buffer
+     *
+     * @param target in-memory receiver
+     * @param directory current directory
+     * @param name uploaded file name
+     * @param data uploaded file stream
+     * @param buffers buffers pool
+     * @return {@code null} if upload was received in memory, stream with the whole upload otherwise
+     * @throws IOException on stream reading error or thrown by in-memory receiver
+     */
+    static InputStream receive(InMemoryReceiver target, String directory, String name, InputStream data,
+                               SmallFileBuffers buffers) throws IOException {
+        ByteBuffer buf = buffers.acquire();
+        if(null == buf) return data;
+        try {
+            byte[] tmp = new byte[Math.min(BUFFER_SIZE, buffers.getThreshold())];
+            int read;
+            while(-1 != (read = data.read(tmp))) {
+                if(read > buf.remaining()) {
+                    buffers.overflowed();
+                    buf.flip();
+                    byte[] head = new byte[buf.remaining() + read];
+                    buf.get(head, 0, buf.remaining());
+                    System.arraycopy(tmp, 0, head, head.length - read, read);
+                    return new SequenceInputStream(new ByteArrayInputStream(head), data);
+                }
+                buf.put(tmp, 0, read);
+            }
+            buf.flip();
+            target.receive(directory, name, buf);
+            buffers.gathered();
+            return null;
+        } finally {
+            buffers.release(buf);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onStart(DataTransfer transfer) throws IOException {
+        ByteBuffer acquired = buffers.acquire();
+        if(null == acquired) {
+            streaming = true;
+            delegate.onStart(transfer);
+            return;
+        }
+        synchronized (this) {
+            buf = acquired;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onChunk(DataTransfer transfer, ChannelBuffer chunk) throws IOException {
+        if(streaming) {
+            delegate.onChunk(transfer, chunk);
+            return;
+        }
+        synchronized (this) {
+            if(null == buf) return;
+            if(chunk.readableBytes() <= buf.remaining()) {
+                for(ByteBuffer bb : chunk.toByteBuffers()) buf.put(bb);
+                return;
+            }
+        }
+        buffers.overflowed();
+        ByteBuffer gathered = take();
+        if(null == gathered) return;
+        gathered.flip();
+        // delegate may keep chunks after this call, so pooled buffer is not exposed
+        ChannelBuffer head = copiedBuffer(gathered);
+        buffers.release(gathered);
+        streaming = true;
+        delegate.onStart(transfer);
+        if(head.readable()) delegate.onChunk(transfer, head);
+        delegate.onChunk(transfer, chunk);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onComplete(final DataTransfer transfer) throws IOException {
+        if(streaming) {
+            delegate.onComplete(transfer);
+            return;
+        }
+        final ByteBuffer gathered = take();
+        if(null == gathered) return;
+        gathered.flip();
+        if(null == executor) {
+            try {
+                target.receive(transfer.getDirectory(), transfer.getName(), gathered);
+                buffers.gathered();
+            } finally {
+                buffers.release(gathered);
+            }
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        target.receive(transfer.getDirectory(), transfer.getName(), gathered);
+                        buffers.gathered();
+                        transfer.complete();
+                    } catch (Exception e) {
+                        transfer.fail(e);
+                    } finally {
+                        buffers.release(gathered);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            buffers.release(gathered);
+            throw e;
+        }
+        transfer.deferCompletion();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onError(DataTransfer transfer, Throwable cause) {
+        if(streaming) {
+            delegate.onError(transfer, cause);
+            return;
+        }
+        ByteBuffer gathered = take();
+        if(null != gathered) buffers.release(gathered);
+    }
+
+    private synchronized ByteBuffer take() {
+        ByteBuffer res = buf;
+        buf = null;
+        return res;
+    }
+}
@@ -0,0 +1,438 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Properties;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link DataChunkReceiver} implementation, that decouples uploads from the slow blocking {@link DataReceiver}.
+ * Uploaded data is written to the spool directory at network speed and {@code 226} reply is sent
+ * as soon as spooled file is synced to disk. Spooled files are then passed to {@link DataReceiver}
+ * on provided executor, failed calls are retried with exponential backoff and files that failed
+ * all the attempts are kept in spool directory with {@code .failed} extension. Spooled files left
+ * after crash or restart are forwarded by {@link #recover()} that should be called once on startup.
+ * Each spooled upload consists of {@code .part} file, written during the upload, and {@code .meta} file
+ * with current directory and file name. Metadata is synced before data file is renamed to {@code .data},
+ * so only complete uploads are forwarded on recovery. Spool directory is synced after the rename, before
+ * {@code 226} reply, so the rename survives power loss. Syncing and rename are run on provided executor,
+ * data connection thread is not blocked on them. Directory sync requires JDK 7 or later and a platform
+ * that allows opening directories. Elsewhere, for example on JDK 6 or on Windows, it is skipped with a warning,
+ * and the rename relies on the file system journal. Resumed uploads are not supported.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class SpoolingReceiver implements DataChunkReceiver {
+    private static final Logger logger = LoggerFactory.getLogger(SpoolingReceiver.class);
+    private static final String PART = ".part";
+    private static final String META = ".meta";
+    private static final String DATA = ".data";
+    private static final String FAILED = ".failed";
+    // FileChannel.open(Path, OpenOption...) is available since JDK 7
+    private static final Method TO_PATH = method(File.class, "toPath");
+    private static final Method OPEN_CHANNEL = openMethod();
+    private static final Object READ_OPTIONS = readOptions();
+    private static volatile boolean dirSyncWarned = false;
+
+    private final DataReceiver receiver;
+    private final File spoolDir;
+    private final ScheduledExecutorService executor;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+    private final AtomicInteger pending = new AtomicInteger(0);
+    private final AtomicLong forwarded = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+
+    /**
+     * Constructor, uses {@code 5} attempts with {@code 1} second initial retry delay
+     *
+     * @param receiver blocking data receiver
+     * @param spoolDir spool directory, will be created if not exists
+     * @param executor bounded executor to run blocking receiver calls on
+     * @throws IOException if spool directory cannot be created
+     */
+    public SpoolingReceiver(DataReceiver receiver, File spoolDir, ScheduledExecutorService executor) throws IOException {
+        this(receiver, spoolDir, executor, 5, 1000);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param receiver blocking data receiver
+     * @param spoolDir spool directory, will be created if not exists
+     * @param executor bounded executor to run blocking receiver calls on
+     * @param maxAttempts max number of receiver calls for each spooled file
+     * @param retryDelayMillis delay before the first retry, doubled on each next retry
+     * @throws IOException if spool directory cannot be created
+     */
+    public SpoolingReceiver(DataReceiver receiver, File spoolDir, ScheduledExecutorService executor,
+                            int maxAttempts, long retryDelayMillis) throws IOException {
+        if(null == receiver) throw new IllegalArgumentException("Provided receiver is null");
+        if(null == spoolDir) throw new IllegalArgumentException("Provided spoolDir is null");
+        if(null == executor) throw new IllegalArgumentException("Provided executor is null");
+        if(maxAttempts <= 0) throw new IllegalArgumentException(
+                "Provided maxAttempts: [" + maxAttempts + "] must be positive");
+        if(retryDelayMillis < 0) throw new IllegalArgumentException(
+                "Provided retryDelayMillis: [" + retryDelayMillis + "] must be non-negative");
+        if(!(spoolDir.isDirectory() || spoolDir.mkdirs())) throw new IOException(
+                "Cannot create spool directory: [" + spoolDir.getAbsolutePath() + "]");
+        this.receiver = receiver;
+        this.spoolDir = spoolDir;
+        this.executor = executor;
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * Removes incomplete uploads from spool directory and forwards complete ones to receiver,
+     * should be called once on startup before accepting connections
+     *
+     * @return number of spooled files submitted for forwarding
+     * @throws IOException on spool directory reading error
+     */
+    public int recover() throws IOException {
+        File[] files = spoolDir.listFiles();
+        if(null == files) throw new IOException("Cannot list spool directory: [" + spoolDir.getAbsolutePath() + "]");
+        int count = 0;
+        for(File fi : files) {
+            String fname = fi.getName();
+            if(fname.endsWith(PART)) {
+                logger.info("Removing incomplete spooled upload: [" + fi.getAbsolutePath() + "]");
+                delete(fi);
+                delete(sibling(fi, PART, META));
+            } else if(fname.endsWith(DATA)) {
+                File meta = sibling(fi, DATA, META);
+                if(!meta.isFile()) {
+                    logger.warn("Removing spooled upload without metadata: [" + fi.getAbsolutePath() + "]");
+                    delete(fi);
+                    continue;
+                }
+                Properties props = readMeta(meta);
+                submit(new Forward(fi, meta, props.getProperty("directory"), props.getProperty("name")), 0);
+                count += 1;
+            } else if(fname.endsWith(META) && !sibling(fi, META, PART).exists() &&
+                    !sibling(fi, META, DATA).exists() && !sibling(fi, META, FAILED).exists()) {
+                delete(fi);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onStart(DataTransfer transfer) throws IOException {
+        if(transfer.getOffset() > 0) throw new IOException("Resumed uploads are not supported by spooling receiver");
+        File part = File.createTempFile("spool", PART, spoolDir);
+        transfer.setAttachment(new Spool(part, new RandomAccessFile(part, "rw")));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onChunk(DataTransfer transfer, ChannelBuffer chunk) throws IOException {
+        Spool spool = (Spool) transfer.getAttachment();
+        FileChannel channel = spool.raf.getChannel();
+        for(ByteBuffer buf : chunk.toByteBuffers()) {
+            while(buf.hasRemaining()) {
+                spool.position += channel.write(buf, spool.position);
+            }
+        }
+    }
+
+    /**
+     * Submits spooled file syncing to executor, transfer is completed from executor thread
+     * after spooled file is durable, so data connection thread is not blocked on disk sync
+     *
+     * @param transfer upload transfer
+     * @throws IOException if syncing is rejected by executor
+     */
+    @Override
+    public void onComplete(DataTransfer transfer) throws IOException {
+        Spool spool = (Spool) transfer.getAttachment();
+        spool.committing = true;
+        try {
+            executor.execute(new Commit(spool, transfer));
+        } catch (RejectedExecutionException e) {
+            spool.close();
+            delete(spool.part);
+            throw new IOException("Syncing of spooled file: [" + spool.part.getAbsolutePath() + "] " +
+                    "rejected by executor", e);
+        }
+        // reply is sent by executor thread
+        transfer.deferCompletion();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onError(DataTransfer transfer, Throwable cause) {
+        Spool spool = (Spool) transfer.getAttachment();
+        // spooled file being synced is cleaned up by commit task
+        if(null == spool || spool.committing) return;
+        spool.close();
+        delete(spool.part);
+    }
+
+    /**
+     * @return number of spooled files waiting to be forwarded to receiver
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * @return number of spooled files successfully forwarded to receiver
+     */
+    public long getForwardedCount() {
+        return forwarded.get();
+    }
+
+    /**
+     * @return number of spooled files that failed all the forwarding attempts
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    private void submit(Forward forward, long delayMillis) {
+        if(1 == forward.attempt) pending.incrementAndGet();
+        try {
+            if(0 == delayMillis) executor.execute(forward);
+            else executor.schedule(forward, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            logger.warn("Forwarding of spooled file: [" + forward.data.getAbsolutePath() + "] rejected by executor, " +
+                    "it will be forwarded on recovery", e);
+        }
+    }
+
+    private static void writeMeta(File meta, String directory, String name) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("directory", directory);
+        props.setProperty("name", name);
+        FileOutputStream os = new FileOutputStream(meta);
+        try {
+            props.store(os, null);
+            os.getFD().sync();
+        } finally {
+            os.close();
+        }
+    }
+
+    private static Properties readMeta(File meta) throws IOException {
+        Properties props = new Properties();
+        InputStream is = new FileInputStream(meta);
+        try {
+            props.load(is);
+        } finally {
+            is.close();
+        }
+        return props;
+    }
+
+    /**
+     * Forces directory entries to disk, does nothing with a single warning if directories cannot be opened
+     *
+     * @param dir directory to sync
+     * @throws IOException on sync error
+     */
+    static void syncDirectory(File dir) throws IOException {
+        FileChannel ch = openDirectory(dir);
+        if(null == ch) return;
+        try {
+            ch.force(true);
+        } finally {
+            ch.close();
+        }
+    }
+
+    private static FileChannel openDirectory(File dir) throws IOException {
+        Throwable cause;
+        if(null == TO_PATH || null == OPEN_CHANNEL || null == READ_OPTIONS) {
+            cause = null;
+        } else {
+            try {
+                return (FileChannel) OPEN_CHANNEL.invoke(null, TO_PATH.invoke(dir), READ_OPTIONS);
+            } catch (InvocationTargetException e) {
+                // directories cannot be opened on some platforms
+                cause = e.getCause();
+            } catch (IllegalAccessException e) {
+                cause = e;
+            }
+        }
+        if(!dirSyncWarned) {
+            dirSyncWarned = true;
+            logger.warn("Directory: [" + dir.getAbsolutePath() + "] cannot be synced, " +
+                    "created and renamed files may be lost on power failure", cause);
+        }
+        return null;
+    }
+
+    private static Method method(Class<?> clazz, String name, Class<?>... params) {
+        try {
+            return clazz.getMethod(name, params);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static Method openMethod() {
+        try {
+            Class<?> path = Class.forName("java.nio.file.Path");
+            Class<?> option = Class.forName("java.nio.file.OpenOption");
+            return method(FileChannel.class, "open", path, Array.newInstance(option, 0).getClass());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static Object readOptions() {
+        try {
+            Class<?> option = Class.forName("java.nio.file.OpenOption");
+            Object res = Array.newInstance(option, 1);
+            Array.set(res, 0, Class.forName("java.nio.file.StandardOpenOption").getField("READ").get(null));
+            return res;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static File sibling(File file, String ext, String siblingExt) {
+        String name = file.getName();
+        return new File(file.getParentFile(), name.substring(0, name.length() - ext.length()) + siblingExt);
+    }
+
+    private static void delete(File file) {
+        if(file.exists() && !file.delete()) logger.warn("Cannot delete spooled file: [" + file.getAbsolutePath() + "]");
+    }
+
+    private class Forward implements Runnable {
+        private final File data;
+        private final File meta;
+        private final String directory;
+        private final String name;
+        private int attempt = 1;
+
+        private Forward(File data, File meta, String directory, String name) {
+            this.data = data;
+            this.meta = meta;
+            this.directory = directory;
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            try {
+                InputStream is = new BufferedInputStream(new FileInputStream(data));
+                try {
+                    receiver.receive(directory, name, is);
+                } finally {
+                    is.close();
+                }
+            } catch (Exception e) {
+                retry(e);
+                return;
+            }
+            delete(data);
+            delete(meta);
+            pending.decrementAndGet();
+            forwarded.incrementAndGet();
+        }
+
+        private void retry(Exception e) {
+            if(attempt < maxAttempts) {
+                long delay = retryDelayMillis << Math.min(attempt - 1, 20);
+                logger.warn("Exception thrown on forwarding file: [" + name + "] from directory: [" + directory + "], " +
+                        "attempt: [" + attempt + "] of: [" + maxAttempts + "], retrying in: [" + delay + "] ms", e);
+                attempt += 1;
+                submit(this, delay);
+                return;
+            }
+            logger.error("Exception thrown on forwarding file: [" + name + "] from directory: [" + directory + "], " +
+                    "all: [" + maxAttempts + "] attempts failed, spooled file kept as: [" +
+                    sibling(data, DATA, FAILED).getAbsolutePath() + "]", e);
+            if(!data.renameTo(sibling(data, DATA, FAILED))) logger.warn(
+                    "Cannot rename failed spooled file: [" + data.getAbsolutePath() + "]");
+            pending.decrementAndGet();
+            failed.incrementAndGet();
+        }
+    }
+
+    private class Commit implements Runnable {
+        private final Spool spool;
+        private final DataTransfer transfer;
+
+        private Commit(Spool spool, DataTransfer transfer) {
+            this.spool = spool;
+            this.transfer = transfer;
+        }
+
+        @Override
+        public void run() {
+            File meta = sibling(spool.part, PART, META);
+            File data = sibling(spool.part, PART, DATA);
+            try {
+                spool.raf.getChannel().force(true);
+                spool.close();
+                writeMeta(meta, transfer.getDirectory(), transfer.getName());
+                if(!spool.part.renameTo(data)) throw new IOException(
+                        "Cannot rename spooled file: [" + spool.part.getAbsolutePath() + "] to: [" + data.getName() + "]");
+                // rename and metadata file creation are durable only after directory sync
+                syncDirectory(spoolDir);
+            } catch (Exception e) {
+                spool.close();
+                delete(spool.part);
+                delete(data);
+                delete(meta);
+                transfer.fail(e);
+                return;
+            }
+            // data is durable from this point
+            submit(new Forward(data, meta, transfer.getDirectory(), transfer.getName()), 0);
+            transfer.complete();
+        }
+    }
+
+    private static class Spool {
+        private final File part;
+        private final RandomAccessFile raf;
+        private long position = 0;
+        private volatile boolean committing = false;
+
+        private Spool(File part, RandomAccessFile raf) {
+            this.part = part;
+            this.raf = raf;
+        }
+
+        private void close() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                logger.warn("Exception thrown on closing spooled file: [" + part.getAbsolutePath() + "]", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.alexkasko.netty.ftp;
+
+/**
+ * Token bucket with rate provided on each consumption, so rate changes are applied immediately.
+ * Bucket holds up to {@code 100} ms worth of tokens, consumption never blocks and may take bucket
+ * into debt, that is returned as delay before the next read.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+class TokenBucket {
+    static final long BURST_MILLIS = 100;
+    static final long MIN_BURST_BYTES = 8192;
+    private static final long NANOS_IN_SECOND = 1000000000L;
+
+    // guarded by this
+    private long tokens = 0;
+    private long lastNanos = 0;
+    private boolean started = false;
+
+    /**
+     * Consumes tokens for received bytes
+     *
+     * @param bytes number of received bytes
+     * @param bytesPerSecond current rate, must be positive
+     * @param nanos current {@link System#nanoTime()}
+     * @return nanoseconds to pause reading for, {@code 0} if bucket is not in debt
+     */
+    synchronized long consume(long bytes, long bytesPerSecond, long nanos) {
+        long burst = Math.max(bytesPerSecond * BURST_MILLIS / 1000, MIN_BURST_BYTES);
+        if (!started) {
+            started = true;
+            tokens = burst;
+        } else {
+            long elapsed = nanos - lastNanos;
+            // refill is capped by burst anyway, long elapsed time must not overflow
+            long refill = elapsed >= NANOS_IN_SECOND ? burst : refill(elapsed, bytesPerSecond);
+            tokens = Math.min(burst, tokens + Math.max(refill, 0));
+        }
+        lastNanos = nanos;
+        tokens -= bytes;
+        if (tokens >= 0) return 0;
+        return (long) (-tokens * 1e9 / bytesPerSecond);
+    }
+
+    private static long refill(long elapsedNanos, long bytesPerSecond) {
+        // elapsed time is less than a second here
+        if (bytesPerSecond <= Long.MAX_VALUE / NANOS_IN_SECOND) return elapsedNanos * bytesPerSecond / NANOS_IN_SECOND;
+        return (long) (elapsedNanos / 1e9 * bytesPerSecond);
+    }
+}
@@ -0,0 +1,183 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelState;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.handler.execution.ChannelEventRunnable;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executor that runs tasks on JDK virtual threads, replaces the thread pool executor of {@link ExecutionHandler}
+ * and the receiver executor of {@link NioDataTransport}, so blocking command handling, blocking data transfers
+ * and blocking {@link DataReceiver} calls need no pool sizing. Channel events passed by {@link ExecutionHandler}
+ * are executed in order for each channel, each channel with pending events occupies one virtual thread
+ * that exits when its queue is drained. Other tasks are executed on their own virtual threads.
+ * Virtual threads are accessed with reflection, so library still runs on older JDKs,
+ * use {@link #isSupported()} to choose between this executor and the thread pool one.
+ *
+ * @author alexkasko
+ * Date: 10/17/26
+ */
+public class VirtualThreadExecutor implements Executor {
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreadExecutor.class);
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+        } catch (Exception e) {
+            // virtual threads are not supported by current JVM
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+    }
+
+    private final ThreadFactory factory;
+    private final ConcurrentMap<Channel, ChildExecutor> children = new ConcurrentHashMap<Channel, ChildExecutor>();
+
+    /**
+     * Constructor, names threads with {@code ftp-virtual-} prefix
+     *
+     * @throws IllegalStateException if virtual threads are not supported by current JVM
+     */
+    public VirtualThreadExecutor() {
+        this("ftp-virtual-");
+    }
+
+    /**
+     * Constructor
+     *
+     * @param namePrefix prefix for thread names, threads are numbered sequentially
+     * @throws IllegalStateException if virtual threads are not supported by current JVM
+     */
+    public VirtualThreadExecutor(String namePrefix) {
+        this(virtualThreadFactory(namePrefix));
+    }
+
+    /**
+     * Constructor for testing with platform threads
+     *
+     * @param factory thread factory
+     */
+    VirtualThreadExecutor(ThreadFactory factory) {
+        if(null == factory) throw new IllegalArgumentException("Provided factory is null");
+        this.factory = factory;
+    }
+
+    /**
+     * @return whether virtual threads are supported by current JVM
+     */
+    public static boolean isSupported() {
+        return null != OF_VIRTUAL;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute(Runnable task) {
+        if(!(task instanceof ChannelEventRunnable)) {
+            start(task);
+            return;
+        }
+        Channel channel = ((ChannelEventRunnable) task).getEvent().getChannel();
+        ChildExecutor child = children.get(channel);
+        if(null == child) {
+            child = new ChildExecutor(channel);
+            ChildExecutor existed = children.putIfAbsent(channel, child);
+            if(null != existed) child = existed;
+        }
+        child.execute(task);
+    }
+
+    /**
+     * @return number of channels with pending or running events
+     */
+    public int getActiveChannels() {
+        return children.size();
+    }
+
+    private void start(Runnable task) {
+        factory.newThread(task).start();
+    }
+
+    private static ThreadFactory virtualThreadFactory(String namePrefix) {
+        if(null == namePrefix) throw new IllegalArgumentException("Provided namePrefix is null");
+        if(!isSupported()) throw new IllegalStateException(
+                "Virtual threads are not supported by current JVM: [" + System.getProperty("java.version") + "]");
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = NAME.invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot create virtual thread factory", e);
+        }
+    }
+
+    private static boolean isClosed(ChannelEvent event) {
+        if(!(event instanceof ChannelStateEvent)) return false;
+        ChannelStateEvent se = (ChannelStateEvent) event;
+        return ChannelState.OPEN == se.getState() && Boolean.FALSE.equals(se.getValue());
+    }
+
+    private class ChildExecutor implements Runnable {
+        private final Channel channel;
+        // guarded by this
+        private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+        private boolean running = false;
+
+        private ChildExecutor(Channel channel) {
+            this.channel = channel;
+        }
+
+        private void execute(Runnable task) {
+            synchronized (this) {
+                tasks.add(task);
+                if(running) return;
+                running = true;
+            }
+            start(this);
+        }
+
+        @Override
+        public void run() {
+            for(;;) {
+                Runnable task;
+                synchronized (this) {
+                    task = tasks.poll();
+                    if(null == task) {
+                        running = false;
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    logger.warn("Exception thrown by channel event task", e);
+                }
+                // channel closed event is the last upstream one
+                if(isClosed(((ChannelEventRunnable) task).getEvent())) children.remove(channel, this);
+            }
+        }
+    }
+}
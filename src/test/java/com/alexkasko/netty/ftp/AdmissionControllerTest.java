@@ -0,0 +1,175 @@
+package com.alexkasko.netty.ftp;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * User: alexkasko
+ * Date: 10/17/26
+ */
+public class AdmissionControllerTest {
+
+    @Test
+    public void testTransfersLimit() throws InterruptedException {
+        AdmissionController ac = new AdmissionController(2, Long.MAX_VALUE);
+        AdmissionController.Permit first = ac.acquire(0);
+        AdmissionController.Permit second = ac.tryAcquire(0);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals(2, ac.getActiveTransfers());
+        assertTrue(ac.isSaturated());
+        assertNull(ac.tryAcquire(0));
+        assertNull(ac.acquire(0));
+        assertEquals(1, ac.getRejectedCount());
+        second.release();
+        second.release();
+        assertEquals(1, ac.getActiveTransfers());
+        assertFalse(ac.isSaturated());
+        assertNotNull(ac.acquire(0));
+        assertEquals(3, ac.getAdmittedCount());
+    }
+
+    @Test
+    public void testInFlightBytes() throws InterruptedException {
+        AdmissionController ac = new AdmissionController(10, 100);
+        AdmissionController.Permit first = ac.acquire(40);
+        assertEquals(40, ac.getInFlightBytes());
+        first.received(30);
+        assertEquals(40, ac.getInFlightBytes());
+        first.received(30);
+        assertEquals(60, ac.getInFlightBytes());
+        // announced size does not fit
+        assertNull(ac.tryAcquire(50));
+        // consumed bytes are not held, announced ones are
+        first.consumed(50);
+        assertEquals(40, ac.getInFlightBytes());
+        first.received(20);
+        assertEquals(40, ac.getInFlightBytes());
+        first.received(20);
+        assertEquals(50, ac.getInFlightBytes());
+        AdmissionController.Permit second = ac.tryAcquire(0);
+        assertNotNull(second);
+        second.received(50);
+        assertEquals(100, ac.getInFlightBytes());
+        assertNull(ac.tryAcquire(0));
+        first.release();
+        second.release();
+        assertEquals(0, ac.getInFlightBytes());
+        // late chunks of released uploads are ignored
+        first.received(30);
+        second.consumed(30);
+        assertEquals(0, ac.getInFlightBytes());
+        // single upload is always admitted
+        AdmissionController.Permit large = ac.tryAcquire(1000);
+        assertNotNull(large);
+        large.release();
+    }
+
+    @Test
+    public void testReleaseRace() throws InterruptedException {
+        AdmissionController ac = new AdmissionController(1000, Long.MAX_VALUE);
+        for (int i = 0; i < 200; i++) {
+            final AdmissionController.Permit permit = ac.acquire(0);
+            final CountDownLatch started = new CountDownLatch(1);
+            Thread receiving = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    for (int j = 0; j < 1000; j++) {
+                        permit.received(10);
+                        permit.consumed(10);
+                    }
+                    // chunk left unconsumed when transfer is aborted
+                    permit.received(10);
+                }
+            });
+            receiving.start();
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            permit.release();
+            receiving.join();
+        }
+        // bytes received concurrently with release are not leaked
+        assertEquals(0, ac.getInFlightBytes());
+        assertEquals(0, ac.getActiveTransfers());
+    }
+
+    @Test
+    public void testQueue() throws InterruptedException {
+        final AdmissionController ac = new AdmissionController(1, Long.MAX_VALUE, 1, 10000);
+        AdmissionController.Permit first = ac.acquire(0);
+        final AtomicReference<AdmissionController.Permit> queued = new AtomicReference<AdmissionController.Permit>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queued.set(ac.acquire(0));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                latch.countDown();
+            }
+        }).start();
+        while (0 == ac.getQueueDepth()) Thread.sleep(10);
+        assertTrue(ac.isSaturated());
+        // queue is full
+        assertNull(ac.acquire(0));
+        // fifo, newcomers do not overtake queued uploads
+        assertNull(ac.tryAcquire(0));
+        first.release();
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertNotNull(queued.get());
+        assertEquals(0, ac.getQueueDepth());
+        assertEquals(1, ac.getActiveTransfers());
+    }
+
+    @Test
+    public void testQueueTimeout() throws InterruptedException {
+        AdmissionController ac = new AdmissionController(1, Long.MAX_VALUE, 1, 50);
+        assertNotNull(ac.acquire(0));
+        long start = System.currentTimeMillis();
+        assertNull(ac.acquire(0));
+        assertTrue(System.currentTimeMillis() - start >= 50);
+        assertEquals(1, ac.getTimedOutCount());
+        assertEquals(1, ac.getRejectedCount());
+        assertEquals(0, ac.getQueueDepth());
+    }
+
+    @Test
+    public void testRuntimeLimits() throws InterruptedException {
+        final AdmissionController ac = new AdmissionController(1, Long.MAX_VALUE, 1, 10000);
+        assertNotNull(ac.acquire(0));
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (null != ac.acquire(0)) latch.countDown();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }).start();
+        while (0 == ac.getQueueDepth()) Thread.sleep(10);
+        // raised limit wakes queued upload
+        ac.setMaxTransfers(2);
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(2, ac.getActiveTransfers());
+        ac.setMaxQueueDepth(0);
+        assertTrue(ac.isSaturated());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLimit() {
+        new AdmissionController(1, Long.MAX_VALUE).setMaxTransfers(0);
+    }
+}
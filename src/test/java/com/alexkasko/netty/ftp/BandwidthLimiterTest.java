@@ -0,0 +1,78 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.util.HashedWheelTimer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * User: alexkasko
+ * Date: 10/17/26
+ */
+public class BandwidthLimiterTest {
+
+    @Test
+    public void testBucket() {
+        TokenBucket bucket = new TokenBucket();
+        // burst is 100 ms worth of tokens
+        assertEquals(0, bucket.consume(10000, 100000, 0));
+        assertEquals(50000000, bucket.consume(5000, 100000, 0));
+        assertEquals(0, bucket.consume(0, 100000, 50000000));
+        // refill after long idle time is capped by burst
+        assertEquals(0, bucket.consume(10000, 100000, 10050000000L));
+        assertEquals(10000, bucket.consume(1, 100000, 10050000000L));
+    }
+
+    @Test
+    public void testFairShare() {
+        HashedWheelTimer timer = new HashedWheelTimer();
+        try {
+            BandwidthLimiter bl = new BandwidthLimiter(timer, 100000, 0);
+            BandwidthLimiter.Shaper first = bl.open(null);
+            BandwidthLimiter.Shaper second = bl.open(null);
+            assertEquals(2, bl.getActiveTransfers());
+            // global burst is available, but session share is half of global rate
+            assertTrue(first.acquire(10000) > 0);
+            assertTrue(second.acquire(10000) > 0);
+            assertEquals(2, bl.getThrottledCount());
+            assertEquals(20000, bl.getShapedBytes());
+            first.close();
+            first.close();
+            second.close();
+            assertEquals(0, bl.getActiveTransfers());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void testUserLimits() {
+        HashedWheelTimer timer = new HashedWheelTimer();
+        try {
+            BandwidthLimiter bl = new BandwidthLimiter(timer, 0, 0);
+            bl.setUserBytesPerSecond("slow", 10000);
+            assertEquals(10000, bl.getUserBytesPerSecond("slow"));
+            assertEquals(0, bl.getUserBytesPerSecond("other"));
+            BandwidthLimiter.Shaper other = bl.open("other");
+            assertEquals(0, other.acquire(1000000));
+            BandwidthLimiter.Shaper slow = bl.open("slow");
+            assertTrue(slow.acquire(100000) > 0);
+            bl.removeUserBytesPerSecond("slow");
+            bl.setSessionBytesPerSecond(20000);
+            assertEquals(20000, bl.getUserBytesPerSecond("slow"));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLimit() {
+        HashedWheelTimer timer = new HashedWheelTimer();
+        try {
+            new BandwidthLimiter(timer, -1, 0);
+        } finally {
+            timer.stop();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.alexkasko.netty.ftp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * User: alexkasko
+ * Date: 10/17/26
+ */
+public class ConcurrentHistogramTest {
+
+    @Test
+    public void testIndex() {
+        for (long val = 0; val < 1L << 20; val++) {
+            int idx = ConcurrentHistogram.index(val);
+            assertTrue(val <= ConcurrentHistogram.highestEquivalent(idx));
+            if (idx > 0) assertTrue(val > ConcurrentHistogram.highestEquivalent(idx - 1));
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        ConcurrentHistogram hist = new ConcurrentHistogram();
+        assertEquals(0, hist.getValueAtPercentile(99));
+        for (int i = 1; i <= 10000; i++) hist.record(i);
+        assertEquals(10000, hist.getCount());
+        assertEquals(10000, hist.getMax());
+        assertEquals(5000.5, hist.getMean(), 0.001);
+        assertEquals(1, hist.getValueAtPercentile(0));
+        assertEquals(10000, hist.getValueAtPercentile(100));
+        long median = hist.getValueAtPercentile(50);
+        assertTrue(median >= 5000 && median < 5000 * 1.07);
+        long p99 = hist.getValueAtPercentile(99);
+        assertTrue(p99 >= 9900 && p99 < 9900 * 1.07);
+    }
+}
@@ -0,0 +1,25 @@
+package com.alexkasko.netty.ftp;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * User: alexkasko
+ * Date: 10/17/26
+ */
+public class Crc32cTest {
+
+    @Test
+    public void testCheckValue() {
+        byte[] data = "123456789".getBytes(Charset.forName("UTF-8"));
+        Crc32c crc = new Crc32c();
+        crc.update(data, 0, data.length);
+        assertEquals(0xE3069283L, crc.getValue());
+        crc.reset();
+        for (byte b : data) crc.update(b);
+        assertEquals(0xE3069283L, crc.getValue());
+    }
+}
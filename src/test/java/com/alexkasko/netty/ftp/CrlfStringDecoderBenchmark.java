@@ -0,0 +1,63 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+
+import static org.jboss.netty.buffer.ChannelBuffers.dynamicBuffer;
+
+/**
+ * Microbenchmark for {@link CrlfStringDecoder}, reports time and heap allocations per decoded command
+ * for commands received in single reads and for commands fragmented byte-by-byte.
+ * Run with {@code java -cp ... com.alexkasko.netty.ftp.CrlfStringDecoderBenchmark [iterations]}
+ *
+ * User: alexkasko
+ * Date: 10/17/26
+ */
+public class CrlfStringDecoderBenchmark {
+    private static final String[] COMMANDS = {"USER anonymous", "CWD /foo/bar", "PASV", "STOR baz.csv", "NOOP"};
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        // warmup
+        run(iterations, false);
+        run(iterations, true);
+        report("coalesced", iterations, false);
+        report("fragmented", iterations, true);
+    }
+
+    private static void report(String label, int iterations, boolean fragmented) throws Exception {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long bytesBefore = mx.getThreadAllocatedBytes(tid);
+        long start = System.nanoTime();
+        int decoded = run(iterations, fragmented);
+        long nanos = System.nanoTime() - start;
+        long bytes = mx.getThreadAllocatedBytes(tid) - bytesBefore;
+        System.out.println(String.format("%-10s commands: %d, ns/command: %.1f, allocated bytes/command: %.1f",
+                label, decoded, ((double) nanos) / decoded, ((double) bytes) / decoded));
+    }
+
+    private static int run(int iterations, boolean fragmented) throws Exception {
+        CrlfStringDecoder decoder = new CrlfStringDecoder();
+        byte[][] commands = new byte[COMMANDS.length][];
+        for (int i = 0; i < COMMANDS.length; i++) commands[i] = (COMMANDS[i] + "\r\n").getBytes(Charset.forName("ASCII"));
+        ChannelBuffer cb = dynamicBuffer(512);
+        int decoded = 0;
+        for (int i = 0; i < iterations; i++) {
+            byte[] cmd = commands[i % commands.length];
+            if (fragmented) {
+                for (byte b : cmd) {
+                    cb.writeByte(b);
+                    if (null != decoder.decode(null, null, cb)) decoded += 1;
+                }
+            } else {
+                cb.writeBytes(cmd);
+                if (null != decoder.decode(null, null, cb)) decoded += 1;
+            }
+            cb.discardReadBytes();
+        }
+        return decoded;
+    }
+}
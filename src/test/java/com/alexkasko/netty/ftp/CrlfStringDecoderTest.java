@@ -0,0 +1,53 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.jboss.netty.buffer.ChannelBuffers.dynamicBuffer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * User: alexkasko
+ * Date: 10/17/26
+ */
+public class CrlfStringDecoderTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testSplit() throws Exception {
+        CrlfStringDecoder decoder = new CrlfStringDecoder();
+        ChannelBuffer cb = dynamicBuffer();
+        cb.writeBytes("STOR foo\r".getBytes(UTF8));
+        assertNull(decoder.decode(null, null, cb));
+        cb.writeBytes("\nPASV\nCWD /ф".getBytes(UTF8));
+        assertEquals("STOR foo", decoder.decode(null, null, cb));
+        assertEquals("PASV", decoder.decode(null, null, cb));
+        assertNull(decoder.decode(null, null, cb));
+        cb.writeBytes("\r\n".getBytes(UTF8));
+        assertEquals("CWD /ф", decoder.decode(null, null, cb));
+        assertFalse(cb.readable());
+    }
+
+    @Test
+    public void testThreshold() throws Exception {
+        CrlfStringDecoder decoder = new CrlfStringDecoder(4, "UTF-8");
+        ChannelBuffer cb = dynamicBuffer();
+        cb.writeBytes("NOOP\r".getBytes(UTF8));
+        assertNull(decoder.decode(null, null, cb));
+        cb.writeBytes("\nSTOR foo".getBytes(UTF8));
+        assertEquals("NOOP", decoder.decode(null, null, cb));
+        try {
+            decoder.decode(null, null, cb);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        cb.writeBytes("PWD\r\n".getBytes(UTF8));
+        assertEquals("PWD", decoder.decode(null, null, cb));
+    }
+}
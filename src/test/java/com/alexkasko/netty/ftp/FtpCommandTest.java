@@ -0,0 +1,40 @@
+package com.alexkasko.netty.ftp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * User: alexkasko
+ * Date: 10/17/26
+ */
+public class FtpCommandTest {
+
+    @Test
+    public void testParse() {
+        FtpCommand stor = FtpCommand.parse("STOR foo bar.txt ");
+        assertEquals(FtpVerb.STOR, stor.getVerb());
+        assertEquals("STOR", stor.getName());
+        assertEquals("foo bar.txt", stor.getArgument());
+        FtpCommand pwd = FtpCommand.parse("pwd");
+        assertEquals(FtpVerb.PWD, pwd.getVerb());
+        assertEquals("", pwd.getArgument());
+        FtpCommand unknown = FtpCommand.parse("XYZW 42");
+        assertEquals(FtpVerb.UNKNOWN, unknown.getVerb());
+        assertEquals("XYZW", unknown.getName());
+        assertEquals("42", unknown.getArgument());
+        assertNull(FtpCommand.parse(" \t"));
+    }
+
+    @Test
+    public void testLookup() {
+        for (FtpVerb verb : FtpVerb.values()) {
+            if (FtpVerb.UNKNOWN == verb) continue;
+            assertEquals(verb, FtpVerb.lookup(verb.name(), 0, verb.name().length()));
+            assertEquals(verb, FtpVerb.lookup(" " + verb.name().toLowerCase(), 1, verb.name().length()));
+        }
+        assertEquals(FtpVerb.UNKNOWN, FtpVerb.lookup("STORE", 0, 5));
+        assertEquals(FtpVerb.UNKNOWN, FtpVerb.lookup("ST0R", 0, 4));
+    }
+}
@@ -0,0 +1,34 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * User: alexkasko
+ * Date: 10/17/26
+ */
+public class FtpReplyTest {
+    private static final Charset ASCII = Charset.forName("ASCII");
+
+    @Test
+    public void testEncode() {
+        ChannelBuffer ok = FtpReply.OK.encoded();
+        assertEquals("200 OK\r\n", ok.toString(ASCII));
+        ok.skipBytes(ok.readableBytes());
+        assertEquals("200 OK\r\n", FtpReply.OK.encoded().toString(ASCII));
+        assertEquals("257 \"/f?o\" is current directory\r\n",
+                FtpReply.encode("257 \"", "/föo", "\" is current directory").toString(ASCII));
+    }
+
+    @Test
+    public void testEncodePassive() {
+        assertEquals("227 Entering Passive Mode (127,0,0,1,16,146)\r\n",
+                FtpReply.encodePassive(new byte[]{127, 0, 0, 1}, 4242).toString(ASCII));
+        assertEquals("227 Entering Passive Mode (255,255,255,255,255,255)\r\n",
+                FtpReply.encodePassive(new byte[]{-1, -1, -1, -1}, 65535).toString(ASCII));
+    }
+}
@@ -1,9 +1,13 @@
 package com.alexkasko.netty.ftp;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
 import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
@@ -11,25 +15,90 @@ import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
 import org.jboss.netty.handler.execution.ExecutionHandler;
 import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 import static java.util.concurrent.Executors.newCachedThreadPool;
 import static org.apache.commons.net.ftp.FTPReply.isPositiveCompletion;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 /**
  * User: alexkasko
  * Date: 12/28/12
  */
 public class FtpServerTest {
+    private ExecutorService boss;
+    private ExecutorService worker;
+    private NioServerSocketChannelFactory factory;
+    private OrderedMemoryAwareThreadPoolExecutor commandExecutor;
+    private NioDataTransport transport;
+    // released after each test
+    private final List<Channel> servers = new ArrayList<Channel>();
+    private final List<ExecutorService> executors = new ArrayList<ExecutorService>();
+    private final List<Timer> timers = new ArrayList<Timer>();
+
+    @Before
+    public void init() {
+        boss = newCachedThreadPool();
+        worker = newCachedThreadPool();
+        factory = new NioServerSocketChannelFactory(boss, worker);
+        commandExecutor = new OrderedMemoryAwareThreadPoolExecutor(16, 0, 0);
+    }
+
+    @After
+    public void release() {
+        for (Timer ti : timers) ti.stop();
+        for (Channel ch : servers) ch.close().awaitUninterruptibly();
+        factory.releaseExternalResources();
+        if (null != transport) transport.releaseExternalResources();
+        commandExecutor.shutdownNow();
+        for (ExecutorService ex : executors) ex.shutdownNow();
+    }
 
     @Test
     public void test() throws IOException, InterruptedException {
@@ -37,9 +106,778 @@ public class FtpServerTest {
         ServerBootstrap bootstrap = new ServerBootstrap(factory);
         bootstrap.setPipelineFactory(new PipelineFactory());
         bootstrap.bind(new InetSocketAddress(2121));
+        checkUploads(2121);
+    }
+
+    @Test
+    public void testNio() throws IOException, InterruptedException {
+        ExecutorService boss = newCachedThreadPool();
+        ExecutorService worker = newCachedThreadPool();
+        ChannelFactory factory = new NioServerSocketChannelFactory(boss, worker);
+        NioDataTransport transport = new NioDataTransport(boss, worker, newCachedThreadPool());
+        ServerBootstrap bootstrap = new ServerBootstrap(factory);
+        bootstrap.setPipelineFactory(new NioPipelineFactory(transport));
+        bootstrap.bind(new InetSocketAddress(2122));
+        checkUploads(2122);
+    }
+
+    @Test
+    public void testChunks() throws IOException, InterruptedException {
+        ChannelFactory factory = new NioServerSocketChannelFactory(newCachedThreadPool(), newCachedThreadPool());
+        ServerBootstrap bootstrap = new ServerBootstrap(factory);
+        bootstrap.setPipelineFactory(new ChunksPipelineFactory());
+        bootstrap.bind(new InetSocketAddress(2123));
+        checkUploads(2123);
+    }
+
+    @Test
+    public void testFileSystem() throws IOException, InterruptedException, JMException {
+        File root = File.createTempFile("FtpServerTest", "");
+        assertTrue(root.delete());
+        final NioDataTransport transport = transport();
+        final FileSystemReceiver receiver = new FileSystemReceiver(root);
+        final FtpMetrics metrics = new FtpMetrics();
+        serve(2124, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(receiver, transport,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 4445, 4545, 10)
+                        .setMetrics(metrics);
+            }
+        });
+        try {
+            checkUploads(2124);
+            assertEquals("content", FileUtils.readFileToString(new File(root, "foo/bar"), "UTF-8"));
+            assertEquals(2, metrics.getTotalSessions());
+            assertEquals(2, metrics.getCommandCount(FtpVerb.STOR));
+            assertEquals(2, metrics.getStorTransfers());
+            assertEquals(14, metrics.getStorBytes());
+            assertEquals(2, metrics.getPermanentErrorReplies());
+            ObjectName name = metrics.register("FtpServerTest");
+            try {
+                assertEquals(2L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "StorTransfers"));
+            } finally {
+                metrics.unregister();
+            }
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void testBlockingMetrics() throws IOException {
+        final FtpMetrics metrics = new FtpMetrics();
+        final DataReceiver receiver = new DataReceiver() {
+            @Override
+            public void receive(String directory, String name, InputStream data) throws IOException {
+                IOUtils.toByteArray(data);
+                if ("fail".equals(name)) throw new IOException("Simulated failure");
+            }
+        };
+        serve(2146, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(receiver,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 5201, 5250, 10, 0)
+                        .setMetrics(metrics);
+            }
+        });
+        FTPClient client = new FTPClient();
+        client.connect("127.0.0.1", 2146);
+        assertTrue(client.setFileType(FTP.BINARY_FILE_TYPE));
+        assertTrue(client.storeFile("bar", new ByteArrayInputStream("content".getBytes("UTF-8"))));
+        assertFalse(client.storeFile("fail", new ByteArrayInputStream("fail".getBytes("UTF-8"))));
+        assertTrue(client.logout());
+        client.disconnect();
+        assertEquals(1, metrics.getStorTransfers());
+        assertEquals(1, metrics.getStorFailures());
+        assertEquals(11, metrics.getStorBytes());
+    }
+
+    @Test
+    public void testResume() throws IOException, InterruptedException {
+        File root = File.createTempFile("FtpServerTest", "");
+        assertTrue(root.delete());
+        final NioDataTransport transport = transport();
+        final FileSystemReceiver receiver = new FileSystemReceiver(root);
+        serve(2125, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(receiver,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 4546, 4645, 10, 0);
+            }
+        });
+        serve(2126, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(receiver, transport,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 4850, 4950, 10);
+            }
+        });
+        try {
+            checkResume(2125, false, new File(root, "foo/active"));
+            checkResume(2125, true, new File(root, "foo/passive"));
+            checkResume(2126, false, new File(root, "foo/nioActive"));
+            checkResume(2126, true, new File(root, "foo/nioPassive"));
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void testResumeAfterCrash() throws IOException {
+        File root = File.createTempFile("FtpServerTest", "");
+        assertTrue(root.delete());
+        final NioDataTransport transport = transport();
+        final CrashingReceiver receiver = new CrashingReceiver(root);
+        serve(2144, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(receiver,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 5051, 5100, 10, 0);
+            }
+        });
+        serve(2145, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(receiver, transport,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 5001, 5050, 10);
+            }
+        });
+        try {
+            checkResumeAfterCrash(2144, receiver, new File(root, "blocking"));
+            checkResumeAfterCrash(2145, receiver, new File(root, "nio"));
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void testResumeNotSupported() throws IOException {
+        ChannelFactory factory = new NioServerSocketChannelFactory(newCachedThreadPool(), newCachedThreadPool());
+        ServerBootstrap bootstrap = new ServerBootstrap(factory);
+        bootstrap.setPipelineFactory(new PipelineFactory());
+        bootstrap.bind(new InetSocketAddress(2127));
+        FTPClient client = new FTPClient();
+        client.connect("127.0.0.1", 2127);
+        assertEquals(502, client.sendCommand("REST", "42"));
+        assertEquals(502, client.sendCommand("SIZE", "foo"));
+        assertTrue(client.logout());
+        client.disconnect();
+    }
+
+    @Test
+    public void testDeflate() throws IOException {
+        File root = File.createTempFile("FtpServerTest", "");
+        assertTrue(root.delete());
+        final NioDataTransport transport = transport();
+        final FileSystemReceiver receiver = new FileSystemReceiver(root);
+        serve(2128, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(receiver, transport,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 4951, 5000, 10)
+                        .setInflateLimits(new InflateLimits(100, 1024));
+            }
+        });
+        try {
+            FTPClient client = new FTPClient();
+            client.connect("127.0.0.1", 2128);
+            assertTrue(client.setFileType(FTP.BINARY_FILE_TYPE));
+            client.enterLocalPassiveMode();
+            assertEquals(504, client.sendCommand("MODE", "B"));
+            assertEquals(200, client.sendCommand("MODE", "Z"));
+            byte[] content = new byte[100000];
+            Random random = new Random(42);
+            for (int i = 0; i < content.length; i++) content[i] = (byte) ('a' + random.nextInt(16));
+            assertTrue(client.storeFile("bar", new ByteArrayInputStream(deflate(content))));
+            assertTrue(Arrays.equals(content, FileUtils.readFileToByteArray(new File(root, "bar"))));
+            // second transfer reuses session inflater
+            assertTrue(client.storeFile("baz", new ByteArrayInputStream(deflate("content".getBytes("UTF-8")))));
+            assertEquals("content", FileUtils.readFileToString(new File(root, "baz"), "UTF-8"));
+            // ratio limit
+            assertFalse(client.storeFile("zeros", new ByteArrayInputStream(deflate(new byte[1 << 20]))));
+            // truncated stream
+            byte[] deflated = deflate(content);
+            assertFalse(client.storeFile("truncated", new ByteArrayInputStream(deflated, 0, deflated.length / 2)));
+            assertEquals(200, client.sendCommand("MODE", "S"));
+            assertTrue(client.storeFile("plain", new ByteArrayInputStream("content".getBytes("UTF-8"))));
+            assertEquals("content", FileUtils.readFileToString(new File(root, "plain"), "UTF-8"));
+            assertTrue(client.logout());
+            client.disconnect();
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void testAdmission() throws IOException, InterruptedException {
+        File root = File.createTempFile("FtpServerTest", "");
+        assertTrue(root.delete());
+        final NioDataTransport transport = transport();
+        final FileSystemReceiver receiver = new FileSystemReceiver(root);
+        final AdmissionController ac = new AdmissionController(1, Long.MAX_VALUE, 1, 100);
+        final BandwidthLimiter limiter = new BandwidthLimiter(timer(), 0, 0);
+        serve(2129, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(receiver,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 5151, 5199, 10, 0)
+                        .setAdmissionController(ac)
+                        .setBandwidthLimiter(limiter);
+            }
+        });
+        serve(2130, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(receiver, transport,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 5101, 5150, 10)
+                        .setAdmissionController(ac)
+                        .setBandwidthLimiter(limiter);
+            }
+        });
+        try {
+            checkAdmission(2129, ac, limiter, new File(root, "blocking"));
+            checkAdmission(2130, ac, limiter, new File(root, "nio"));
+            assertEquals(4, ac.getAdmittedCount());
+            assertEquals(2, ac.getTimedOutCount());
+            assertEquals(4, ac.getRejectedCount());
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    private static void checkAdmission(int port, final AdmissionController ac, final BandwidthLimiter limiter,
+                                       File file) throws IOException, InterruptedException {
+        AdmissionController.Permit held = ac.acquire(0);
+        FTPClient client = new FTPClient();
+        client.connect("127.0.0.1", port);
+        assertTrue(client.setFileType(FTP.BINARY_FILE_TYPE));
+        client.enterLocalPassiveMode();
+        final AtomicInteger shapedWhileQueued = new AtomicInteger(-1);
+        Thread watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (0 == ac.getQueueDepth()) Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                shapedWhileQueued.set(limiter.getActiveTransfers());
+            }
+        });
+        watcher.setDaemon(true);
+        watcher.start();
+        // queued and timed out
+        assertFalse(client.storeFile(file.getName(), new ByteArrayInputStream("content".getBytes("UTF-8"))));
+        assertEquals(450, client.getReplyCode());
+        watcher.join(10000);
+        // bandwidth is not shaped for uploads waiting for admission
+        assertEquals(0, shapedWhileQueued.get());
+        // saturated without queue
+        ac.setMaxQueueDepth(0);
+        try {
+            client.sendCommand("PASV");
+            fail();
+        } catch (FTPConnectionClosedException e) {
+            // expected
+        }
+        client.disconnect();
+        ac.setMaxQueueDepth(1);
+        held.release();
+        client.connect("127.0.0.1", port);
+        assertTrue(client.setFileType(FTP.BINARY_FILE_TYPE));
+        client.enterLocalPassiveMode();
+        assertTrue(client.storeFile(file.getName(), new ByteArrayInputStream("content".getBytes("UTF-8"))));
+        assertEquals("content", FileUtils.readFileToString(file, "UTF-8"));
+        assertEquals(0, ac.getActiveTransfers());
+        assertTrue(client.logout());
+        client.disconnect();
+    }
+
+    @Test
+    public void testTimeouts() throws IOException, InterruptedException {
+        File root = File.createTempFile("FtpServerTest", "");
+        assertTrue(root.delete());
+        final NioDataTransport transport = transport();
+        final FileSystemReceiver receiver = new FileSystemReceiver(root);
+        final FtpMetrics metrics = new FtpMetrics();
+        HashedWheelTimer timer = timer();
+        final FtpTimeouts timeouts = new FtpTimeouts(timer, 1000, 200, 200);
+        serve(2131, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(receiver,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 5351, 5399, 10, 0)
+                        .setTimeouts(timeouts).setMetrics(metrics);
+            }
+        });
+        serve(2132, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(receiver, transport,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 5301, 5350, 10)
+                        .setTimeouts(timeouts).setMetrics(metrics);
+            }
+        });
+        try {
+            checkTimeouts(2131);
+            checkTimeouts(2132);
+            assertEquals(2, metrics.getReapedDataConnections());
+            assertEquals(2, metrics.getReapedTransfers());
+            assertEquals(2, metrics.getReapedSessions());
+            assertEquals(0, metrics.getActiveSessions());
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    private static void checkTimeouts(int port) throws IOException, InterruptedException {
+        FTPClient client = new FTPClient();
+        client.connect("127.0.0.1", port);
+        assertTrue(client.setFileType(FTP.BINARY_FILE_TYPE));
+        // unused data connection
+        assertEquals(227, client.pasv());
+        Thread.sleep(500);
+        assertEquals(503, client.sendCommand("STOR", "unused"));
+        // stalled upload
+        client.enterLocalPassiveMode();
+        OutputStream os = client.storeFileStream("stalled");
+        os.write("content".getBytes("UTF-8"));
+        os.flush();
+        assertFalse(client.completePendingCommand());
+        assertEquals(426, client.getReplyCode());
+        IOUtils.closeQuietly(os);
+        // idle session
+        Thread.sleep(1500);
+        try {
+            client.sendNoOp();
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        client.disconnect();
+    }
+
+    @Test
+    public void testSpooling() throws IOException, InterruptedException {
+        File spool = File.createTempFile("FtpServerTest", "");
+        assertTrue(spool.delete());
+        final NioDataTransport transport = transport();
+        final FlakyReceiver flaky = new FlakyReceiver();
+        ScheduledExecutorService forwarders = Executors.newScheduledThreadPool(2);
+        // spooled file is synced on executor, forwarding is rejected
+        ScheduledExecutorService stopped = new ScheduledThreadPoolExecutor(1) {
+            private final AtomicBoolean synced = new AtomicBoolean(false);
+            @Override
+            public void execute(Runnable command) {
+                if(!synced.compareAndSet(false, true)) throw new RejectedExecutionException("Forwarding is stopped");
+                super.execute(command);
+            }
+        };
+        final SpoolingReceiver receiver = new SpoolingReceiver(flaky, spool, stopped, 3, 10);
+        serve(2133, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(receiver, transport,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 5401, 5450, 10);
+            }
+        });
+        try {
+            FTPClient client = new FTPClient();
+            client.connect("127.0.0.1", 2133);
+            assertTrue(client.setFileType(FTP.BINARY_FILE_TYPE));
+            client.enterLocalPassiveMode();
+            assertTrue(client.changeWorkingDirectory("/foo"));
+            // replied after spooling, forwarding is rejected by stopped executor
+            assertTrue(client.storeFile("bar", new ByteArrayInputStream("content".getBytes("UTF-8"))));
+            assertTrue(client.logout());
+            client.disconnect();
+            assertEquals(0, flaky.files.size());
+            assertEquals(2, spool.list().length);
+            // spooled upload is forwarded on recovery, first attempt fails
+            SpoolingReceiver recovered = new SpoolingReceiver(flaky, spool, forwarders, 3, 10);
+            assertEquals(1, recovered.recover());
+            assertTrue(flaky.latch.await(10, TimeUnit.SECONDS));
+            assertEquals("content", flaky.files.get("/foo/bar"));
+            assertEquals(2, flaky.attempts.get());
+            while (recovered.getPendingCount() > 0) Thread.sleep(10);
+            assertEquals(1, recovered.getForwardedCount());
+            assertEquals(0, spool.list().length);
+        } finally {
+            forwarders.shutdown();
+            stopped.shutdown();
+            FileUtils.deleteDirectory(spool);
+        }
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        File root = File.createTempFile("FtpServerTest", "");
+        assertTrue(root.delete());
+        // batch is committed only when all three uploads are finished
+        GroupCommitter committer = new GroupCommitter(60000, 3);
+        final NioDataTransport transport = transport();
+        final FileSystemReceiver receiver = new FileSystemReceiver(root).setGroupCommitter(committer);
+        serve(2134, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(receiver, transport,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 5451, 5500, 10);
+            }
+        });
+        ExecutorService clients = executor();
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 3; i++) {
+                final String name = "file" + i;
+                results.add(clients.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        FTPClient client = new FTPClient();
+                        client.connect("127.0.0.1", 2134);
+                        client.enterLocalPassiveMode();
+                        boolean res = client.storeFile(name, new ByteArrayInputStream(name.getBytes("UTF-8")));
+                        client.disconnect();
+                        return res;
+                    }
+                }));
+            }
+            for (Future<Boolean> fu : results) assertTrue(fu.get(10, TimeUnit.SECONDS));
+            assertEquals(3, committer.getCommittedFiles());
+            assertEquals(1, committer.getCommittedBatches());
+            // all three files share the directory
+            assertEquals(1, committer.getSyncedDirectories());
+            assertEquals("file1", FileUtils.readFileToString(new File(root, "file1"), "UTF-8"));
+        } finally {
+            committer.close();
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void testVirtualThreads() throws IOException {
+        assumeTrue(VirtualThreadExecutor.isSupported());
+        final VirtualThreadExecutor executor = new VirtualThreadExecutor();
+        final NioDataTransport transport = transport(executor);
+        ExecutionHandler execution = new ExecutionHandler(executor);
+        serve(2135, new HandlerPipelineFactory(execution, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(new ConsoleReceiver(),
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 5551, 5599, 10, 0);
+            }
+        }));
+        serve(2136, new HandlerPipelineFactory(execution, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(new ConsoleReceiver(), transport,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 5501, 5550, 10);
+            }
+        }));
+        checkUploads(2135);
+        checkUploads(2136);
+    }
+
+    @Test
+    public void testSmallFiles() throws IOException {
+        final NioDataTransport transport = transport();
+        final SmallFileBuffers buffers = new SmallFileBuffers(16, 1024);
+        final MemoryReceiver receiver = new MemoryReceiver();
+        serve(2137, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(receiver,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 5651, 5699, 10, 0)
+                        .setSmallFileBuffers(buffers);
+            }
+        });
+        serve(2138, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(receiver, transport,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 5601, 5650, 10)
+                        .setSmallFileBuffers(buffers);
+            }
+        });
+        checkSmallFiles(2137, receiver);
+        checkSmallFiles(2138, receiver);
+        assertEquals(2, buffers.getGatheredCount());
+        assertEquals(2, buffers.getOverflowedCount());
+        assertEquals(0, buffers.getBuffersInUse());
+    }
+
+    @Test
+    public void testChecksums() throws Exception {
+        final NioDataTransport transport = transport();
+        final FtpChecksums checksums = new FtpChecksums("SHA-256", "CRC32", "MD5", "CRC32C");
+        final ChecksumsReceiver receiver = new ChecksumsReceiver();
+        serve(2139, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(receiver,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 5751, 5799, 10, 0)
+                        .setChecksums(checksums);
+            }
+        });
+        serve(2140, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(receiver, transport,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 5701, 5750, 10)
+                        .setChecksums(checksums);
+            }
+        });
+        checkChecksums(2139, receiver);
+        checkChecksums(2140, receiver);
+    }
+
+    @Test
+    public void testPassiveListener() throws Exception {
+        final NioDataTransport transport = transport();
+        // single shared port, own channels are bound only when it is already taken by the same client address
+        final PassiveListener listener = new PassiveListener(transport, InetAddress.getByName("127.0.0.1"), 5801);
+        serve(2141, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(new ConsoleReceiver(), transport,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 5802, 5850, 10)
+                        .setPassiveListener(listener);
+            }
+        });
+        ExecutorService clients = executor();
+        try {
+            checkUploads(2141);
+            FTPClient client = new FTPClient();
+            client.connect("127.0.0.1", 2141);
+            client.enterLocalPassiveMode();
+            for (int i = 0; i < 5; i++) {
+                assertTrue(client.storeFile("seq" + i, new ByteArrayInputStream("seq".getBytes("UTF-8"))));
+                assertEquals(5801, client.getPassivePort());
+            }
+            client.disconnect();
+            assertEquals(7, listener.getAcceptedCount());
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 4; i++) {
+                final String name = "file" + i;
+                results.add(clients.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        FTPClient client = new FTPClient();
+                        client.connect("127.0.0.1", 2141);
+                        client.enterLocalPassiveMode();
+                        boolean res = true;
+                        for (int j = 0; j < 3; j++) {
+                            res &= client.storeFile(name, new ByteArrayInputStream(name.getBytes("UTF-8")));
+                        }
+                        client.disconnect();
+                        return res;
+                    }
+                }));
+            }
+            for (Future<Boolean> fu : results) assertTrue(fu.get(10, TimeUnit.SECONDS));
+            assertEquals(0, listener.getPendingCount());
+            assertEquals(0, listener.getUnmatchedCount());
+            // connection without PASV is closed
+            Socket socket = new Socket("127.0.0.1", 5801);
+            socket.setSoTimeout(10000);
+            assertEquals(-1, socket.getInputStream().read());
+            socket.close();
+            assertEquals(1, listener.getUnmatchedCount());
+        } finally {
+            listener.close();
+        }
+    }
+
+    @Test
+    public void testBandwidth() throws IOException {
+        HashedWheelTimer timer = timer();
+        final BandwidthLimiter limiter = new BandwidthLimiter(timer, 0, 100000);
+        limiter.setUserBytesPerSecond("fast", 0);
+        final DataReceiver receiver = new DataReceiver() {
+            @Override
+            public void receive(String directory, String name, InputStream data) throws IOException {
+                IOUtils.toByteArray(data);
+            }
+        };
+        final NioDataTransport transport = transport();
+        serve(2142, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(receiver,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 5951, 5999, 10, 0)
+                        .setBandwidthLimiter(limiter);
+            }
+        });
+        serve(2143, new HandlerFactory() {
+            @Override
+            public FtpServerHandler create() throws Exception {
+                return new FtpServerHandler(receiver, transport,
+                        InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 5901, 5950, 10)
+                        .setBandwidthLimiter(limiter);
+            }
+        });
+        checkBandwidth(2142, limiter);
+        checkBandwidth(2143, limiter);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        while (!deflater.finished()) baos.write(buf, 0, deflater.deflate(buf));
+        deflater.end();
+        return baos.toByteArray();
+    }
+
+    private static void checkBandwidth(int port, BandwidthLimiter limiter) throws IOException {
+        byte[] data = new byte[100000];
+        new Random(42).nextBytes(data);
+        FTPClient client = new FTPClient();
+        client.connect("127.0.0.1", port);
+        assertTrue(client.setFileType(FTP.BINARY_FILE_TYPE));
+        client.enterLocalPassiveMode();
+        long throttled = limiter.getThrottledCount();
+        long start = System.currentTimeMillis();
+        // one second at session rate minus initial burst
+        assertTrue(client.storeFile("slow", new ByteArrayInputStream(data)));
+        assertTrue(System.currentTimeMillis() - start >= 700);
+        assertTrue(limiter.getThrottledCount() > throttled);
+        throttled = limiter.getThrottledCount();
+        // user limit overrides session limit
+        assertTrue(isPositiveCompletion(client.user("fast")));
+        assertTrue(client.storeFile("fast", new ByteArrayInputStream(data)));
+        assertEquals(throttled, limiter.getThrottledCount());
+        assertTrue(client.logout());
+        client.disconnect();
+        assertEquals(0, limiter.getActiveTransfers());
+    }
+
+    private static void checkSmallFiles(int port, MemoryReceiver receiver) throws IOException {
+        receiver.files.clear();
+        FTPClient client = new FTPClient();
+        client.connect("127.0.0.1", port);
+        assertTrue(client.setFileType(FTP.BINARY_FILE_TYPE));
+        client.enterLocalPassiveMode();
+        assertTrue(client.changeWorkingDirectory("/foo"));
+        assertTrue(client.storeFile("small", new ByteArrayInputStream("small".getBytes("UTF-8"))));
+        // exceeds threshold during upload
+        assertTrue(client.storeFile("large", new ByteArrayInputStream("0123456789abcdefghij".getBytes("UTF-8"))));
+        // exceeds threshold with announced size
+        assertTrue(client.allocate(42));
+        assertTrue(client.storeFile("allo", new ByteArrayInputStream("allo".getBytes("UTF-8"))));
+        assertTrue(client.logout());
+        client.disconnect();
+        assertEquals("memory:small", receiver.files.get("/foo/small"));
+        assertEquals("stream:0123456789abcdefghij", receiver.files.get("/foo/large"));
+        assertEquals("stream:allo", receiver.files.get("/foo/allo"));
+    }
+
+    private static void checkChecksums(int port, ChecksumsReceiver receiver) throws Exception {
+        byte[] data = new byte[100000];
+        new Random(42).nextBytes(data);
+        String sha256 = hex(MessageDigest.getInstance("SHA-256").digest(data));
+        String md5 = hex(MessageDigest.getInstance("MD5").digest(data));
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        FTPClient client = new FTPClient();
+        client.connect("127.0.0.1", port);
+        assertTrue(client.setFileType(FTP.BINARY_FILE_TYPE));
+        client.enterLocalPassiveMode();
+        assertTrue(client.changeWorkingDirectory("/foo"));
+        assertEquals(550, client.sendCommand("HASH", "bar"));
+        assertTrue(client.storeFile("bar", new ByteArrayInputStream(data)));
+        assertEquals(sha256, receiver.checksums.get("SHA-256"));
+        assertEquals(4, receiver.checksums.size());
+        assertEquals(213, client.sendCommand("HASH", "bar"));
+        assertEquals("213 SHA-256 0-100000 " + sha256 + " bar", client.getReplyString().trim());
+        assertEquals(213, client.sendCommand("HASH", "/foo/bar"));
+        assertEquals(200, client.sendCommand("OPTS", "HASH md5"));
+        assertEquals(213, client.sendCommand("HASH", "bar"));
+        assertEquals("213 MD5 0-100000 " + md5 + " bar", client.getReplyString().trim());
+        assertEquals(501, client.sendCommand("OPTS", "HASH SHA-512"));
+        assertEquals(250, client.sendCommand("XCRC", "bar"));
+        assertEquals(String.format("250 %08X", crc.getValue()), client.getReplyString().trim());
+        assertEquals(250, client.sendCommand("XMD5", "bar"));
+        assertEquals("250 " + md5.toUpperCase(Locale.ENGLISH), client.getReplyString().trim());
+        assertTrue(client.logout());
+        client.disconnect();
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    private static void checkResume(int port, boolean passive, File file) throws IOException {
+        String name = file.getName();
+        FTPClient client = new FTPClient();
+        client.connect("127.0.0.1", port);
+        assertTrue(isPositiveCompletion(client.getReplyCode()));
+        assertTrue(client.setFileType(FTP.BINARY_FILE_TYPE));
+        if (passive) client.enterLocalPassiveMode();
+        assertTrue(client.changeWorkingDirectory("/foo"));
+        assertEquals(550, client.sendCommand("SIZE", name));
+        assertTrue(client.storeFile(name, new ByteArrayInputStream("0123456789".getBytes(Charset.forName("UTF-8")))));
+        assertEquals(213, client.sendCommand("SIZE", name));
+        assertEquals("213 10", client.getReplyString().trim());
+        client.setRestartOffset(4);
+        assertTrue(client.storeFile(name, new ByteArrayInputStream("ABC".getBytes(Charset.forName("UTF-8")))));
+        assertEquals("0123ABC", FileUtils.readFileToString(file, "UTF-8"));
+        assertTrue(client.appendFile(name, new ByteArrayInputStream("xyz".getBytes(Charset.forName("UTF-8")))));
+        assertEquals("0123ABCxyz", FileUtils.readFileToString(file, "UTF-8"));
+        client.setRestartOffset(42);
+        assertFalse(client.storeFile(name, new ByteArrayInputStream("foo".getBytes(Charset.forName("UTF-8")))));
+        assertEquals("0123ABCxyz", FileUtils.readFileToString(file, "UTF-8"));
+        // announced size exceeding usable space is refused before the file is touched
+        assertEquals(200, client.sendCommand("ALLO", Long.toString(Long.MAX_VALUE / 2)));
+        assertFalse(client.storeFile(name, new ByteArrayInputStream("foo".getBytes(Charset.forName("UTF-8")))));
+        assertEquals(552, client.getReplyCode());
+        assertEquals("0123ABCxyz", FileUtils.readFileToString(file, "UTF-8"));
+        assertTrue(client.logout());
+        client.disconnect();
+    }
+
+    private static void checkResumeAfterCrash(int port, CrashingReceiver receiver, File file) throws IOException {
+        String name = file.getName();
+        byte[] data = new byte[100000];
+        new Random(42).nextBytes(data);
+        receiver.crash.set(true);
+        FTPClient client = new FTPClient();
+        client.connect("127.0.0.1", port);
+        assertTrue(client.setFileType(FTP.BINARY_FILE_TYPE));
+        client.enterLocalPassiveMode();
+        assertTrue(client.allocate(data.length));
+        try {
+            assertFalse(client.storeFile(name, new ByteArrayInputStream(data)));
+        } catch (IOException e) {
+            // data connection may be reset while client is still sending
+        }
+        client.disconnect();
+        // preallocated file was not truncated
+        assertEquals(data.length, file.length());
+        client.connect("127.0.0.1", port);
+        assertTrue(client.setFileType(FTP.BINARY_FILE_TYPE));
+        client.enterLocalPassiveMode();
+        assertEquals(213, client.sendCommand("SIZE", name));
+        long size = Long.parseLong(client.getReplyString().trim().substring(4));
+        assertTrue(size >= CrashingReceiver.CRASH_OFFSET);
+        assertTrue(size < data.length);
+        assertTrue(client.appendFile(name, new ByteArrayInputStream(data, (int) size, data.length - (int) size)));
+        assertTrue(Arrays.equals(data, FileUtils.readFileToByteArray(file)));
+        assertEquals(213, client.sendCommand("SIZE", name));
+        assertEquals("213 " + data.length, client.getReplyString().trim());
+        assertTrue(client.logout());
+        client.disconnect();
+    }
+
+    private static void checkUploads(int port) throws IOException {
         FTPClient client = new FTPClient();
         // active
-        client.connect("127.0.0.1", 2121);
+        client.connect("127.0.0.1", port);
         assertTrue(isPositiveCompletion(client.getReplyCode()));
         assertTrue(client.setFileType(FTP.BINARY_FILE_TYPE));
         assertEquals("/", client.printWorkingDirectory());
@@ -53,7 +891,7 @@ public class FtpServerTest {
         assertTrue(client.logout());
         client.disconnect();
         // passive
-        client.connect("127.0.0.1", 2121);
+        client.connect("127.0.0.1", port);
         assertTrue(isPositiveCompletion(client.getReplyCode()));
         assertTrue(client.setFileType(FTP.BINARY_FILE_TYPE));
         client.enterLocalPassiveMode();
@@ -69,6 +907,63 @@ public class FtpServerTest {
         client.disconnect();
     }
 
+    private NioDataTransport transport() {
+        return transport(executor());
+    }
+
+    private NioDataTransport transport(Executor receiverExecutor) {
+        // passive data channels share selectors with control channels
+        transport = new NioDataTransport(factory, boss, worker, receiverExecutor);
+        return transport;
+    }
+
+    private ExecutorService executor() {
+        ExecutorService res = newCachedThreadPool();
+        executors.add(res);
+        return res;
+    }
+
+    private HashedWheelTimer timer() {
+        HashedWheelTimer res = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+        timers.add(res);
+        return res;
+    }
+
+    private void serve(int port, HandlerFactory handlers) {
+        serve(port, new HandlerPipelineFactory(new ExecutionHandler(commandExecutor), handlers));
+    }
+
+    private void serve(int port, ChannelPipelineFactory pipelineFactory) {
+        ServerBootstrap bootstrap = new ServerBootstrap(factory);
+        bootstrap.setPipelineFactory(pipelineFactory);
+        servers.add(bootstrap.bind(new InetSocketAddress(port)));
+    }
+
+    // creates handler for each accepted control channel
+    private interface HandlerFactory {
+        FtpServerHandler create() throws Exception;
+    }
+
+    // testonly, use proper instantiation in production
+    private static class HandlerPipelineFactory implements ChannelPipelineFactory {
+        private final ExecutionHandler executionHandler;
+        private final HandlerFactory handlers;
+
+        private HandlerPipelineFactory(ExecutionHandler executionHandler, HandlerFactory handlers) {
+            this.executionHandler = executionHandler;
+            this.handlers = handlers;
+        }
+
+        @Override
+        public ChannelPipeline getPipeline() throws Exception {
+            ChannelPipeline pipe = Channels.pipeline();
+            pipe.addLast("decoder", new CrlfStringDecoder());
+            pipe.addLast("executor", executionHandler);
+            pipe.addLast("handler", handlers.create());
+            return pipe;
+        }
+    }
+
     // testonly, use proper instantiation in production
     private static class PipelineFactory implements ChannelPipelineFactory {
         @Override
@@ -81,6 +976,91 @@ public class FtpServerTest {
         }
     }
 
+    // testonly, use proper instantiation in production
+    private static class NioPipelineFactory implements ChannelPipelineFactory {
+        private final NioDataTransport transport;
+
+        private NioPipelineFactory(NioDataTransport transport) {
+            this.transport = transport;
+        }
+
+        @Override
+        public ChannelPipeline getPipeline() throws Exception {
+            ChannelPipeline pipe = Channels.pipeline();
+            pipe.addLast("decoder", new CrlfStringDecoder());
+            pipe.addLast("commandDecoder", new FtpCommandDecoder());
+            pipe.addLast("executor", new ExecutionHandler(new OrderedMemoryAwareThreadPoolExecutor(1, 0, 0)));
+            pipe.addLast("handler", new FtpServerHandler(new ConsoleReceiver(), transport,
+                    InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 4243, 4343, 10));
+            return pipe;
+        }
+    }
+
+    // testonly, use proper instantiation in production
+    private static class ChunksPipelineFactory implements ChannelPipelineFactory {
+        @Override
+        public ChannelPipeline getPipeline() throws Exception {
+            ChannelPipeline pipe = Channels.pipeline();
+            pipe.addLast("decoder", new CrlfStringDecoder());
+            pipe.addLast("executor", new ExecutionHandler(new OrderedMemoryAwareThreadPoolExecutor(1, 0, 0)));
+            pipe.addLast("handler", new FtpServerHandler(new ConsoleChunkReceiver(),
+                    InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.1"), 4344, 4444, 10, 0));
+            return pipe;
+        }
+    }
+
+    // simulates process killed during the first upload, file is neither truncated nor closed
+    private static class CrashingReceiver extends FileSystemReceiver {
+        private static final int CRASH_OFFSET = 30000;
+        private final AtomicBoolean crash = new AtomicBoolean(false);
+        private final AtomicLong received = new AtomicLong(0);
+
+        private CrashingReceiver(File root) throws IOException {
+            super(root);
+        }
+
+        @Override
+        public void onStart(DataTransfer transfer) throws IOException {
+            received.set(0);
+            super.onStart(transfer);
+        }
+
+        @Override
+        public void onChunk(DataTransfer transfer, ChannelBuffer chunk) throws IOException {
+            if (crash.get() && received.get() >= CRASH_OFFSET) throw new IOException("Simulated crash");
+            received.addAndGet(chunk.readableBytes());
+            super.onChunk(transfer, chunk);
+        }
+
+        @Override
+        public void onError(DataTransfer transfer, Throwable cause) {
+            if (!crash.getAndSet(false)) super.onError(transfer, cause);
+        }
+    }
+
+    private static class ConsoleChunkReceiver implements DataChunkReceiver {
+        @Override
+        public void onStart(DataTransfer transfer) {
+            System.out.println("receiving file: [" + transfer.getName() + "] to directory: [" + transfer.getDirectory() + "]");
+            System.out.println("receiving data:");
+        }
+
+        @Override
+        public void onChunk(DataTransfer transfer, ChannelBuffer chunk) {
+            System.out.print(chunk.toString(Charset.forName("UTF-8")));
+        }
+
+        @Override
+        public void onComplete(DataTransfer transfer) {
+            System.out.println("");
+        }
+
+        @Override
+        public void onError(DataTransfer transfer, Throwable cause) {
+            cause.printStackTrace();
+        }
+    }
+
     private static class ConsoleReceiver implements DataReceiver {
         @Override
         public void receive(String directory, String name, InputStream data) throws IOException {
@@ -90,4 +1070,47 @@ public class FtpServerTest {
             System.out.println("");
         }
     }
+
+    private static class MemoryReceiver implements DataReceiver, InMemoryReceiver {
+        private final Map<String, String> files = new ConcurrentHashMap<String, String>();
+
+        @Override
+        public void receive(String directory, String name, InputStream data) throws IOException {
+            files.put(directory + "/" + name, "stream:" + IOUtils.toString(data, "UTF-8"));
+        }
+
+        @Override
+        public void receive(String directory, String name, ByteBuffer data) throws IOException {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            files.put(directory + "/" + name, "memory:" + new String(bytes, "UTF-8"));
+        }
+    }
+
+    private static class ChecksumsReceiver implements DataReceiver, ChecksumReceiver {
+        private volatile Map<String, String> checksums;
+
+        @Override
+        public void receive(String directory, String name, InputStream data) throws IOException {
+            IOUtils.copy(data, new ByteArrayOutputStream());
+        }
+
+        @Override
+        public void onChecksums(String directory, String name, Map<String, String> checksums) {
+            this.checksums = checksums;
+        }
+    }
+
+    private static class FlakyReceiver implements DataReceiver {
+        private final Map<String, String> files = new ConcurrentHashMap<String, String>();
+        private final AtomicInteger attempts = new AtomicInteger(0);
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        @Override
+        public void receive(String directory, String name, InputStream data) throws IOException {
+            if (1 == attempts.incrementAndGet()) throw new IOException("First attempt fails");
+            files.put(directory + "/" + name, IOUtils.toString(data, "UTF-8"));
+            latch.countDown();
+        }
+    }
 }
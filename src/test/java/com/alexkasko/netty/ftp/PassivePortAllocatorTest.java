@@ -0,0 +1,74 @@
+package com.alexkasko.netty.ftp;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * User: alexkasko
+ * Date: 10/17/26
+ */
+public class PassivePortAllocatorTest {
+
+    @Test
+    public void testExhaustion() {
+        PassivePortAllocator pa = new PassivePortAllocator(5000, 5099);
+        Set<Integer> ports = new HashSet<Integer>();
+        for (int i = 0; i < 100; i++) {
+            int port = pa.allocate();
+            assertTrue(port >= 5000 && port <= 5099);
+            assertTrue(ports.add(port));
+        }
+        assertEquals(-1, pa.allocate());
+        assertEquals(1, pa.getExhaustionsCount());
+        assertEquals(0, pa.getFreeCount());
+        assertTrue(pa.release(5042));
+        assertFalse(pa.release(5042));
+        assertEquals(5042, pa.allocate());
+    }
+
+    @Test
+    public void testReuseOrder() {
+        PassivePortAllocator pa = new PassivePortAllocator(5000, 5002);
+        assertEquals(5000, pa.allocate());
+        assertTrue(pa.release(5000));
+        // released port goes after the other free ones
+        assertEquals(5001, pa.allocate());
+        assertEquals(5002, pa.allocate());
+        assertEquals(5000, pa.allocate());
+        assertEquals(-1, pa.allocate());
+        assertTrue(pa.release(5002));
+        assertTrue(pa.release(5001));
+        assertEquals(5002, pa.allocate());
+        assertEquals(5001, pa.allocate());
+    }
+
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        final PassivePortAllocator pa = new PassivePortAllocator(6000, 6999);
+        final Set<Integer> ports = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        final CountDownLatch latch = new CountDownLatch(8);
+        for (int t = 0; t < 8; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 125; i++) ports.add(pa.allocate());
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        assertEquals(1000, ports.size());
+        assertFalse(ports.contains(-1));
+        assertEquals(1000, pa.getUsedCount());
+        assertEquals(1000, pa.getAllocationsCount());
+    }
+}
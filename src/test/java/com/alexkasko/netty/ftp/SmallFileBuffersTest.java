@@ -0,0 +1,54 @@
+package com.alexkasko.netty.ftp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * User: alexkasko
+ * Date: 10/17/26
+ */
+public class SmallFileBuffersTest {
+
+    @Test
+    public void testBudget() {
+        SmallFileBuffers sfb = new SmallFileBuffers(1024, 2500);
+        ByteBuffer first = sfb.acquire();
+        ByteBuffer second = sfb.acquire();
+        assertNotNull(first);
+        assertNotNull(second);
+        assertTrue(first.isDirect());
+        assertEquals(1024, first.capacity());
+        assertNull(sfb.acquire());
+        assertEquals(1, sfb.getExhaustedCount());
+        assertEquals(2, sfb.getBuffersInUse());
+        first.put((byte) 42);
+        sfb.release(first);
+        // released buffer is reused cleared
+        ByteBuffer reused = sfb.acquire();
+        assertSame(first, reused);
+        assertEquals(0, reused.position());
+        assertEquals(2, sfb.getAllocatedBuffers());
+    }
+
+    @Test
+    public void testAccepts() {
+        SmallFileBuffers sfb = new SmallFileBuffers(1024, 1024);
+        assertTrue(sfb.accepts(-1, 0));
+        assertTrue(sfb.accepts(1024, 0));
+        assertFalse(sfb.accepts(1025, 0));
+        assertFalse(sfb.accepts(-1, 42));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBudget() {
+        new SmallFileBuffers(1024, 1023);
+    }
+}
@@ -0,0 +1,103 @@
+package com.alexkasko.netty.ftp;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelState;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.UpstreamChannelStateEvent;
+import org.jboss.netty.channel.UpstreamMessageEvent;
+import org.jboss.netty.channel.local.DefaultLocalClientChannelFactory;
+import org.jboss.netty.handler.execution.ChannelEventRunnable;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * User: alexkasko
+ * Date: 10/17/26
+ */
+public class VirtualThreadExecutorTest {
+    private static final int EVENTS = 1000;
+
+    @Test
+    public void testOrdering() throws InterruptedException {
+        // platform threads, ordering does not depend on thread kind
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(Executors.defaultThreadFactory());
+        CountDownLatch latch = new CountDownLatch(2);
+        Recorder first = new Recorder(latch);
+        Recorder second = new Recorder(latch);
+        ChannelHandlerContext firstCtx = context(first);
+        ChannelHandlerContext secondCtx = context(second);
+        for (int i = 0; i < EVENTS; i++) {
+            executor.execute(new ChannelEventRunnable(firstCtx,
+                    new UpstreamMessageEvent(firstCtx.getChannel(), i, null)));
+            executor.execute(new ChannelEventRunnable(secondCtx,
+                    new UpstreamMessageEvent(secondCtx.getChannel(), i, null)));
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertOrdered(first.received);
+        assertOrdered(second.received);
+        executor.execute(new ChannelEventRunnable(firstCtx, new UpstreamChannelStateEvent(firstCtx.getChannel(),
+                ChannelState.OPEN, Boolean.FALSE)));
+        executor.execute(new ChannelEventRunnable(secondCtx, new UpstreamChannelStateEvent(secondCtx.getChannel(),
+                ChannelState.OPEN, Boolean.FALSE)));
+        // closed channels are forgotten
+        long deadline = System.currentTimeMillis() + 10000;
+        while (executor.getActiveChannels() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals(0, executor.getActiveChannels());
+    }
+
+    @Test
+    public void testSupport() {
+        try {
+            new VirtualThreadExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            assertTrue(VirtualThreadExecutor.isSupported());
+        } catch (IllegalStateException e) {
+            assertFalse(VirtualThreadExecutor.isSupported());
+        }
+    }
+
+    private static ChannelHandlerContext context(Recorder recorder) {
+        ChannelPipeline pipe = Channels.pipeline();
+        pipe.addLast("executor", new SimpleChannelUpstreamHandler());
+        pipe.addLast("recorder", recorder);
+        Channel channel = new DefaultLocalClientChannelFactory().newChannel(pipe);
+        return channel.getPipeline().getContext("executor");
+    }
+
+    private static void assertOrdered(List<Integer> received) {
+        assertEquals(EVENTS, received.size());
+        for (int i = 0; i < EVENTS; i++) assertEquals(i, (int) received.get(i));
+    }
+
+    private static class Recorder extends SimpleChannelUpstreamHandler {
+        private final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+        private final CountDownLatch latch;
+
+        private Recorder(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+            received.add((Integer) e.getMessage());
+            if (EVENTS == received.size()) latch.countDown();
+        }
+    }
+}